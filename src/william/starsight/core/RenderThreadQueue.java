@@ -0,0 +1,57 @@
+package william.starsight.core;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A queue of work that has to happen on the thread owning the OpenGL context, such as uploading meshes that were built
+ * on other threads.
+ * <p>
+ * Any thread may {@link #post(Runnable)}. Only the render thread should {@link #drain(long)}, which {@link Window} does
+ * once per frame.
+ *
+ * @author William
+ */
+public class RenderThreadQueue {
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Queues a task to run on the render thread
+	 *
+	 * @param task The task
+	 */
+	public void post(@NotNull Runnable task) {
+		tasks.add(task);
+	}
+	
+	/**
+	 * Runs queued tasks until the queue is empty or the time budget runs out. At least one task always runs, so the
+	 * queue makes progress even if a single task takes longer than the budget.
+	 *
+	 * @param budgetNanos How long to keep running tasks, in nanoseconds
+	 * @return The number of tasks that ran
+	 */
+	public int drain(long budgetNanos) {
+		long start = System.nanoTime();
+		int ran = 0;
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+			ran++;
+			if (System.nanoTime() - start >= budgetNanos) {
+				break;
+			}
+		}
+		return ran;
+	}
+	
+	/**
+	 * @return Whether there is nothing waiting to run
+	 */
+	@Contract(pure = true)
+	public boolean isEmpty() {
+		return tasks.isEmpty();
+	}
+}
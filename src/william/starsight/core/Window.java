@@ -7,6 +7,8 @@ import org.lwjgl.system.Callback;
 import org.lwjgl.system.MemoryUtil;
 import william.starsight.Starsight;
 import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.mesh.QuadIndexBuffer;
+import william.starsight.graphics.state.GLStateCache;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL43.*;
@@ -20,8 +22,11 @@ import static org.lwjgl.system.MemoryUtil.NULL;
 public class Window implements Runnable {
 	
 	private static final int DEFAULT_DIMENSIONS = 600;
+	private static final long DEFAULT_RENDER_THREAD_BUDGET_NANOS = 4_000_000L; // 4 ms
 	
 	private final Program program;
+	private final RenderThreadQueue renderThreadQueue = new RenderThreadQueue();
+	private long renderThreadBudgetNanos = DEFAULT_RENDER_THREAD_BUDGET_NANOS;
 	
 	private long windowHandle;
 	
@@ -115,6 +120,24 @@ public class Window implements Runnable {
 		this.a = a;
 	}
 
+	/**
+	 * Gets the queue of tasks this window runs on its render thread every frame, before ticking the program
+	 *
+	 * @return The render thread queue
+	 */
+	public @NotNull RenderThreadQueue getRenderThreadQueue() {
+		return renderThreadQueue;
+	}
+	
+	/**
+	 * Sets how long the window may spend running queued render thread tasks each frame
+	 *
+	 * @param milliseconds The budget in milliseconds
+	 */
+	public void setRenderThreadBudget(double milliseconds) {
+		this.renderThreadBudgetNanos = (long) (milliseconds * 1_000_000.0);
+	}
+
 	public void captureMouse() {
 		glfwSetInputMode(windowHandle, GLFW_RAW_MOUSE_MOTION, GLFW_TRUE);
         glfwSetInputMode(windowHandle, GLFW_CURSOR, GLFW_CURSOR_DISABLED);
@@ -152,9 +175,9 @@ public class Window implements Runnable {
 		glViewport(0, 0, width, height);
 		glfwSwapInterval(0);
 		
-		glEnable(GL_DEPTH_TEST);
-		glEnable(GL_CULL_FACE);
-		glFrontFace(GL_CCW);
+		GLStateCache.setDepthTest(true);
+		GLStateCache.setCullFace(true);
+		GLStateCache.setFrontFace(GL_CCW);
         STBImage.stbi_set_flip_vertically_on_load(true);
 
         program.initialize(this, width, height, glfwGetTime());
@@ -192,9 +215,11 @@ public class Window implements Runnable {
 	/// Simply loops and calls the program tick and render functions
 	private void loop() {
 		while (!glfwWindowShouldClose(windowHandle) && !program.shouldClose()) {
-			glClearColor(r, g, b, a);
+			GLStateCache.setClearColor(r, g, b, a);
 			glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
 			
+			renderThreadQueue.drain(renderThreadBudgetNanos); // Mesh uploads and such from other threads
+			
 			program.tick(glfwGetTime());
 			program.render(glfwGetTime());
 			
@@ -213,6 +238,7 @@ public class Window implements Runnable {
 		freeIfNotNull(repositionCallback);
 		freeIfNotNull(mouseMoveCallback);
 		program.cleanup();
+		QuadIndexBuffer.cleanup(); // After the program, which owns the meshes using it
 	}
 	
 	/// Small utility method to clear non-null callbacks
@@ -3,6 +3,7 @@ package william.starsight.graphics;
 import org.jetbrains.annotations.Contract;
 import org.lwjgl.opengl.GL;
 import william.starsight.Starsight;
+import william.starsight.graphics.state.GLStateCache;
 
 import static org.lwjgl.opengl.GL43.*;
 
@@ -25,6 +26,7 @@ public final class GraphicsUtils {
 	public static void initializeGL() {
 		if (!initialized) {
 			GL.createCapabilities();
+			GLStateCache.invalidate(); // Nothing is known about a fresh context
 			Starsight.LOG.fine("Initialized OpenGL version: " + glGetString(GL_VERSION));
 		}
 		initialized = true;
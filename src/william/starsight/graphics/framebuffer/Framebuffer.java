@@ -2,6 +2,7 @@ package william.starsight.graphics.framebuffer;
 
 import william.starsight.Starsight;
 import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
 import william.starsight.graphics.texture.Texture;
 
 import java.awt.*;
@@ -32,14 +33,14 @@ public class Framebuffer {
         }
 
         FBO = glGenFramebuffers();
-        glBindFramebuffer(GL_FRAMEBUFFER, FBO);
+        GLStateCache.bindFramebuffer(FBO);
 
         int colorTexAttachment = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, colorTexAttachment);
+        GLStateCache.bindTexture(0, colorTexAttachment);
         glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, initWidth, initHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE, 0L);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLStateCache.bindTexture(0, 0);
 
         glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, colorTexAttachment, 0);
 
@@ -56,30 +57,30 @@ public class Framebuffer {
             throw new IllegalStateException("The framebuffer is not complete!");
         }
 
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        GLStateCache.bindFramebuffer(0);
 
     }
 
     public void startRecord() {
         if (isRecording)
             return;
-        glBindFramebuffer(GL_FRAMEBUFFER, FBO);
+        GLStateCache.bindFramebuffer(FBO);
         isRecording = true;
 
-        glClearColor(
+        GLStateCache.setClearColor(
                 clearColor.getRed() / 255.0f,
                 clearColor.getGreen() / 255.0f,
                 clearColor.getBlue() / 255.0f,
                 clearColor.getAlpha() / 255.0f
                 );
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-        glEnable(GL_DEPTH_TEST);
+        GLStateCache.setDepthTest(true);
     }
 
     public void stopRecord() {
         if (!isRecording)
             return;
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        GLStateCache.bindFramebuffer(0);
         isRecording = false;
     }
 
@@ -89,7 +90,7 @@ public class Framebuffer {
 
     public void cleanup() {
         tex.cleanup();
-        glDeleteFramebuffers(FBO);
+        GLStateCache.deleteFramebuffer(FBO);
         FBO = 0; // One is meant to be able to delete and resize the Framebuffer at will. this will be kinda glitchy
     }
 
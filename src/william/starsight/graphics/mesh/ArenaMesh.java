@@ -0,0 +1,110 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * A mesh that lives in a slice of a {@link BufferArena} rather than in buffers of its own, vertices first and then its
+ * indices, if it has any. Creating and deleting one doesn't create or delete any GL objects.
+ *
+ * @author William
+ */
+public class ArenaMesh extends Mesh {
+    private final BufferArena arena;
+    private final VertexFormat vertexFormat;
+    private int[] indices; // Dropped once uploaded
+    private final int indexCount;
+    private final int vertexCount;
+
+    private BufferArena.Slice slice;
+    private int indexOffset; // In bytes, from the start of the slice
+
+    /**
+     * Constructs a mesh drawn as plain triangles, like a {@link SimpleMesh}
+     *
+     * @param vertexData A direct buffer whose remaining bytes are the vertices
+     * @param ownsVertexData Whether the mesh frees the buffer once it's uploaded, see {@link Mesh#Mesh(ByteBuffer, boolean)}
+     * @param vertexFormat The vertex format used by the buffer
+     * @param arena The arena to allocate from
+     */
+    public ArenaMesh(@NotNull ByteBuffer vertexData, boolean ownsVertexData, @NotNull VertexFormat vertexFormat, @NotNull BufferArena arena) {
+        this(vertexData, ownsVertexData, null, vertexFormat, arena);
+    }
+
+    /**
+     * Constructs a mesh
+     *
+     * @param vertexData A direct buffer whose remaining bytes are the vertices
+     * @param ownsVertexData Whether the mesh frees the buffer once it's uploaded, see {@link Mesh#Mesh(ByteBuffer, boolean)}
+     * @param indices The indices, or {@code null} to draw the vertices as plain triangles
+     * @param vertexFormat The vertex format used by the buffer
+     * @param arena The arena to allocate from
+     */
+    public ArenaMesh(@NotNull ByteBuffer vertexData, boolean ownsVertexData, int @Nullable [] indices, @NotNull VertexFormat vertexFormat, @NotNull BufferArena arena) {
+        super(vertexData, ownsVertexData, vertexFormat);
+        this.arena = arena;
+        this.vertexFormat = vertexFormat;
+        this.indices = indices == null ? null : indices.clone();
+        this.indexCount = indices == null ? 0 : indices.length;
+        this.vertexCount = vertexData.remaining() / vertexFormat.getStrideInBytes();
+    }
+
+    @Override
+    public void initialize() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+
+        int stride = vertexFormat.getStrideInBytes();
+        int vertexBytes = vertexCount * stride;
+        // Indices need 4 byte alignment, and the slice has to start on a whole vertex for the base vertex to work
+        indexOffset = (vertexBytes + 3) & ~3;
+        int alignment = stride % 4 == 0 ? stride : stride * 4;
+        slice = arena.allocate(indexOffset + indexCount * Integer.BYTES, alignment);
+
+        arena.upload(slice, 0, vertexData);
+        releaseVertexData(); // The GPU has its own copy now
+
+        if (indices != null) {
+            ByteBuffer indexData = MemoryUtil.memAlloc(indexCount * Integer.BYTES);
+            try {
+                indexData.asIntBuffer().put(indices);
+                arena.upload(slice, indexOffset, indexData);
+            } finally {
+                MemoryUtil.memFree(indexData);
+            }
+            indices = null;
+        }
+    }
+
+    @Override
+    public void render() {
+        GLStateCache.bindVertexArray(arena.getVertexArray(slice, vertexFormat));
+        int baseVertex = slice.getOffset() / vertexFormat.getStrideInBytes();
+        if (indexCount == 0) {
+            glDrawArrays(GL_TRIANGLES, baseVertex, vertexCount);
+        } else {
+            glDrawElementsBaseVertex(GL_TRIANGLES, indexCount, GL_UNSIGNED_INT, slice.getOffset() + indexOffset, baseVertex);
+        }
+    }
+
+    @Override
+    public int getVertexArray() {
+        return slice == null ? 0 : arena.getVertexArray(slice, vertexFormat);
+    }
+
+    @Override
+    protected void subclassCleanup() {
+        if (slice != null && !slice.isFreed()) {
+            arena.free(slice);
+        }
+        slice = null;
+    }
+}
@@ -0,0 +1,185 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Matrix4fc;
+import org.joml.Vector4f;
+import org.lwjgl.opengl.ARBIndirectParameters;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL46;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.shader.ComputeShader;
+import william.starsight.graphics.shader.ShaderCompilationException;
+import william.starsight.graphics.shader.ShaderLinkingException;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Frustum culls the meshes of a {@link QuadBatch} on the GPU, see {@link QuadBatch#render(BatchCuller, Matrix4fc)}.
+ * <p>
+ * A compute shader tests each mesh's bounds against the frustum and writes the draw commands for the ones that pass, so
+ * the CPU never looks at a single mesh. Where {@code ARB_indirect_parameters} (core in 4.6) is around, the surviving
+ * commands are packed together and the GPU also writes how many there are, which the draw reads straight from the
+ * buffer. Without it, culled meshes get a command with no instances instead, which the GPU skips nearly for free.
+ * Either way it's one dispatch and one draw call however big the world is.
+ * <p>
+ * One culler can serve any number of batches. Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public class BatchCuller {
+    private static final int GROUP_SIZE = 64;
+
+    private static final int[] ZERO = {0};
+
+    private final ComputeShader shader = new ComputeShader("""
+            #version 430
+
+            layout(local_size_x = 64) in;
+
+            struct Object {
+                vec4 boundsMin;
+                vec4 boundsMax;
+                uint count;
+                int baseVertex;
+                uint pad0;
+                uint pad1;
+            };
+
+            struct Command {
+                uint count;
+                uint instanceCount;
+                uint firstIndex;
+                int baseVertex;
+                uint baseInstance;
+            };
+
+            layout(std430, binding = 0) readonly buffer Objects { Object objects[]; };
+            layout(std430, binding = 1) writeonly buffer Commands { Command commands[]; };
+            layout(std430, binding = 2) buffer Parameters { uint drawCount; };
+
+            uniform vec4 planes[6];
+            uniform uint objectCount;
+            uniform bool compact;
+
+            void main() {
+                uint i = gl_GlobalInvocationID.x;
+                if (i >= objectCount) {
+                    return;
+                }
+                Object object = objects[i];
+
+                bool inside = true;
+                for (int p = 0; p < 6 && inside; p++) {
+                    // The corner furthest along the plane's normal, if even that's behind the plane the box is outside
+                    vec3 corner = mix(object.boundsMin.xyz, object.boundsMax.xyz, greaterThanEqual(planes[p].xyz, vec3(0.0)));
+                    inside = dot(planes[p].xyz, corner) + planes[p].w >= 0.0;
+                }
+
+                if (compact) {
+                    if (inside) {
+                        commands[atomicAdd(drawCount, 1u)] = Command(object.count, 1u, 0u, object.baseVertex, 0u);
+                    }
+                } else {
+                    commands[i] = Command(object.count, inside ? 1u : 0u, 0u, object.baseVertex, 0u);
+                }
+            }
+            """);
+
+    private final Vector4f plane = new Vector4f();
+    private int planesLocation, objectCountLocation, compactLocation;
+    private boolean compactionSupported;
+    private boolean coreDrawCount; // 4.6 has the count draw in core, and a 4.6 driver may not list the extension
+    private boolean compacting;
+
+    /**
+     * Compiles the culling shader
+     */
+    public void initialize() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        try {
+            shader.compileAndLink();
+        } catch (ShaderCompilationException | ShaderLinkingException e) {
+            throw new IllegalStateException("The batch culling shader is broken!", e);
+        }
+        planesLocation = shader.getUniformLocation("planes");
+        objectCountLocation = shader.getUniformLocation("objectCount");
+        compactLocation = shader.getUniformLocation("compact");
+
+        GLCapabilities capabilities = GL.getCapabilities();
+        coreDrawCount = capabilities.OpenGL46;
+        compactionSupported = coreDrawCount || capabilities.GL_ARB_indirect_parameters;
+        compacting = compactionSupported;
+    }
+
+    /**
+     * @return Whether the surviving commands are packed together, with the count read by the GPU
+     */
+    @Contract(pure = true)
+    public boolean isCompacting() {
+        return compacting;
+    }
+
+    /**
+     * Turns packing the commands on or off, for drivers where the count draw is slow. It can't be turned on without
+     * {@code ARB_indirect_parameters}.
+     *
+     * @param compacting Whether to pack the commands
+     */
+    public void setCompacting(boolean compacting) {
+        this.compacting = compacting && compactionSupported;
+    }
+
+    /// Writes the commands of every object that passes, and the count if compacting. Waits for nothing.
+    void cull(int objectBuffer, int objectCount, int commandBuffer, int parameterBuffer, @NotNull Matrix4fc viewProjection) {
+        if (compacting) {
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, parameterBuffer);
+            glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0L, ZERO);
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        }
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, objectBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, commandBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 2, parameterBuffer);
+
+        shader.bind();
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer planes = stack.mallocFloat(6 * 4);
+            for (int i = 0; i < 6; i++) {
+                // Normalized, facing into the frustum
+                viewProjection.frustumPlane(i, plane);
+                planes.put(plane.x).put(plane.y).put(plane.z).put(plane.w);
+            }
+            planes.flip();
+            glUniform4fv(planesLocation, planes);
+        }
+        glUniform1ui(objectCountLocation, objectCount);
+        glUniform1i(compactLocation, compacting ? 1 : 0);
+        shader.dispatch((objectCount + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+
+        // The draw reads the commands through the indirect buffer, not as shader storage
+        glMemoryBarrier(GL_COMMAND_BARRIER_BIT);
+    }
+
+    /// Draws the commands cull() packed, as many as it counted. Only valid while compacting.
+    void drawCompacted(int indexType, int parameterBuffer, int maxDrawCount) {
+        if (coreDrawCount) {
+            glBindBuffer(GL46.GL_PARAMETER_BUFFER, parameterBuffer);
+            GL46.glMultiDrawElementsIndirectCount(GL_TRIANGLES, indexType, 0L, 0L, maxDrawCount, 0);
+            glBindBuffer(GL46.GL_PARAMETER_BUFFER, 0);
+        } else {
+            glBindBuffer(ARBIndirectParameters.GL_PARAMETER_BUFFER_ARB, parameterBuffer);
+            ARBIndirectParameters.glMultiDrawElementsIndirectCountARB(GL_TRIANGLES, indexType, 0L, 0L, maxDrawCount, 0);
+            glBindBuffer(ARBIndirectParameters.GL_PARAMETER_BUFFER_ARB, 0);
+        }
+    }
+
+    public void cleanup() {
+        shader.cleanup();
+    }
+}
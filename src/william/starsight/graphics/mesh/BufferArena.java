@@ -0,0 +1,322 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import william.starsight.Starsight;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * A few large GL buffers that meshes get slices of, so streaming meshes in and out doesn't create and delete a buffer
+ * each time.
+ * <p>
+ * Space is handed out first fit from a free list per block. Once the free space in a block gets too scattered to be
+ * useful, the block is compacted: its live slices are copied, on the GPU, next to each other into a fresh buffer. Slices
+ * are handles, so they follow along, but anything that cached a slice's buffer or offset has to look again.
+ * <p>
+ * Each block also keeps one vertex array per vertex format with the block's buffer bound as both the vertex and element
+ * buffer, so meshes in the same block share it and draw with a base vertex instead. See {@link ArenaMesh}.
+ * <p>
+ * Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public class BufferArena {
+    /**
+     * The default size of a block, 64 MiB
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 << 20;
+
+    /**
+     * The default fragmentation, as in {@link #getFragmentation()}, past which a block gets compacted
+     */
+    public static final float DEFAULT_COMPACTION_THRESHOLD = 0.5f;
+
+    private final int blockSize;
+    private final float compactionThreshold;
+    private final List<Block> blocks = new ArrayList<>();
+
+    /**
+     * Constructs an arena with the default block size and compaction threshold
+     */
+    public BufferArena() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Constructs an arena. Blocks are only created once something is allocated.
+     *
+     * @param blockSize The size of a block in bytes. Slices bigger than that get a block of their own.
+     * @param compactionThreshold The fragmentation from 0 to 1 past which a block gets compacted
+     */
+    public BufferArena(int blockSize, float compactionThreshold) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive!");
+        }
+        this.blockSize = blockSize;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * A piece of one of the arena's buffers
+     */
+    public static final class Slice {
+        private Block block;
+        private int offset;
+        private final int size;
+        private final int alignment;
+
+        private Slice(Block block, int offset, int size, int alignment) {
+            this.block = block;
+            this.offset = offset;
+            this.size = size;
+            this.alignment = alignment;
+        }
+
+        /**
+         * @return The name of the buffer the slice is in, which can change when the arena compacts
+         */
+        @Contract(pure = true)
+        public int getBuffer() {
+            return block.buffer;
+        }
+
+        /**
+         * @return Where the slice starts in its buffer in bytes, which can change when the arena compacts
+         */
+        @Contract(pure = true)
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return The size of the slice in bytes
+         */
+        @Contract(pure = true)
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return Whether the slice was freed
+         */
+        @Contract(pure = true)
+        public boolean isFreed() {
+            return block == null;
+        }
+    }
+
+    private static final class Block {
+        private int buffer;
+        private final int size;
+        private final RangeAllocator space;
+        private final List<Slice> slices = new ArrayList<>();
+        private final Map<VertexFormat, Integer> vertexArrays = new HashMap<>();
+
+        private Block(int size) {
+            this.size = size;
+            this.space = new RangeAllocator(size);
+            this.buffer = glGenBuffers();
+            glBindBuffer(GL_COPY_WRITE_BUFFER, buffer);
+            glBufferData(GL_COPY_WRITE_BUFFER, size, GL_DYNAMIC_DRAW);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        }
+
+        private void deleteVertexArrays() {
+            for (int vertexArray : vertexArrays.values()) {
+                GLStateCache.deleteVertexArray(vertexArray);
+            }
+            vertexArrays.clear();
+        }
+    }
+
+    /**
+     * Allocates a slice
+     *
+     * @param size The size in bytes
+     * @param alignment What the offset of the slice must be a multiple of, such as the vertex stride
+     * @return The slice
+     */
+    public @NotNull Slice allocate(int size, int alignment) {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        for (Block block : blocks) {
+            int offset = block.space.allocate(size, alignment);
+            if (offset >= 0) {
+                return addSlice(block, offset, size, alignment);
+            }
+        }
+
+        Block block = new Block(Math.max(blockSize, size + alignment));
+        blocks.add(block);
+        return addSlice(block, block.space.allocate(size, alignment), size, alignment);
+    }
+
+    /**
+     * Writes into a slice
+     *
+     * @param slice The slice
+     * @param offset Where to start writing in the slice, in bytes
+     * @param data The data, from its position to its limit
+     */
+    public void upload(@NotNull Slice slice, int offset, @NotNull ByteBuffer data) {
+        checkSlice(slice);
+        if (offset < 0 || offset + data.remaining() > slice.size) {
+            throw new IndexOutOfBoundsException("Upload does not fit in the slice!");
+        }
+        glBindBuffer(GL_COPY_WRITE_BUFFER, slice.block.buffer);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, slice.offset + offset, data);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    /**
+     * Frees a slice. This may compact its block, moving the other slices in it.
+     *
+     * @param slice The slice, which must not be used afterwards
+     */
+    public void free(@NotNull Slice slice) {
+        checkSlice(slice);
+        Block block = slice.block;
+        block.space.free(slice.offset, slice.size);
+        block.slices.remove(slice);
+        slice.block = null;
+
+        if (block.slices.isEmpty() && blocks.size() > 1) {
+            // Keep one block around so the next allocation doesn't have to create it again
+            block.deleteVertexArrays();
+            glDeleteBuffers(block.buffer);
+            blocks.remove(block);
+            return;
+        }
+        // Only bother once there's enough free space to be worth gathering up
+        if (block.space.getTotalFree() >= block.size / 4 && block.space.getFragmentation() > compactionThreshold) {
+            compact(block);
+        }
+    }
+
+    /**
+     * Gets the vertex array a slice's mesh should draw with. Vertex 0 and index 0 of it are at the start of the slice's
+     * buffer, so draw with the slice's offset as a base vertex and a byte offset into the indices.
+     *
+     * @param slice The slice
+     * @param vertexFormat The vertex format of the slice's vertices
+     * @return The vertex array, which is only valid until the slice's block compacts
+     */
+    public int getVertexArray(@NotNull Slice slice, @NotNull VertexFormat vertexFormat) {
+        checkSlice(slice);
+        Block block = slice.block;
+        Integer vertexArray = block.vertexArrays.get(vertexFormat);
+        if (vertexArray != null) {
+            return vertexArray;
+        }
+
+        int created = glGenVertexArrays();
+        GLStateCache.bindVertexArray(created);
+        glBindBuffer(GL_ARRAY_BUFFER, block.buffer);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, block.buffer);
+        vertexFormat.setupAttributes();
+        GLStateCache.bindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        block.vertexArrays.put(vertexFormat, created);
+        return created;
+    }
+
+    /**
+     * Compacts every block whose fragmentation is past the threshold, regardless of how much is free
+     */
+    public void compact() {
+        for (Block block : blocks) {
+            if (block.space.getFragmentation() > compactionThreshold) {
+                compact(block);
+            }
+        }
+    }
+
+    /**
+     * @return How scattered the free space is across every block, from 0 to almost 1
+     */
+    @Contract(pure = true)
+    public float getFragmentation() {
+        long free = 0;
+        long largest = 0;
+        for (Block block : blocks) {
+            free += block.space.getTotalFree();
+            largest = Math.max(largest, block.space.getLargestFree());
+        }
+        return free == 0 ? 0.0f : 1.0f - (float) largest / free;
+    }
+
+    /**
+     * @return The total size of every block in bytes
+     */
+    @Contract(pure = true)
+    public long getCapacity() {
+        long capacity = 0;
+        for (Block block : blocks) {
+            capacity += block.size;
+        }
+        return capacity;
+    }
+
+    /**
+     * Deletes every block. Slices from this arena must not be used afterwards.
+     */
+    public void cleanup() {
+        for (Block block : blocks) {
+            block.deleteVertexArrays();
+            glDeleteBuffers(block.buffer);
+            for (Slice slice : block.slices) {
+                slice.block = null;
+            }
+        }
+        blocks.clear();
+    }
+
+    private Slice addSlice(Block block, int offset, int size, int alignment) {
+        Slice slice = new Slice(block, offset, size, alignment);
+        block.slices.add(slice);
+        return slice;
+    }
+
+    /// Copies the block's live slices next to each other into a fresh buffer
+    private void compact(Block block) {
+        block.slices.sort((a, b) -> Integer.compare(a.offset, b.offset));
+        int oldBuffer = block.buffer;
+        int newBuffer = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newBuffer);
+        glBufferData(GL_COPY_WRITE_BUFFER, block.size, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_COPY_READ_BUFFER, oldBuffer);
+
+        // A buffer can't copy onto an overlapping part of itself, hence the second buffer
+        block.space.reset();
+        for (Slice slice : block.slices) {
+            int offset = block.space.allocate(slice.size, slice.alignment);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, slice.offset, offset, slice.size);
+            slice.offset = offset;
+        }
+
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        glDeleteBuffers(oldBuffer);
+        block.buffer = newBuffer;
+        block.deleteVertexArrays(); // They point at the old buffer
+
+        Starsight.LOG.fine("Compacted an arena block holding " + block.slices.size() + " slices");
+    }
+
+    private static void checkSlice(Slice slice) {
+        if (slice.isFreed()) {
+            throw new IllegalStateException("Slice was already freed!");
+        }
+    }
+}
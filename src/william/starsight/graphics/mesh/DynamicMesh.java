@@ -0,0 +1,224 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.lwjgl.BufferUtils;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * A mesh for geometry that changes every frame, like particles, entities or debug lines.
+ * <p>
+ * The vertex buffer is split into a ring of regions, by default 3. Each frame writes the next region through
+ * {@code glMapBufferRange} with {@code GL_MAP_UNSYNCHRONIZED_BIT}, so the driver never waits for the GPU to finish with
+ * the buffer, while a fence placed after each region's draw makes sure the CPU doesn't overwrite a region the GPU is
+ * still reading. With enough regions that fence has always long passed, and writing never stalls.
+ * <p>
+ * Each frame goes {@link #begin()}, write vertices, {@link #end()}, then {@link #render()} as many times as needed.
+ *
+ * @author William
+ */
+public class DynamicMesh extends Mesh {
+    /**
+     * The default number of regions, enough for the GPU to be a couple of frames behind
+     */
+    public static final int DEFAULT_REGIONS = 3;
+
+    private static final long FENCE_TIMEOUT_NANOS = 1_000_000_000L;
+
+    private final VertexFormat vertexFormat;
+    private final int drawMode;
+    private final int regions;
+    private int maxVertices; // Per region
+    private int regionSize; // In bytes
+
+    private int VAO, VBO;
+    private final long[] fences;
+    private int region = -1;
+    private int vertexCount;
+    private ByteBuffer mapped;
+
+    /**
+     * Constructs a dynamic mesh of triangles with {@link #DEFAULT_REGIONS}
+     *
+     * @param vertexFormat The vertex format
+     * @param maxVertices How many vertices a frame can write
+     */
+    public DynamicMesh(@NotNull VertexFormat vertexFormat, int maxVertices) {
+        this(vertexFormat, GL_TRIANGLES, maxVertices, DEFAULT_REGIONS);
+    }
+
+    /**
+     * Constructs a dynamic mesh
+     *
+     * @param vertexFormat The vertex format
+     * @param drawMode What the vertices make up, such as {@code GL_TRIANGLES} or {@code GL_LINES}
+     * @param maxVertices How many vertices a frame can write
+     * @param regions How many frames of vertices the ring holds
+     */
+    public DynamicMesh(@NotNull VertexFormat vertexFormat, int drawMode, int maxVertices, int regions) {
+        super(BufferUtils.createByteBuffer(0)); // There is no vertex data up front
+        if (maxVertices <= 0 || regions <= 0) {
+            throw new IllegalArgumentException("A dynamic mesh needs room for at least one vertex and one region!");
+        }
+        this.vertexFormat = vertexFormat;
+        this.drawMode = drawMode;
+        this.maxVertices = maxVertices;
+        this.regions = regions;
+        this.regionSize = maxVertices * vertexFormat.getStrideInBytes();
+        this.fences = new long[regions];
+    }
+
+    @Override
+    public void initialize() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        releaseVertexData();
+
+        VAO = glGenVertexArrays();
+        VBO = glGenBuffers();
+
+        GLStateCache.bindVertexArray(VAO);
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        glBufferData(GL_ARRAY_BUFFER, (long) regionSize * regions, GL_STREAM_DRAW);
+        vertexFormat.setupAttributes();
+
+        GLStateCache.bindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Moves on to the next region and maps it for writing, waiting for the GPU only if it is still reading that region
+     *
+     * @return The region, with room for the max vertices. Write vertices from position 0 with relative puts.
+     */
+    public @NotNull ByteBuffer begin() {
+        if (mapped != null) {
+            throw new IllegalStateException("Already writing, call end() first!");
+        }
+        region = (region + 1) % regions;
+        waitForRegion(region);
+
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        mapped = glMapBufferRange(GL_ARRAY_BUFFER, (long) region * regionSize, regionSize,
+                GL_MAP_WRITE_BIT | GL_MAP_UNSYNCHRONIZED_BIT | GL_MAP_INVALIDATE_RANGE_BIT);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        if (mapped == null) {
+            throw new IllegalStateException("Could not map the dynamic mesh's buffer!");
+        }
+        return mapped;
+    }
+
+    /**
+     * Unmaps the region, taking however many whole vertices were written up to the buffer's position
+     */
+    public void end() {
+        if (mapped == null) {
+            throw new IllegalStateException("Not writing, call begin() first!");
+        }
+        vertexCount = mapped.position() / vertexFormat.getStrideInBytes();
+        mapped = null;
+
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        if (!glUnmapBuffer(GL_ARRAY_BUFFER)) {
+            vertexCount = 0; // The contents got corrupted, which can happen when the display mode changes
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Changes how many vertices a frame can write. The buffer is reallocated, so only call this between frames.
+     *
+     * @param maxVertices How many vertices a frame can write
+     */
+    public void resize(int maxVertices) {
+        if (mapped != null) {
+            throw new IllegalStateException("Cannot resize while writing!");
+        }
+        // The new buffer storage has nothing in flight, so the old fences don't matter anymore
+        deleteFences();
+        this.maxVertices = maxVertices;
+        this.regionSize = maxVertices * vertexFormat.getStrideInBytes();
+        this.vertexCount = 0;
+
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        glBufferData(GL_ARRAY_BUFFER, (long) regionSize * regions, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    @Override
+    public void render() {
+        if (vertexCount == 0 || region < 0) {
+            return;
+        }
+        GLStateCache.bindVertexArray(VAO);
+        glDrawArrays(drawMode, region * maxVertices, vertexCount);
+
+        // Only the last draw of the region matters, as the GPU runs them in order
+        if (fences[region] != 0L) {
+            glDeleteSync(fences[region]);
+        }
+        fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    /**
+     * @return How many vertices a frame can write
+     */
+    @Contract(pure = true)
+    public int getMaxVertices() {
+        return maxVertices;
+    }
+
+    /**
+     * @return How many vertices the last frame wrote
+     */
+    @Contract(pure = true)
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    private void waitForRegion(int region) {
+        long fence = fences[region];
+        if (fence == 0L) {
+            return;
+        }
+        int result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+        if (result == GL_TIMEOUT_EXPIRED || result == GL_WAIT_FAILED) {
+            throw new IllegalStateException("Timed out waiting for the GPU to finish with a dynamic mesh region!");
+        }
+        glDeleteSync(fence);
+        fences[region] = 0L;
+    }
+
+    private void deleteFences() {
+        for (int i = 0; i < regions; i++) {
+            if (fences[i] != 0L) {
+                glDeleteSync(fences[i]);
+                fences[i] = 0L;
+            }
+        }
+    }
+
+    @Override
+    public int getVertexArray() {
+        return VAO;
+    }
+
+    @Override
+    protected void subclassCleanup() {
+        if (mapped != null) {
+            glBindBuffer(GL_ARRAY_BUFFER, VBO);
+            glUnmapBuffer(GL_ARRAY_BUFFER);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            mapped = null;
+        }
+        deleteFences();
+        GLStateCache.deleteVertexArray(VAO);
+        glDeleteBuffers(VBO);
+    }
+}
@@ -1,6 +1,9 @@
 package william.starsight.graphics.mesh;
 
 import org.jetbrains.annotations.NotNull;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.ByteBuffer;
 
 import static org.lwjgl.opengl.GL43.*;
 
@@ -25,7 +28,20 @@ public class EBOMesh extends Mesh {
      * @param vertexFormat The vertex format, as a {@link VertexFormat} object
      */
     public EBOMesh(float @NotNull [] vertexData, int @NotNull [] indices, @NotNull VertexFormat vertexFormat) {
-        super(vertexData);
+        super(vertexData, vertexFormat);
+        this.indices = indices.clone();
+        this.vtx = vertexFormat;
+    }
+
+    /**
+     * Constructs an EBO mesh from raw bytes, for formats that aren't made of floats
+     *
+     * @param vertexData A direct buffer whose remaining bytes are the vertices
+     * @param indices The indices in an {@code int[]}
+     * @param vertexFormat The vertex format, as a {@link VertexFormat} object
+     */
+    public EBOMesh(@NotNull ByteBuffer vertexData, int @NotNull [] indices, @NotNull VertexFormat vertexFormat) {
+        super(vertexData, false, vertexFormat);
         this.indices = indices.clone();
         this.vtx = vertexFormat;
     }
@@ -36,30 +52,36 @@ public class EBOMesh extends Mesh {
         VBO = glGenBuffers();
         EBO = glGenBuffers();
 
-        glBindVertexArray(VAO);
+        GLStateCache.bindVertexArray(VAO);
 
         glBindBuffer(GL_ARRAY_BUFFER, VBO);
         glBufferData(GL_ARRAY_BUFFER, vertexData, GL_STATIC_DRAW);
+        releaseVertexData(); // The GPU has its own copy now
 
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, EBO);
         glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
 
         vtx.setupAttributes();
 
-        glBindVertexArray(0);
+        GLStateCache.bindVertexArray(0);
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
     }
 
     @Override
     public void render() {
-        glBindVertexArray(VAO);
+        GLStateCache.bindVertexArray(VAO);
         glDrawElements(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, 0L); // I think this works...
     }
 
+    @Override
+    public int getVertexArray() {
+        return VAO;
+    }
+
     @Override
     protected void subclassCleanup() {
-        glDeleteVertexArrays(VAO);
+        GLStateCache.deleteVertexArray(VAO);
         glDeleteBuffers(VBO);
         glDeleteBuffers(EBO);
     }
@@ -0,0 +1,170 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * An indexed mesh drawn many times in one call, like trees, dropped items or ores. Next to the model's vertices it has a
+ * second buffer of per-instance data, described by an instanced {@link VertexFormat}, for whatever differs between the
+ * copies, such as a {@link VertexFormatType#MAT4} model matrix, a tint or an atlas index. The instance attributes come
+ * right after the vertex attributes, so with a model of position, UV and normal, a model matrix starts at location 3.
+ * <p>
+ * The instances are replaced in bulk with {@link #setInstances(ByteBuffer)}, which can be done every frame.
+ * <p>
+ * The mesh has no bounds to begin with, since the instances can be anywhere, so it is never culled. Give it bounds that
+ * cover every instance with {@link #setBounds} to have it culled.
+ *
+ * @author William
+ */
+public class InstancedMesh extends Mesh {
+    private final int[] indices;
+    private final VertexFormat vertexFormat;
+    private final VertexFormat instanceFormat;
+
+    private int VAO, VBO, EBO, instanceVBO;
+    private int instanceCount;
+    private int maxInstances;
+
+    /**
+     * Constructs an instanced mesh
+     *
+     * @param vertexData The model's vertices in a {@code float[]}
+     * @param indices The model's indices in an {@code int[]}
+     * @param vertexFormat The vertex format of the model
+     * @param instanceFormat The format of each instance, made with {@link VertexFormat#instanced(int, VertexFormatType...)}
+     * @param maxInstances How many instances to make room for up front. More can be set later, which grows the buffer.
+     */
+    public InstancedMesh(float @NotNull [] vertexData, int @NotNull [] indices, @NotNull VertexFormat vertexFormat, @NotNull VertexFormat instanceFormat, int maxInstances) {
+        super(vertexData);
+        this.indices = indices.clone();
+        this.vertexFormat = vertexFormat;
+        this.instanceFormat = checkInstanceFormat(instanceFormat);
+        this.maxInstances = Math.max(maxInstances, 1);
+    }
+
+    /**
+     * Constructs an instanced mesh from raw bytes, for formats that aren't made of floats
+     *
+     * @param vertexData A direct buffer whose remaining bytes are the model's vertices
+     * @param indices The model's indices in an {@code int[]}
+     * @param vertexFormat The vertex format of the model
+     * @param instanceFormat The format of each instance, made with {@link VertexFormat#instanced(int, VertexFormatType...)}
+     * @param maxInstances How many instances to make room for up front. More can be set later, which grows the buffer.
+     */
+    public InstancedMesh(@NotNull ByteBuffer vertexData, int @NotNull [] indices, @NotNull VertexFormat vertexFormat, @NotNull VertexFormat instanceFormat, int maxInstances) {
+        super(vertexData);
+        this.indices = indices.clone();
+        this.vertexFormat = vertexFormat;
+        this.instanceFormat = checkInstanceFormat(instanceFormat);
+        this.maxInstances = Math.max(maxInstances, 1);
+    }
+
+    @Override
+    public void initialize() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+
+        VAO = glGenVertexArrays();
+        VBO = glGenBuffers();
+        EBO = glGenBuffers();
+        instanceVBO = glGenBuffers();
+
+        GLStateCache.bindVertexArray(VAO);
+
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        glBufferData(GL_ARRAY_BUFFER, vertexData, GL_STATIC_DRAW);
+        releaseVertexData(); // The GPU has its own copy now
+        int nextLocation = vertexFormat.setupAttributes(0);
+
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVBO);
+        glBufferData(GL_ARRAY_BUFFER, (long) maxInstances * instanceFormat.getStrideInBytes(), GL_STREAM_DRAW);
+        instanceFormat.setupAttributes(nextLocation);
+
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, EBO);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+
+        GLStateCache.bindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Replaces every instance. The old storage is orphaned rather than written over, so the driver doesn't wait for
+     * draws still using the old instances.
+     *
+     * @param instanceData A buffer whose remaining bytes are the instances, in the instance format
+     */
+    public void setInstances(@NotNull ByteBuffer instanceData) {
+        int stride = instanceFormat.getStrideInBytes();
+        if (instanceData.remaining() % stride != 0) {
+            throw new IllegalArgumentException("The instance data isn't a whole number of instances!");
+        }
+        int count = instanceData.remaining() / stride;
+        if (count > maxInstances) {
+            maxInstances = Math.max(count, maxInstances + maxInstances / 2); // Some headroom, so growing one at a time doesn't reallocate every frame
+        }
+
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVBO);
+        glBufferData(GL_ARRAY_BUFFER, (long) maxInstances * stride, GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, instanceData);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        instanceCount = count;
+    }
+
+    @Override
+    public void render() {
+        if (instanceCount == 0) {
+            return;
+        }
+        GLStateCache.bindVertexArray(VAO);
+        glDrawElementsInstanced(GL_TRIANGLES, indices.length, GL_UNSIGNED_INT, 0L, instanceCount);
+    }
+
+    /**
+     * @return How many instances the last {@link #setInstances(ByteBuffer)} set
+     */
+    @Contract(pure = true)
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * @return How many instances fit in the instance buffer before it has to grow
+     */
+    @Contract(pure = true)
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    @Contract(pure = true)
+    public @NotNull VertexFormat getInstanceFormat() {
+        return instanceFormat;
+    }
+
+    @Override
+    public int getVertexArray() {
+        return VAO;
+    }
+
+    @Override
+    protected void subclassCleanup() {
+        GLStateCache.deleteVertexArray(VAO);
+        glDeleteBuffers(VBO);
+        glDeleteBuffers(EBO);
+        glDeleteBuffers(instanceVBO);
+    }
+
+    private static @NotNull VertexFormat checkInstanceFormat(@NotNull VertexFormat instanceFormat) {
+        if (instanceFormat.getDivisor() == 0) {
+            throw new IllegalArgumentException("The instance format has to be made with VertexFormat.instanced()!");
+        }
+        return instanceFormat;
+    }
+}
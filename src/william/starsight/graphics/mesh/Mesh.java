@@ -1,6 +1,13 @@
 package william.starsight.graphics.mesh;
 
+import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
 
 /**
  * A set of vertices recognized by OpenGL
@@ -9,10 +16,66 @@ import org.jetbrains.annotations.NotNull;
  */
 public abstract class Mesh implements AutoCloseable {
 	private boolean cleanedUp = false;
-	protected float[] vertexData;
+	private final boolean ownsVertexData;
+	protected ByteBuffer vertexData;
+	
+	// Local space bounding box. Starts out empty, with min above max, which means the bounds are unknown.
+	private final Vector3f boundsMin = new Vector3f(Float.POSITIVE_INFINITY);
+	private final Vector3f boundsMax = new Vector3f(Float.NEGATIVE_INFINITY);
 	
+	/**
+	 * @param vertexData The vertex data, copied off-heap and freed once uploaded
+	 */
 	protected Mesh(float @NotNull [] vertexData) {
+		this(vertexData, null);
+	}
+	
+	/**
+	 * @param vertexData The vertex data, copied off-heap and freed once uploaded
+	 * @param vertexFormat The format of the vertices, to work out the bounding box from, or {@code null} to leave the
+	 *                     bounds unknown. See {@link #hasBounds()}.
+	 */
+	protected Mesh(float @NotNull [] vertexData, @Nullable VertexFormat vertexFormat) {
+		this.vertexData = MemoryUtil.memAlloc(vertexData.length * Float.BYTES);
+		this.vertexData.asFloatBuffer().put(vertexData);
+		this.ownsVertexData = true;
+		if (vertexFormat != null) {
+			computeBounds(this.vertexData, vertexFormat, boundsMin, boundsMax);
+		}
+	}
+	
+	/**
+	 * @param vertexData The vertex data, a direct buffer in native order whose remaining bytes are the vertices. It is
+	 *                   used as-is, not copied, and stays the caller's to free.
+	 */
+	protected Mesh(@NotNull ByteBuffer vertexData) {
+		this(vertexData, false);
+	}
+	
+	/**
+	 * @param vertexData The vertex data, a direct buffer in native order whose remaining bytes are the vertices. It is
+	 *                   used as-is, not copied.
+	 * @param ownsVertexData Whether the mesh takes ownership of the buffer, in which case it must come from
+	 *                       {@link MemoryUtil#memAlloc(int)} and is freed with {@link MemoryUtil#memFree(java.nio.Buffer)}
+	 *                       as soon as it's uploaded
+	 */
+	protected Mesh(@NotNull ByteBuffer vertexData, boolean ownsVertexData) {
+		this(vertexData, ownsVertexData, null);
+	}
+	
+	/**
+	 * @param vertexData The vertex data, a direct buffer in native order whose remaining bytes are the vertices. It is
+	 *                   used as-is, not copied.
+	 * @param ownsVertexData Whether the mesh takes ownership of the buffer, see {@link #Mesh(ByteBuffer, boolean)}
+	 * @param vertexFormat The format of the vertices, to work out the bounding box from, or {@code null} to leave the
+	 *                     bounds unknown. See {@link #hasBounds()}.
+	 */
+	protected Mesh(@NotNull ByteBuffer vertexData, boolean ownsVertexData, @Nullable VertexFormat vertexFormat) {
 		this.vertexData = vertexData;
+		this.ownsVertexData = ownsVertexData;
+		if (vertexFormat != null) {
+			computeBounds(vertexData, vertexFormat, boundsMin, boundsMax);
+		}
 	}
 	
 	/**
@@ -25,16 +88,118 @@ public abstract class Mesh implements AutoCloseable {
 	 */
 	public abstract void render();
 	
+	/**
+	 * @return The vertex array the mesh draws with, or 0 if it has none yet. Used to group draws that share one.
+	 */
+	@Contract(pure = true)
+	public int getVertexArray() {
+		return 0;
+	}
+	
+	/**
+	 * @return The minimum corner of the mesh's bounding box, in its own space
+	 */
+	@Contract(pure = true)
+	public @NotNull Vector3fc getBoundsMin() {
+		return boundsMin;
+	}
+	
+	/**
+	 * @return The maximum corner of the mesh's bounding box, in its own space
+	 */
+	@Contract(pure = true)
+	public @NotNull Vector3fc getBoundsMax() {
+		return boundsMax;
+	}
+	
+	/**
+	 * @return Whether the mesh knows its bounding box. Meshes that don't are never culled.
+	 */
+	@Contract(pure = true)
+	public boolean hasBounds() {
+		return boundsMin.x <= boundsMax.x && boundsMin.y <= boundsMax.y && boundsMin.z <= boundsMax.z;
+	}
+	
+	/**
+	 * Sets the bounding box by hand, for meshes whose vertices aren't known up front
+	 *
+	 * @param min The minimum corner
+	 * @param max The maximum corner
+	 */
+	public void setBounds(@NotNull Vector3fc min, @NotNull Vector3fc max) {
+		boundsMin.set(min);
+		boundsMax.set(max);
+	}
+	
+	/**
+	 * Works out the bounding box again from new vertex data. See {@link #computeBounds(ByteBuffer, VertexFormat, Vector3f, Vector3f)}.
+	 *
+	 * @param vertices The vertices, from their position to their limit
+	 * @param vertexFormat The format of the vertices
+	 */
+	protected final void computeBounds(@NotNull ByteBuffer vertices, @NotNull VertexFormat vertexFormat) {
+		computeBounds(vertices, vertexFormat, boundsMin, boundsMax);
+	}
+	
+	/**
+	 * Works out the bounding box from vertex data. The position has to be the first attribute of the format and made of
+	 * floats, half floats or plain shorts, otherwise the bounds are left unknown.
+	 * <p>
+	 * Static, so the constructors can use it without handing out {@code this} before the subclass is built.
+	 *
+	 * @param vertices The vertices, from their position to their limit
+	 * @param vertexFormat The format of the vertices
+	 * @param min Where to write the minimum corner
+	 * @param max Where to write the maximum corner
+	 */
+	private static void computeBounds(ByteBuffer vertices, VertexFormat vertexFormat, Vector3f min, Vector3f max) {
+		min.set(Float.POSITIVE_INFINITY);
+		max.set(Float.NEGATIVE_INFINITY);
+		VertexFormatType position = vertexFormat.getPositionType();
+		if (!position.isPosition()) {
+			return;
+		}
+		
+		int stride = vertexFormat.getStrideInBytes();
+		int end = vertices.limit() - stride;
+		for (int offset = vertices.position(); offset <= end; offset += stride) {
+			float x = position.read(vertices, offset, 0);
+			float y = position.read(vertices, offset, 1);
+			float z = position.read(vertices, offset, 2);
+			min.set(Math.min(min.x, x), Math.min(min.y, y), Math.min(min.z, z));
+			max.set(Math.max(max.x, x), Math.max(max.y, y), Math.max(max.z, z));
+		}
+	}
+	
 	/**
 	 * Cleans up all resources associated with the Mesh, including the vertex data
 	 */
 	public final void cleanup() {
 		if (cleanedUp)
 			return;
-		vertexData = null;
+		cleanedUp = true; // Freeing the vertex data twice would crash, not just leak
+		releaseVertexData();
 		subclassCleanup();
 	}
 	
+	/**
+	 * Drops the CPU side copy of the vertices. Subclasses call this once the data is on the GPU, so a mesh only costs
+	 * memory on the CPU between construction and {@link #initialize()}.
+	 */
+	protected final void releaseVertexData() {
+		if (vertexData != null && ownsVertexData) {
+			MemoryUtil.memFree(vertexData);
+		}
+		vertexData = null;
+	}
+	
+	/**
+	 * @return Whether {@link #cleanup()} has been called
+	 */
+	public final boolean isCleanedUp() {
+		return cleanedUp;
+	}
+	
 	/**
 	 * This must be implemented by subclasses to clean up their own crap
 	 */
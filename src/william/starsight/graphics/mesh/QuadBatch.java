@@ -0,0 +1,412 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Matrix4fc;
+import org.joml.Vector3fc;
+import org.lwjgl.system.MemoryUtil;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Packs many quad meshes into one vertex buffer and draws all of them with a single {@code glMultiDrawElementsIndirect}.
+ * <p>
+ * Everything in a batch is drawn with the same state, so keep one batch per material (shader, textures and vertex
+ * format). Meshes are added and removed by handle, and each can be hidden without removing it. The draw commands are
+ * only rebuilt when something was added, removed, shown or hidden, so a frame where nothing changed costs one bind and
+ * one draw call no matter how many meshes there are.
+ * <p>
+ * Every mesh starts at vertex 0 of the shared {@link QuadIndexBuffer} and is moved into place with the command's base
+ * vertex, so the batch needs no index data of its own.
+ * <p>
+ * Drawn through {@link #render(BatchCuller, Matrix4fc)}, the meshes are also frustum culled on the GPU by their bounds,
+ * which are worked out from the vertices when they're added.
+ * <p>
+ * Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public class QuadBatch {
+    private static final int COMMAND_SIZE = 5 * Integer.BYTES; // count, instanceCount, firstIndex, baseVertex, baseInstance
+    private static final int MIN_CAPACITY = 4096; // In quads
+    private static final int OBJECT_SIZE = 12 * Integer.BYTES; // The culling shader's Object: boundsMin, boundsMax, count, baseVertex, padding
+
+    private final VertexFormat vertexFormat;
+    private final int quadSize; // In bytes
+
+    private int VAO, VBO, commandBuffer;
+    private int indexType;
+    private int indexedQuads; // How many quads the bound index buffer was asked to cover
+
+    private final RangeAllocator space; // Of the vertex buffer, in quads
+
+    // Per handle. A handle with a negative quad count is free.
+    private int[] firstQuad = new int[64];
+    private int[] quadCount = new int[64];
+    private boolean[] visible = new boolean[64];
+    private float[] bounds = new float[64 * 6]; // Min then max
+    private int handles;
+    private int[] freeHandles = new int[16];
+    private int freeHandleCount;
+
+    private ByteBuffer commands;
+    private int drawCount;
+    private boolean commandsDirty = true;
+
+    // For culling on the GPU, created the first time it's used
+    private int objectBuffer, culledCommandBuffer, parameterBuffer;
+    private ByteBuffer objects;
+    private int objectCount;
+    private int culledCommandCapacity; // In commands
+    private boolean objectsDirty = true;
+
+    /**
+     * Constructs an empty batch
+     *
+     * @param vertexFormat The vertex format of every mesh in the batch
+     */
+    public QuadBatch(@NotNull VertexFormat vertexFormat) {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        this.vertexFormat = vertexFormat;
+        this.quadSize = 4 * vertexFormat.getStrideInBytes();
+
+        VAO = glGenVertexArrays();
+        VBO = glGenBuffers();
+        commandBuffer = glGenBuffers();
+        commands = MemoryUtil.memAlloc(64 * COMMAND_SIZE);
+
+        space = new RangeAllocator(MIN_CAPACITY);
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        glBufferData(GL_ARRAY_BUFFER, (long) MIN_CAPACITY * quadSize, GL_DYNAMIC_DRAW);
+        GLStateCache.bindVertexArray(VAO);
+        vertexFormat.setupAttributes();
+        indexType = QuadIndexBuffer.bind(1);
+        indexedQuads = 1;
+        GLStateCache.bindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Adds a mesh to the batch, visible
+     *
+     * @param vertices A direct buffer holding 4 vertices per quad in the batch's format, read from its position to its
+     *                 limit. It is not kept.
+     * @return The handle of the mesh
+     */
+    public int add(@NotNull ByteBuffer vertices) {
+        int quads = vertices.remaining() / quadSize;
+        int first = allocate(quads);
+        int handle = freeHandleCount > 0 ? freeHandles[--freeHandleCount] : newHandle();
+        computeBounds(handle, vertices);
+
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        glBufferSubData(GL_ARRAY_BUFFER, (long) first * quadSize, vertices);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        if (quads > indexedQuads) {
+            GLStateCache.bindVertexArray(VAO);
+            indexType = QuadIndexBuffer.bind(quads);
+            indexedQuads = quads;
+            GLStateCache.bindVertexArray(0);
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+
+        firstQuad[handle] = first;
+        quadCount[handle] = quads;
+        visible[handle] = true;
+        commandsDirty = true;
+        objectsDirty = true;
+        return handle;
+    }
+
+    /**
+     * Removes a mesh from the batch, freeing its space for the next one
+     *
+     * @param handle The handle returned by {@link #add(ByteBuffer)}
+     */
+    public void remove(int handle) {
+        checkHandle(handle);
+        space.free(firstQuad[handle], quadCount[handle]);
+        quadCount[handle] = -1;
+        visible[handle] = false;
+        if (freeHandleCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, freeHandleCount * 2);
+        }
+        freeHandles[freeHandleCount++] = handle;
+        commandsDirty = true;
+        objectsDirty = true;
+    }
+
+    /**
+     * Shows or hides a mesh without removing it
+     *
+     * @param handle The handle returned by {@link #add(ByteBuffer)}
+     * @param visible Whether to draw it
+     */
+    public void setVisible(int handle, boolean visible) {
+        checkHandle(handle);
+        if (this.visible[handle] != visible) {
+            this.visible[handle] = visible;
+            commandsDirty = true;
+            objectsDirty = true;
+        }
+    }
+
+    /**
+     * Replaces the bounds a mesh is culled by, for when the ones worked out from its vertices won't do
+     *
+     * @param handle The handle returned by {@link #add(ByteBuffer)}
+     * @param min The minimum corner
+     * @param max The maximum corner
+     */
+    public void setBounds(int handle, @NotNull Vector3fc min, @NotNull Vector3fc max) {
+        checkHandle(handle);
+        int i = handle * 6;
+        bounds[i] = min.x();
+        bounds[i + 1] = min.y();
+        bounds[i + 2] = min.z();
+        bounds[i + 3] = max.x();
+        bounds[i + 4] = max.y();
+        bounds[i + 5] = max.z();
+        objectsDirty = true;
+    }
+
+    /**
+     * Draws every visible mesh in one call, rebuilding the draw commands first if anything changed
+     */
+    public void render() {
+        if (commandsDirty) {
+            rebuildCommands();
+        }
+        if (drawCount == 0) {
+            return;
+        }
+        GLStateCache.bindVertexArray(VAO);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glMultiDrawElementsIndirect(GL_TRIANGLES, indexType, 0L, drawCount, 0);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    /**
+     * Draws every visible mesh that's inside the frustum in one call, leaving the frustum test to the GPU. The CPU only
+     * touches the meshes when something was added, removed, shown or hidden.
+     *
+     * @param culler The culler, which must be initialized
+     * @param viewProjection The camera's projection matrix times its view matrix, times the batch's model matrix if it
+     *                       has one, since the bounds are in the batch's own space
+     */
+    public void render(@NotNull BatchCuller culler, @NotNull Matrix4fc viewProjection) {
+        if (objectsDirty) {
+            rebuildObjects();
+        }
+        if (objectCount == 0) {
+            return;
+        }
+        culler.cull(objectBuffer, objectCount, culledCommandBuffer, parameterBuffer, viewProjection);
+
+        GLStateCache.bindVertexArray(VAO);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, culledCommandBuffer);
+        if (culler.isCompacting()) {
+            culler.drawCompacted(indexType, parameterBuffer, objectCount);
+        } else {
+            glMultiDrawElementsIndirect(GL_TRIANGLES, indexType, 0L, objectCount, 0);
+        }
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    /**
+     * @return The number of draws the last {@link #render()} issued as one call. For
+     * {@link #render(BatchCuller, Matrix4fc)} it's the number of meshes handed to the GPU, before culling.
+     */
+    @Contract(pure = true)
+    public int getDrawCount() {
+        return drawCount;
+    }
+
+    /**
+     * Deletes the batch's buffers
+     */
+    public void cleanup() {
+        GLStateCache.deleteVertexArray(VAO);
+        glDeleteBuffers(VBO);
+        glDeleteBuffers(commandBuffer); // Not the index buffer, that one is shared
+        MemoryUtil.memFree(commands);
+        commands = null;
+        if (objectBuffer != 0) {
+            glDeleteBuffers(objectBuffer);
+            glDeleteBuffers(culledCommandBuffer);
+            glDeleteBuffers(parameterBuffer);
+            MemoryUtil.memFree(objects);
+            objects = null;
+        }
+    }
+
+    private void rebuildObjects() {
+        if (objectBuffer == 0) {
+            objectBuffer = glGenBuffers();
+            culledCommandBuffer = glGenBuffers();
+            parameterBuffer = glGenBuffers();
+            objects = MemoryUtil.memAlloc(64 * OBJECT_SIZE);
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, parameterBuffer);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, Integer.BYTES, GL_DYNAMIC_DRAW);
+        }
+
+        int needed = 0;
+        for (int handle = 0; handle < handles; handle++) {
+            if (visible[handle] && quadCount[handle] > 0) {
+                needed++;
+            }
+        }
+        if (objects.capacity() < needed * OBJECT_SIZE) {
+            objects = MemoryUtil.memRealloc(objects, needed * OBJECT_SIZE * 2);
+        }
+
+        objects.clear();
+        for (int handle = 0; handle < handles; handle++) {
+            if (!visible[handle] || quadCount[handle] <= 0) {
+                continue;
+            }
+            int i = handle * 6;
+            objects.putFloat(bounds[i]).putFloat(bounds[i + 1]).putFloat(bounds[i + 2]).putFloat(0.0f)
+                    .putFloat(bounds[i + 3]).putFloat(bounds[i + 4]).putFloat(bounds[i + 5]).putFloat(0.0f)
+                    .putInt(quadCount[handle] * 6) // count
+                    .putInt(firstQuad[handle] * 4) // baseVertex
+                    .putInt(0).putInt(0);
+        }
+        objects.flip();
+
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, objectBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, objects, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        if (needed > culledCommandCapacity) {
+            culledCommandCapacity = Math.max(needed, culledCommandCapacity * 2);
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, culledCommandBuffer);
+            glBufferData(GL_DRAW_INDIRECT_BUFFER, (long) culledCommandCapacity * COMMAND_SIZE, GL_DYNAMIC_DRAW);
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        }
+        objectCount = needed;
+        drawCount = needed;
+        objectsDirty = false;
+    }
+
+    /// Bounds from the positions, or bounds that are never culled if the positions can't be read
+    private void computeBounds(int handle, @NotNull ByteBuffer vertices) {
+        int i = handle * 6;
+        VertexFormatType position = vertexFormat.getPositionType();
+        if (!position.isPosition()) {
+            bounds[i] = bounds[i + 1] = bounds[i + 2] = -Float.MAX_VALUE; // Not infinity, which turns into NaN on the GPU
+            bounds[i + 3] = bounds[i + 4] = bounds[i + 5] = Float.MAX_VALUE;
+            return;
+        }
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        int stride = vertexFormat.getStrideInBytes();
+        int end = vertices.limit() - stride;
+        for (int offset = vertices.position(); offset <= end; offset += stride) {
+            float x = position.read(vertices, offset, 0);
+            float y = position.read(vertices, offset, 1);
+            float z = position.read(vertices, offset, 2);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+        bounds[i] = minX;
+        bounds[i + 1] = minY;
+        bounds[i + 2] = minZ;
+        bounds[i + 3] = maxX;
+        bounds[i + 4] = maxY;
+        bounds[i + 5] = maxZ;
+    }
+
+    private void rebuildCommands() {
+        int needed = 0;
+        for (int handle = 0; handle < handles; handle++) {
+            if (visible[handle] && quadCount[handle] > 0) {
+                needed++;
+            }
+        }
+        if (commands.capacity() < needed * COMMAND_SIZE) {
+            commands = MemoryUtil.memRealloc(commands, needed * COMMAND_SIZE * 2);
+        }
+
+        commands.clear();
+        for (int handle = 0; handle < handles; handle++) {
+            if (!visible[handle] || quadCount[handle] <= 0) {
+                continue;
+            }
+            commands.putInt(quadCount[handle] * 6) // count
+                    .putInt(1) // instanceCount
+                    .putInt(0) // firstIndex, every mesh uses the start of the shared index buffer
+                    .putInt(firstQuad[handle] * 4) // baseVertex
+                    .putInt(0); // baseInstance
+        }
+        commands.flip();
+
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glBufferData(GL_DRAW_INDIRECT_BUFFER, commands, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        drawCount = needed;
+        commandsDirty = false;
+    }
+
+    private void checkHandle(int handle) {
+        if (handle < 0 || handle >= handles || quadCount[handle] < 0) {
+            throw new IllegalArgumentException("Not a mesh in this batch: " + handle);
+        }
+    }
+
+    private int newHandle() {
+        if (handles == firstQuad.length) {
+            firstQuad = Arrays.copyOf(firstQuad, handles * 2);
+            quadCount = Arrays.copyOf(quadCount, handles * 2);
+            visible = Arrays.copyOf(visible, handles * 2);
+            bounds = Arrays.copyOf(bounds, handles * 2 * 6);
+        }
+        return handles++;
+    }
+
+    /// First fit, growing the vertex buffer if nothing fits
+    private int allocate(int quads) {
+        int first = space.allocate(quads, 1);
+        if (first < 0) {
+            grow(quads);
+            first = space.allocate(quads, 1);
+        }
+        return first;
+    }
+
+    /// Moves everything into a bigger buffer on the GPU, without a round trip through the CPU
+    private void grow(int quads) {
+        int capacity = space.getCapacity();
+        int newCapacity = Math.max(capacity * 2, capacity + quads);
+        int newVBO = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newVBO);
+        glBufferData(GL_COPY_WRITE_BUFFER, (long) newCapacity * quadSize, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_COPY_READ_BUFFER, VBO);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0L, 0L, (long) capacity * quadSize);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        glDeleteBuffers(VBO);
+        VBO = newVBO;
+
+        // The attribute pointers captured the old buffer, so point them at the new one
+        GLStateCache.bindVertexArray(VAO);
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        vertexFormat.setupAttributes();
+        GLStateCache.bindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        space.grow(newCapacity);
+    }
+}
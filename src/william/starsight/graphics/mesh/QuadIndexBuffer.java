@@ -0,0 +1,123 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.Contract;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * The index buffer every quad mesh shares. Every quad is indexed the same way, {@code 0 1 2 2 3 0} offset by 4 per quad,
+ * so there is no need for each mesh to upload its own copy.
+ * <p>
+ * There are two buffers: a 16-bit one for meshes with at most {@value #MAX_SHORT_QUADS} quads and a 32-bit one for
+ * anything bigger. Each is created on first use and grows in place, keeping its buffer name, so vertex arrays that
+ * already captured it stay valid.
+ * <p>
+ * Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public final class QuadIndexBuffer {
+	/**
+	 * The most quads a 16-bit index can address, as each quad uses 4 vertices
+	 */
+	public static final int MAX_SHORT_QUADS = 65536 / 4;
+	
+	private static final int MIN_QUADS = 1024;
+	
+	@Contract(" -> fail")
+	private QuadIndexBuffer() {
+	    throw new AssertionError("This class must not be instantiated.");
+	}
+	
+	private static int shortBuffer = 0;
+	private static int shortCapacity = 0; // In quads
+	private static int intBuffer = 0;
+	private static int intCapacity = 0; // In quads
+	
+	/**
+	 * Binds a shared index buffer big enough for the given number of quads to {@code GL_ELEMENT_ARRAY_BUFFER}. With a
+	 * vertex array bound, the vertex array remembers it.
+	 *
+	 * @param quadCount The number of quads that will be drawn
+	 * @return The index type to draw with, either {@code GL_UNSIGNED_SHORT} or {@code GL_UNSIGNED_INT}
+	 */
+	public static int bind(int quadCount) {
+		if (quadCount <= MAX_SHORT_QUADS) {
+			if (shortBuffer == 0) {
+				shortBuffer = glGenBuffers();
+			}
+			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, shortBuffer);
+			if (quadCount > shortCapacity) {
+				shortCapacity = Math.min(MAX_SHORT_QUADS, grownCapacity(shortCapacity, quadCount));
+				upload(shortCapacity, false);
+			}
+			return GL_UNSIGNED_SHORT;
+		}
+		
+		if (intBuffer == 0) {
+			intBuffer = glGenBuffers();
+		}
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, intBuffer);
+		if (quadCount > intCapacity) {
+			intCapacity = grownCapacity(intCapacity, quadCount);
+			upload(intCapacity, true);
+		}
+		return GL_UNSIGNED_INT;
+	}
+	
+	/**
+	 * Gets the size of one index of the given type
+	 *
+	 * @param indexType The type returned by {@link #bind(int)}
+	 * @return The size in bytes
+	 */
+	@Contract(pure = true)
+	public static int indexSize(int indexType) {
+		return indexType == GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES;
+	}
+	
+	/**
+	 * Deletes both buffers. Call this once no quad meshes are left.
+	 */
+	public static void cleanup() {
+		if (shortBuffer != 0) {
+			glDeleteBuffers(shortBuffer);
+		}
+		if (intBuffer != 0) {
+			glDeleteBuffers(intBuffer);
+		}
+		shortBuffer = 0;
+		intBuffer = 0;
+		shortCapacity = 0;
+		intCapacity = 0;
+	}
+	
+	private static int grownCapacity(int current, int needed) {
+		return Math.max(Math.max(current * 2, needed), MIN_QUADS);
+	}
+	
+	/// Fills the bound buffer with the quad pattern. The buffer is written to in place, so its name doesn't change.
+	private static void upload(int quads, boolean wide) {
+		int indexSize = wide ? Integer.BYTES : Short.BYTES;
+		ByteBuffer indices = MemoryUtil.memAlloc(quads * 6 * indexSize);
+		try {
+			for (int quad = 0; quad < quads; quad++) {
+				int first = quad * 4;
+				if (wide) {
+					indices.putInt(first).putInt(first + 1).putInt(first + 2)
+							.putInt(first + 2).putInt(first + 3).putInt(first);
+				} else {
+					indices.putShort((short) first).putShort((short) (first + 1)).putShort((short) (first + 2))
+							.putShort((short) (first + 2)).putShort((short) (first + 3)).putShort((short) first);
+				}
+			}
+			indices.flip();
+			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+		} finally {
+			MemoryUtil.memFree(indices);
+		}
+	}
+}
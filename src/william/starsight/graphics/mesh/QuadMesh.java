@@ -0,0 +1,121 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.NotNull;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * A mesh made only of quads, drawn with the shared {@link QuadIndexBuffer} instead of an index buffer of its own
+ *
+ * @author William
+ */
+public class QuadMesh extends Mesh {
+    private int VAO, VBO;
+
+    private final VertexFormat vertexFormat;
+    private int quadCount;
+    private int indexType;
+    private long vboCapacity; // In bytes
+
+    /**
+     * Constructs a quad mesh
+     *
+     * @param vertexData A direct buffer holding 4 vertices per quad, in the order {@link Tesselator} writes them
+     * @param ownsVertexData Whether the mesh frees the buffer once it's uploaded, see {@link Mesh#Mesh(ByteBuffer, boolean)}
+     * @param vertexFormat The vertex format used by the buffer
+     */
+    public QuadMesh(@NotNull ByteBuffer vertexData, boolean ownsVertexData, @NotNull VertexFormat vertexFormat) {
+        super(vertexData, ownsVertexData, vertexFormat);
+        this.vertexFormat = vertexFormat;
+        this.quadCount = vertexData.remaining() / (4 * vertexFormat.getStrideInBytes());
+    }
+
+    @Override
+    public void initialize() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+
+        VAO = glGenVertexArrays();
+        VBO = glGenBuffers();
+
+        GLStateCache.bindVertexArray(VAO);
+
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        glBufferData(GL_ARRAY_BUFFER, vertexData, GL_DYNAMIC_DRAW);
+        vboCapacity = vertexData.remaining();
+        releaseVertexData(); // The GPU has its own copy now
+
+        indexType = QuadIndexBuffer.bind(quadCount); // The VAO remembers the shared buffer
+
+        vertexFormat.setupAttributes();
+
+        GLStateCache.bindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    @Override
+    public void render() {
+        if (quadCount == 0) {
+            return;
+        }
+        GLStateCache.bindVertexArray(VAO);
+        glDrawElements(GL_TRIANGLES, quadCount * 6, indexType, 0L);
+    }
+
+    /**
+     * Replaces the mesh's quads, writing into the existing vertex buffer with {@code glBufferSubData} when they fit and
+     * only reallocating it when they don't
+     *
+     * @param vertices A direct buffer in the same vertex format, read from its position to its limit. It is not kept.
+     */
+    public void update(@NotNull ByteBuffer vertices) {
+        if (isCleanedUp()) {
+            throw new IllegalStateException("Cannot update a mesh that was cleaned up!");
+        }
+        int newQuadCount = vertices.remaining() / (4 * vertexFormat.getStrideInBytes());
+
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        if (vertices.remaining() <= vboCapacity) {
+            glBufferSubData(GL_ARRAY_BUFFER, 0L, vertices);
+        } else {
+            // Leave some headroom so a section that keeps growing doesn't reallocate on every edit
+            vboCapacity = Math.max(vertices.remaining(), vboCapacity + (vboCapacity >> 1));
+            glBufferData(GL_ARRAY_BUFFER, vboCapacity, GL_DYNAMIC_DRAW);
+            glBufferSubData(GL_ARRAY_BUFFER, 0L, vertices);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        // The shared index buffer may need to grow or switch to ints, and the VAO has to see that
+        GLStateCache.bindVertexArray(VAO);
+        indexType = QuadIndexBuffer.bind(newQuadCount);
+        GLStateCache.bindVertexArray(0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        quadCount = newQuadCount;
+        computeBounds(vertices, vertexFormat);
+    }
+
+    /**
+     * @return The number of quads in the mesh
+     */
+    public int getQuadCount() {
+        return quadCount;
+    }
+
+    @Override
+    public int getVertexArray() {
+        return VAO;
+    }
+
+    @Override
+    protected void subclassCleanup() {
+        GLStateCache.deleteVertexArray(VAO);
+        glDeleteBuffers(VBO); // Not the index buffer, that one is shared
+    }
+}
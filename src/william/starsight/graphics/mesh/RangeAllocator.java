@@ -0,0 +1,146 @@
+package william.starsight.graphics.mesh;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Arrays;
+
+/**
+ * Hands out ranges of a linear space, like a buffer, first fit from a free list that merges neighbouring ranges back
+ * together as they're freed. It only keeps books; what the units are is up to the caller.
+ *
+ * @author William
+ */
+class RangeAllocator {
+    // Sorted, non-touching free ranges
+    private int[] freeStart = new int[8];
+    private int[] freeLength = new int[8];
+    private int freeCount;
+    private int capacity;
+    private int totalFree;
+
+    RangeAllocator(int capacity) {
+        grow(capacity);
+    }
+
+    /**
+     * Allocates a range
+     *
+     * @param length The length of the range
+     * @param alignment What the start of the range must be a multiple of
+     * @return The start of the range, or -1 if nothing fits
+     */
+    int allocate(int length, int alignment) {
+        if (length == 0) {
+            return 0;
+        }
+        for (int i = 0; i < freeCount; i++) {
+            int start = freeStart[i];
+            int padding = (alignment - start % alignment) % alignment;
+            if (freeLength[i] < length + padding) {
+                continue;
+            }
+            int end = freeStart[i] + freeLength[i];
+            totalFree -= freeLength[i];
+            removeRange(i);
+            // Whatever is left on either side goes back on the list
+            free(start, padding);
+            free(start + padding + length, end - (start + padding + length));
+            return start + padding;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a range to the free list, merging it with the ranges on either side
+     *
+     * @param start The start of the range
+     * @param length The length of the range
+     */
+    void free(int start, int length) {
+        if (length <= 0) {
+            return;
+        }
+        totalFree += length;
+        int i = 0;
+        while (i < freeCount && freeStart[i] < start) {
+            i++;
+        }
+        boolean joinsBefore = i > 0 && freeStart[i - 1] + freeLength[i - 1] == start;
+        boolean joinsAfter = i < freeCount && start + length == freeStart[i];
+
+        if (joinsBefore && joinsAfter) {
+            freeLength[i - 1] += length + freeLength[i];
+            removeRange(i);
+        } else if (joinsBefore) {
+            freeLength[i - 1] += length;
+        } else if (joinsAfter) {
+            freeStart[i] = start;
+            freeLength[i] += length;
+        } else {
+            if (freeCount == freeStart.length) {
+                freeStart = Arrays.copyOf(freeStart, freeCount * 2);
+                freeLength = Arrays.copyOf(freeLength, freeCount * 2);
+            }
+            System.arraycopy(freeStart, i, freeStart, i + 1, freeCount - i);
+            System.arraycopy(freeLength, i, freeLength, i + 1, freeCount - i);
+            freeStart[i] = start;
+            freeLength[i] = length;
+            freeCount++;
+        }
+    }
+
+    /**
+     * Extends the space, adding the new part to the free list
+     *
+     * @param newCapacity The new size of the space, which must not be smaller than it was
+     */
+    void grow(int newCapacity) {
+        int added = newCapacity - capacity;
+        int oldCapacity = capacity;
+        capacity = newCapacity;
+        free(oldCapacity, added);
+    }
+
+    /**
+     * Forgets every allocation
+     */
+    void reset() {
+        freeCount = 0;
+        totalFree = 0;
+        free(0, capacity);
+    }
+
+    @Contract(pure = true)
+    int getCapacity() {
+        return capacity;
+    }
+
+    @Contract(pure = true)
+    int getTotalFree() {
+        return totalFree;
+    }
+
+    @Contract(pure = true)
+    int getLargestFree() {
+        int largest = 0;
+        for (int i = 0; i < freeCount; i++) {
+            largest = Math.max(largest, freeLength[i]);
+        }
+        return largest;
+    }
+
+    /**
+     * @return How scattered the free space is, from 0 when it is all in one range to almost 1 when it is in many
+     * small ones
+     */
+    @Contract(pure = true)
+    float getFragmentation() {
+        return totalFree == 0 ? 0.0f : 1.0f - (float) getLargestFree() / totalFree;
+    }
+
+    private void removeRange(int i) {
+        System.arraycopy(freeStart, i + 1, freeStart, i, freeCount - i - 1);
+        System.arraycopy(freeLength, i + 1, freeLength, i, freeCount - i - 1);
+        freeCount--;
+    }
+}
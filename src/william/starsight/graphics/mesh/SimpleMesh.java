@@ -2,6 +2,9 @@ package william.starsight.graphics.mesh;
 
 import org.jetbrains.annotations.NotNull;
 import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.ByteBuffer;
 
 import static org.lwjgl.opengl.GL43.*;
 
@@ -25,10 +28,22 @@ public class SimpleMesh extends Mesh {
 	 * @apiNote {@code startingBuffer} will be cloned into a direct buffer
 	 */
 	public SimpleMesh(float @NotNull [] vertexData, @NotNull VertexFormat vertexFormat) {
-		super(vertexData);
+		super(vertexData, vertexFormat);
 		this.vertexFormat = vertexFormat;
 		this.vertexCount = vertexData.length / (vertexFormat.getStrideInFloats());
 	}
+	
+	/**
+	 * Constructs a mesh with no indices from raw bytes, for formats that aren't made of floats
+	 *
+	 * @param vertexData A direct buffer whose remaining bytes are the vertices
+	 * @param vertexFormat The vertex format used by the buffer
+	 */
+	public SimpleMesh(@NotNull ByteBuffer vertexData, @NotNull VertexFormat vertexFormat) {
+		super(vertexData, false, vertexFormat);
+		this.vertexFormat = vertexFormat;
+		this.vertexCount = vertexData.remaining() / vertexFormat.getStrideInBytes();
+	}
 
 	@Override
 	public void initialize() {
@@ -39,26 +54,32 @@ public class SimpleMesh extends Mesh {
 		VBO = glGenBuffers();
 		
 		VAO = glGenVertexArrays();
-		glBindVertexArray(VAO);
+		GLStateCache.bindVertexArray(VAO);
 		
 		glBindBuffer(GL_ARRAY_BUFFER, VBO);
-		glBufferData(GL_ARRAY_BUFFER, vertexData, GL_STATIC_DRAW); // Put in the direct FloatBuffer
+		glBufferData(GL_ARRAY_BUFFER, vertexData, GL_STATIC_DRAW); // Put in the direct buffer
+		releaseVertexData(); // The GPU has its own copy now
 		
 		vertexFormat.setupAttributes();
 		
-		glBindVertexArray(0);
+		GLStateCache.bindVertexArray(0);
 		glBindBuffer(GL_ARRAY_BUFFER, 0);   // can be added after glBufferData(...)
 	}
 
 	@Override
 	public void render() {
-		glBindVertexArray(VAO);
+		GLStateCache.bindVertexArray(VAO);
 		glDrawArrays(GL_TRIANGLES, 0, vertexCount);
 	}
 
+	@Override
+	public int getVertexArray() {
+		return VAO;
+	}
+	
 	@Override
 	protected void subclassCleanup() {
 		glDeleteBuffers(VBO);
-		glDeleteVertexArrays(VAO);
+		GLStateCache.deleteVertexArray(VAO);
 	}
 }
@@ -2,58 +2,128 @@ package william.starsight.graphics.mesh;
 
 import org.jetbrains.annotations.NotNull;
 import org.joml.Vector3f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryUtil;
+import william.starsight.graphics.state.GLStateCache;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 import static org.lwjgl.opengl.GL43.*;
 
 /**
  * This specifically assumes a vertex format of POS, UV, NORMALS, and is not meant to be used for entity models. MovingObjectTesselator should cover that
+ * <p>
+ * The vertices can be written either as plain floats or tightly packed, see {@link Mode}. They are written off-heap, so
+ * {@link #close()} the tesselator once you're done with it.
  */
-public class Tesselator {
-    private static final int[] premadeIndices = new int[4194304]; // Filling up the premade indices. I need to document my choice of numbers
-
-    static {
-        int one = 0;
-        int two = 1;
-        int three = 2;
-        int four = 2;
-        int five = 3;
-        int six = 0;
-        for (int i = 0; i < premadeIndices.length - 6; i += 6) {
-            premadeIndices[i] = one;
-            premadeIndices[i + 1] = two;
-            premadeIndices[i + 2] = three;
-            premadeIndices[i + 3] = four;
-            premadeIndices[i + 4] = five;
-            premadeIndices[i + 5] = six;
-            one += 4;
-            two += 4;
-            three += 4;
-            four += 4;
-            five += 4;
-            six += 4;
-        }
-    }
-
-    private float[] buffer;
-    private int bufferPosition;
+public class Tesselator implements AutoCloseable {
+    /**
+     * The default starting capacity, in quads. The buffer grows past it as needed.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private ByteBuffer buffer; // Off-heap, and null right after a flush hands it to the mesh
+    private int capacity; // In bytes, and remembered across flushes so a big chunk doesn't regrow every time
+    private final Mode mode;
+    private int bufferPosition; // In bytes
     private Orientation orientation = Orientation.CCW;
     private int quadCount;
 
     public Tesselator() {
-        this((int) (32 * 32 * 32 * 24 * 1.25)); // Default capacity
+        this(Mode.STANDARD, DEFAULT_CAPACITY);
+    }
+
+    public Tesselator(@NotNull Mode mode) {
+        this(mode, DEFAULT_CAPACITY);
     }
 
-    public Tesselator(int startingCapacity) {
-        buffer = new float[startingCapacity];
+    /**
+     * Constructs a tesselator
+     *
+     * @param mode The vertex layout to write
+     * @param startingCapacity How many quads fit before the buffer has to grow
+     */
+    public Tesselator(@NotNull Mode mode, int startingCapacity) {
+        this.mode = mode;
+        capacity = Math.max(1, startingCapacity) * 4 * mode.format.getStrideInBytes();
+        buffer = MemoryUtil.memAlloc(capacity);
         bufferPosition = 0;
         quadCount = 0;
     }
 
+    /**
+     * The vertex layouts a tesselator can write. All of them keep position at location 0, UV at location 1 and the
+     * normal at location 2. The lit layouts add light at location 3.
+     */
+    public enum Mode {
+        /**
+         * 32 bytes per vertex: {@code vec3} position, {@code vec2} UV, {@code vec3} normal
+         */
+        STANDARD(false, VertexFormatType.VEC3, VertexFormatType.VEC2, VertexFormatType.VEC3),
+        /**
+         * 12 bytes per vertex: 3 shorts of position, 2 half floats of UV and an unsigned short face, which the shader
+         * reads as a {@code uint}. The low 3 bits of the face are the {@link QuadDirection} ordinal.
+         * <p>
+         * Positions are rounded to whole units and must fit in a short, which suits block-aligned geometry. Keep them
+         * relative to the chunk and move the chunk with a transform.
+         */
+        PACKED(false, VertexFormatType.SHORT_VEC3, VertexFormatType.HALF_VEC2, VertexFormatType.INTEGER_USHORT),
+        /**
+         * {@link #STANDARD} plus a normalized {@code vec4} of light: ambient occlusion, sky light, block light and 1.
+         * 36 bytes per vertex.
+         */
+        STANDARD_LIT(true, VertexFormatType.VEC3, VertexFormatType.VEC2, VertexFormatType.VEC3, VertexFormatType.NORMALIZED_UBYTE_VEC4),
+        /**
+         * {@link #PACKED} plus the same light as {@link #STANDARD_LIT}. 16 bytes per vertex.
+         */
+        PACKED_LIT(true, VertexFormatType.SHORT_VEC3, VertexFormatType.HALF_VEC2, VertexFormatType.INTEGER_USHORT, VertexFormatType.NORMALIZED_UBYTE_VEC4),
+        ;
+
+        private final VertexFormat format;
+        private final boolean lit;
+        private final boolean packed;
+
+        Mode(boolean lit, VertexFormatType... types) {
+            this.format = VertexFormat.of(types);
+            this.lit = lit;
+            this.packed = types[0] == VertexFormatType.SHORT_VEC3;
+        }
+
+        /**
+         * @return The vertex format meshes from this mode use
+         */
+        public @NotNull VertexFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return Whether this mode writes per-vertex light
+         */
+        public boolean isLit() {
+            return lit;
+        }
+    }
+
+    /**
+     * Ambient occlusion 3 (unoccluded), full sky light and no block light, packed the way {@link #packLight(int, int, int)} does
+     */
+    public static final int FULL_LIGHT = packLight(3, 15, 0);
+
+    /**
+     * Packs the light of one vertex for the lit {@link #addQuad(float, float, float, QuadDirection, float, float, float, float, float, float, int, int, int, int, boolean) addQuad}
+     *
+     * @param ambientOcclusion From 0 (fully occluded) to 3 (not occluded)
+     * @param skyLight From 0 to 15
+     * @param blockLight From 0 to 15
+     * @return The packed light, which fits in 10 bits
+     */
+    public static int packLight(int ambientOcclusion, int skyLight, int blockLight) {
+        return (ambientOcclusion & 0x3) | ((skyLight & 0xF) << 2) | ((blockLight & 0xF) << 6);
+    }
+
     public void setOrientation(Orientation o) {
         this.orientation = o;
-        glFrontFace(o == Orientation.CW ? GL_CW : GL_CCW);
+        GLStateCache.setFrontFace(o == Orientation.CW ? GL_CW : GL_CCW);
     }
 
     public enum Orientation {
@@ -62,6 +132,24 @@ public class Tesselator {
     }
 
     public void addQuad(float x, float y, float z, @NotNull QuadDirection direction, float width, float height, float minU, float minV, float maxU, float maxV) {
+        addQuad(x, y, z, direction, width, height, minU, minV, maxU, maxV, FULL_LIGHT, FULL_LIGHT, FULL_LIGHT, FULL_LIGHT, false);
+    }
+
+    /**
+     * Adds a quad with light at each vertex. Tesselators that aren't in a {@link Mode#isLit() lit} mode ignore the light.
+     * <p>
+     * The vertices of a quad are written in a fixed order per direction, and the lights are given in that same order.
+     * Triangles normally split the quad between the first and third vertices. Interpolated light looks lopsided when the
+     * other diagonal is the darker one, so {@code flipDiagonal} splits it between the second and fourth instead.
+     *
+     * @param light1 The light of the first vertex, from {@link #packLight(int, int, int)}
+     * @param light2 The light of the second vertex
+     * @param light3 The light of the third vertex
+     * @param light4 The light of the fourth vertex
+     * @param flipDiagonal Whether to split the quad along the other diagonal
+     */
+    public void addQuad(float x, float y, float z, @NotNull QuadDirection direction, float width, float height, float minU, float minV, float maxU, float maxV,
+                        int light1, int light2, int light3, int light4, boolean flipDiagonal) {
         float nX = direction.x();
         float nY = direction.y();
         float nZ = direction.z();
@@ -166,50 +254,63 @@ public class Tesselator {
             case null -> throw new NullPointerException("I legit don't know how this threw. This is literally impossible. That is if this was executed without the IDE's @NotNull thing wasn't active.");
         }
 
-//        float newQuad[] = { // One new quad :)
-//             //  x,  y,  z,    u,    v, nx, ny, nz
-//                x1, y1, z1, minU, minV, nX, nY, nZ,
-//                x2, y2, z2, minU, maxV, nX, nY, nZ,
-//                x3, y3, z3, maxU, maxV, nX, nY, nZ,
-//                x4, y4, z4, maxU, minV, nX, nY, nZ // Need to put 32 elements into an array without creating a new object.
-//        };
-
-        // Never speak of this again
-        buffer[bufferPosition] = x1;
-        buffer[bufferPosition + 1] = y1;
-        buffer[bufferPosition + 2] = z1;
-        buffer[bufferPosition + 3] = minU;
-        buffer[bufferPosition + 4] = minV;
-        buffer[bufferPosition + 5] = nX;
-        buffer[bufferPosition + 6] = nY;
-        buffer[bufferPosition + 7] = nZ;
-        buffer[bufferPosition + 8] = x2;
-        buffer[bufferPosition + 9] = y2;
-        buffer[bufferPosition + 10] = z2;
-        buffer[bufferPosition + 11] = minU;
-        buffer[bufferPosition + 12] = maxV;
-        buffer[bufferPosition + 13] = nX;
-        buffer[bufferPosition + 14] = nY;
-        buffer[bufferPosition + 15] = nZ;
-        buffer[bufferPosition + 16] = x3;
-        buffer[bufferPosition + 17] = y3;
-        buffer[bufferPosition + 18] = z3;
-        buffer[bufferPosition + 19] = maxU;
-        buffer[bufferPosition + 20] = maxV;
-        buffer[bufferPosition + 21] = nX;
-        buffer[bufferPosition + 22] = nY;
-        buffer[bufferPosition + 23] = nZ;
-        buffer[bufferPosition + 24] = x4;
-        buffer[bufferPosition + 25] = y4;
-        buffer[bufferPosition + 26] = z4;
-        buffer[bufferPosition + 27] = maxU;
-        buffer[bufferPosition + 28] = minV;
-        buffer[bufferPosition + 29] = nX;
-        buffer[bufferPosition + 30] = nY;
-        buffer[bufferPosition + 31] = nZ;
+        ensureRoomForQuad();
+        if (flipDiagonal) { // Starting one vertex later makes the shared 0 1 2 2 3 0 indices cut along the other diagonal
+            putVertex(x2, y2, z2, minU, maxV, direction, light2);
+            putVertex(x3, y3, z3, maxU, maxV, direction, light3);
+            putVertex(x4, y4, z4, maxU, minV, direction, light4);
+            putVertex(x1, y1, z1, minU, minV, direction, light1);
+        } else {
+            putVertex(x1, y1, z1, minU, minV, direction, light1);
+            putVertex(x2, y2, z2, minU, maxV, direction, light2);
+            putVertex(x3, y3, z3, maxU, maxV, direction, light3);
+            putVertex(x4, y4, z4, maxU, minV, direction, light4);
+        }
 
         quadCount++;
-        bufferPosition += 32; // Issue #1: FIXED
+    }
+
+    private void ensureRoomForQuad() {
+        int needed = bufferPosition + 4 * mode.format.getStrideInBytes();
+        if (buffer == null) {
+            capacity = Math.max(capacity, needed);
+            buffer = MemoryUtil.memAlloc(capacity);
+        } else if (needed > capacity) {
+            capacity = Math.max(capacity * 2, needed);
+            buffer = MemoryUtil.memRealloc(buffer, capacity);
+        }
+    }
+
+    private void putVertex(float x, float y, float z, float u, float v, QuadDirection direction, int light) {
+        int p = bufferPosition;
+        if (mode.packed) {
+            buffer.putShort(p, (short) Math.round(x));
+            buffer.putShort(p + 2, (short) Math.round(y));
+            buffer.putShort(p + 4, (short) Math.round(z));
+            buffer.putShort(p + 6, Float.floatToFloat16(u));
+            buffer.putShort(p + 8, Float.floatToFloat16(v));
+            buffer.putShort(p + 10, (short) direction.ordinal());
+            p += 12;
+        } else {
+            buffer.putFloat(p, x);
+            buffer.putFloat(p + 4, y);
+            buffer.putFloat(p + 8, z);
+            buffer.putFloat(p + 12, u);
+            buffer.putFloat(p + 16, v);
+            buffer.putFloat(p + 20, direction.x());
+            buffer.putFloat(p + 24, direction.y());
+            buffer.putFloat(p + 28, direction.z());
+            p += 32;
+        }
+        if (mode.lit) {
+            // Spread each level over the full byte so the normalized attribute reads 0 to 1
+            buffer.put(p, (byte) ((light & 0x3) * 85));
+            buffer.put(p + 1, (byte) (((light >>> 2) & 0xF) * 17));
+            buffer.put(p + 2, (byte) (((light >>> 6) & 0xF) * 17));
+            buffer.put(p + 3, (byte) 255);
+            p += 4;
+        }
+        bufferPosition = p;
     }
 
     public enum QuadDirection {
@@ -234,17 +335,101 @@ public class Tesselator {
         }
     }
 
-    public Mesh flushMesh() {
-        var copyOfBuffer = buffer.clone(); // I want to reset afterward
-        Arrays.fill(buffer, 0.0f);
-        int oldQuadCount = quadCount;
-        int quadCount = 0;
-        return new EBOMesh(copyOfBuffer,generateIndices(oldQuadCount * 6),VertexFormat.of(VertexFormatType.VEC3, VertexFormatType.VEC2, VertexFormatType.VEC3)); // Only 2 object allocations (may change)
+    /**
+     * Turns everything added since the last flush into a mesh and starts over
+     *
+     * @return The mesh, which still has to be {@link Mesh#initialize() initialized} on the render thread
+     * @apiNote The written vertices are handed to the mesh as-is rather than copied, and the mesh frees them once they
+     * are uploaded. The tesselator allocates a fresh buffer the next time a quad is added.
+     */
+    public QuadMesh flushMesh() {
+        ByteBuffer vertices;
+        boolean owned;
+        if (bufferPosition == 0 || buffer == null) {
+            vertices = BufferUtils.createByteBuffer(0);
+            owned = false;
+        } else {
+            vertices = MemoryUtil.memRealloc(buffer, bufferPosition); // Trims off the unused tail, usually in place
+            buffer = null;
+            owned = true;
+        }
+        quadCount = 0;
+        bufferPosition = 0; // Tesselators get reused, so the next mesh has to start from the top
+        return new QuadMesh(vertices, owned, mode.format); // Indices come from the shared QuadIndexBuffer
+    }
+
+    /**
+     * Uploads everything written since the last flush into an existing mesh, reusing its GPU buffer where possible,
+     * then starts over. Unlike {@link #flushMesh()} the tesselator keeps its buffer, so nothing gets allocated.
+     * <p>
+     * Must be called on the render thread.
+     *
+     * @param mesh An initialized mesh that was flushed from a tesselator in the same {@link Mode}
+     * @return The number of quads uploaded
+     */
+    public int flushInto(@NotNull QuadMesh mesh) {
+        int quads = quadCount;
+        if (buffer == null) {
+            mesh.update(BufferUtils.createByteBuffer(0));
+        } else {
+            mesh.update(buffer.limit(bufferPosition).position(0));
+            buffer.clear();
+        }
+        quadCount = 0;
+        bufferPosition = 0;
+        return quads;
+    }
+
+    /**
+     * Adds everything written since the last flush to a batch as a new mesh, then starts over. Like
+     * {@link #flushInto(QuadMesh)}, the tesselator keeps its buffer.
+     * <p>
+     * Must be called on the render thread.
+     *
+     * @param batch A batch whose vertex format is this tesselator's
+     * @return The handle of the mesh in the batch
+     */
+    public int flushInto(@NotNull QuadBatch batch) {
+        int handle;
+        if (buffer == null) {
+            handle = batch.add(BufferUtils.createByteBuffer(0));
+        } else {
+            handle = batch.add(buffer.limit(bufferPosition).position(0));
+            buffer.clear();
+        }
+        quadCount = 0;
+        bufferPosition = 0;
+        return handle;
+    }
+
+    /**
+     * Throws away everything written since the last flush, keeping the buffer for the next mesh
+     */
+    public void reset() {
+        if (buffer != null) {
+            buffer.clear();
+        }
+        quadCount = 0;
+        bufferPosition = 0;
+    }
+
+    /**
+     * Frees the tesselator's buffer. Meshes that were already flushed are unaffected.
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            MemoryUtil.memFree(buffer);
+            buffer = null;
+        }
+        bufferPosition = 0;
+        quadCount = 0;
     }
 
-    private int[] generateIndices(int count) {
-        int[] newArrayForIndices = new int[count];
-        System.arraycopy(premadeIndices, 0, newArrayForIndices, 0, count);
-        return newArrayForIndices;
+    /**
+     * @return The vertex layout this tesselator writes
+     */
+    public @NotNull Mode getMode() {
+        return mode;
     }
 }
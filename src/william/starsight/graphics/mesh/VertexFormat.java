@@ -8,35 +8,60 @@ import java.util.List;
 
 /**
  * This represents the vertex format used by mesh vertices
+ * <p>
+ * A format can also describe per-instance data, see {@link #instanced(int, VertexFormatType...)}. Its attributes then
+ * advance once every few instances rather than once per vertex.
  *
  * @author William
  */
 public class VertexFormat {
 	private final VertexFormatType[] vaoFormat;
+	private final int stride;
+	private final int divisor;
+	private final int locations;
 	
 	@Contract(pure = true)
-	private VertexFormat(VertexFormatType... vft) {
+	private VertexFormat(int divisor, VertexFormatType... vft) {
 		this.vaoFormat = vft;
+		this.divisor = divisor;
+		int stride = 0;
+		int locations = 0;
+		for (VertexFormatType v : vft) {
+			stride += v.size;
+			locations += v.locations();
+		}
+		this.stride = stride;
+		this.locations = locations;
 	}
 	
+	private record Key(List<VertexFormatType> types, int divisor) {}
+	
 	@NotNull
-	private static final HashMap<List<VertexFormatType>, VertexFormat> CACHE = new HashMap<>();
+	private static final HashMap<Key, VertexFormat> CACHE = new HashMap<>();
 	
 	/**
 	 * Sets up the VAO based on the format list
 	 */
 	public void setupAttributes() {
-		int stride = 0;
-		for (VertexFormatType v : vaoFormat) {
-			stride += v.size;
-		}
-		
+		setupAttributes(0);
+	}
+	
+	/**
+	 * Sets up the VAO based on the format list, starting at an attribute location other than 0. This is how a second
+	 * buffer, like per-instance data, goes after the vertex attributes.
+	 *
+	 * @param firstLocation The location of the first attribute
+	 * @return The first location after this format's attributes
+	 */
+	public int setupAttributes(int firstLocation) {
 		int offset = 0;
-		for (int i = 0; i < vaoFormat.length; i++) {
-			VertexFormatType type = vaoFormat[i];
-			type.setup(i, offset, stride);
+		int location = firstLocation;
+		for (VertexFormatType type : vaoFormat) {
+			type.setup(location, offset, stride, divisor);
 			offset += type.size;
+			location += type.locations();
 		}
+		return location;
 	}
 	
 	/**
@@ -46,18 +71,55 @@ public class VertexFormat {
 	 * @return The respective vertex format
 	 */
 	public static @NotNull VertexFormat of(VertexFormatType... vft) {
-		List<VertexFormatType> key = List.of(vft);
-		return CACHE.computeIfAbsent(key, k -> new VertexFormat(vft.clone())); // IntelliJ, CACHE CANNOT BE NULL. SO SHUT UP.
+		return CACHE.computeIfAbsent(new Key(List.of(vft), 0), k -> new VertexFormat(0, vft.clone())); // IntelliJ, CACHE CANNOT BE NULL. SO SHUT UP.
+	}
+	
+	/**
+	 * Fetches a format for per-instance data from the format types
+	 *
+	 * @param divisor How many instances share one element, usually 1
+	 * @param vft The list of types
+	 * @return The respective vertex format
+	 */
+	public static @NotNull VertexFormat instanced(int divisor, VertexFormatType... vft) {
+		if (divisor <= 0) {
+			throw new IllegalArgumentException("An instanced format needs a divisor of at least 1, not " + divisor);
+		}
+		return CACHE.computeIfAbsent(new Key(List.of(vft), divisor), k -> new VertexFormat(divisor, vft.clone()));
+	}
+	
+	/**
+	 * @return How many instances share one element, or 0 if the attributes advance per vertex
+	 */
+	@Contract(pure = true)
+	public int getDivisor() {
+		return divisor;
+	}
+	
+	/**
+	 * @return How many attribute locations the format takes up, which is more than the number of types with matrices
+	 */
+	@Contract(pure = true)
+	public int getLocationCount() {
+		return locations;
+	}
+	
+	/**
+	 * @return The first type in the format, which is the position by convention
+	 */
+	@Contract(pure = true)
+	VertexFormatType getPositionType() {
+		return vaoFormat[0];
 	}
 	
-	// In VertexFormat.java — add this method
 	public int getStrideInBytes() {
-		int stride = 0;
-		for (VertexFormatType v : vaoFormat) stride += v.size;
 		return stride;
 	}
 	
+	/**
+	 * @return The stride in floats, which only makes sense when every type in the format is float-based
+	 */
 	public int getStrideInFloats() {
-		return getStrideInBytes() / Float.BYTES;   // assuming everything is float-based
+		return getStrideInBytes() / Float.BYTES;
 	}
 }
\ No newline at end of file
@@ -1,9 +1,15 @@
 package william.starsight.graphics.mesh;
 
+import java.nio.ByteBuffer;
+
 import static org.lwjgl.opengl.GL43.*;
 
 /**
  * Vertex format type class
+ * <p>
+ * Types come in three flavours. Plain types are handed to the shader as floats, converting integers as-is. Normalized
+ * types map integers into 0 to 1 (or -1 to 1 for signed types). Integer types stay integers and must be read as
+ * {@code int}, {@code uint}, {@code ivec} or {@code uvec} in the shader.
  *
  * @author William
  */
@@ -40,20 +46,128 @@ public enum VertexFormatType {
 	 * Represents 4 floating point numbers
 	 */
 	VEC4(4, Float.BYTES * 4, GL_FLOAT),
+	/**
+	 * Represents 2 half precision floating point numbers
+	 */
+	HALF_VEC2(2, Short.BYTES * 2, GL_HALF_FLOAT),
+	/**
+	 * Represents 4 half precision floating point numbers
+	 */
+	HALF_VEC4(4, Short.BYTES * 4, GL_HALF_FLOAT),
+	/**
+	 * Represents 3 short integers, read as floats without normalizing
+	 */
+	SHORT_VEC3(3, Short.BYTES * 3, GL_SHORT),
+	/**
+	 * Represents 4 short integers, read as floats without normalizing
+	 */
+	SHORT_VEC4(4, Short.BYTES * 4, GL_SHORT),
+	/**
+	 * Represents 2 short integers, normalized to -1 to 1
+	 */
+	NORMALIZED_SHORT_VEC2(2, Short.BYTES * 2, GL_SHORT, true, false),
+	/**
+	 * Represents 2 unsigned short integers, normalized to 0 to 1
+	 */
+	NORMALIZED_USHORT_VEC2(2, Short.BYTES * 2, GL_UNSIGNED_SHORT, true, false),
+	/**
+	 * Represents 4 bytes, normalized to -1 to 1
+	 */
+	NORMALIZED_BYTE_VEC4(4, Byte.BYTES * 4, GL_BYTE, true, false),
+	/**
+	 * Represents 4 unsigned bytes, normalized to 0 to 1. Handy for colours.
+	 */
+	NORMALIZED_UBYTE_VEC4(4, Byte.BYTES * 4, GL_UNSIGNED_BYTE, true, false),
+	/**
+	 * Represents a signed 10-10-10-2 packed vector in one integer, normalized to -1 to 1. Handy for normals.
+	 */
+	INT_2_10_10_10_REV(4, Integer.BYTES, GL_INT_2_10_10_10_REV, true, false),
+	/**
+	 * Represents an unsigned 10-10-10-2 packed vector in one integer, normalized to 0 to 1
+	 */
+	UINT_2_10_10_10_REV(4, Integer.BYTES, GL_UNSIGNED_INT_2_10_10_10_REV, true, false),
+	/**
+	 * Represents one unsigned byte, kept as an integer in the shader
+	 */
+	INTEGER_UBYTE(1, Byte.BYTES, GL_UNSIGNED_BYTE, false, true),
+	/**
+	 * Represents one unsigned short integer, kept as an integer in the shader
+	 */
+	INTEGER_USHORT(1, Short.BYTES, GL_UNSIGNED_SHORT, false, true),
+	/**
+	 * Represents one integer, kept as an integer in the shader
+	 */
+	INTEGER_INT(1, Integer.BYTES, GL_INT, false, true),
+	/**
+	 * Represents one unsigned integer, kept as an integer in the shader
+	 */
+	INTEGER_UINT(1, Integer.BYTES, GL_UNSIGNED_INT, false, true),
+	/**
+	 * Represents 4 integers, kept as an {@code ivec4} in the shader
+	 */
+	IVEC4(4, Integer.BYTES * 4, GL_INT, false, true),
+	/**
+	 * Represents 4 unsigned integers, kept as a {@code uvec4} in the shader
+	 */
+	UVEC4(4, Integer.BYTES * 4, GL_UNSIGNED_INT, false, true),
+	/**
+	 * Represents a 4x4 matrix of floats, column by column. It takes up 4 attribute locations, one per column, so a
+	 * {@code mat4} at location 3 also uses 4, 5 and 6. Handy for per-instance model matrices.
+	 */
+	MAT4(16, Float.BYTES * 16, GL_FLOAT),
 	;
-	
-	final int components;  // Number of components (1-4)
+
+	final int components;  // Number of components (1-4, or 16 for a matrix)
 	final int size;        // Total size in bytes
 	final int glType;      // Base type
-	
+	final boolean normalized; // Whether integers get mapped into 0 to 1 or -1 to 1
+	final boolean integer;    // Whether the shader sees integers rather than floats
+
 	VertexFormatType(int components, int size, int glType) {
+		this(components, size, glType, false, false);
+	}
+
+	VertexFormatType(int components, int size, int glType, boolean normalized, boolean integer) {
 		this.components = components;
 		this.size = size;
 		this.glType = glType;
+		this.normalized = normalized;
+		this.integer = integer;
+	}
+
+	/// How many attribute locations this takes up, which is one per column for matrices
+	int locations() {
+		return components > 4 ? components / 4 : 1;
+	}
+
+	/// Whether the CPU can read this type back as a position, which takes 3 plain components
+	boolean isPosition() {
+		return components >= 3 && components <= 4 && !normalized && !integer && (glType == GL_FLOAT || glType == GL_HALF_FLOAT || glType == GL_SHORT);
+	}
+	
+	/// Reads one component of a type that {@link #isPosition()}
+	float read(ByteBuffer buffer, int offset, int component) {
+		return switch (glType) {
+			case GL_FLOAT -> buffer.getFloat(offset + component * Float.BYTES);
+			case GL_HALF_FLOAT -> Float.float16ToFloat(buffer.getShort(offset + component * Short.BYTES));
+			default -> buffer.getShort(offset + component * Short.BYTES);
+		};
 	}
 	
-	void setup(int index, int bytesSoFar, int stride) {
-		glEnableVertexAttribArray(index);
-		glVertexAttribPointer(index, components, glType, false, stride, bytesSoFar);
+	void setup(int index, int bytesSoFar, int stride, int divisor) {
+		int locations = locations();
+		int columnComponents = components / locations;
+		int columnSize = size / locations;
+		for (int i = 0; i < locations; i++) {
+			int location = index + i;
+			long offset = bytesSoFar + (long) i * columnSize;
+			glEnableVertexAttribArray(location);
+			if (integer) {
+				glVertexAttribIPointer(location, columnComponents, glType, stride, offset);
+			} else {
+				glVertexAttribPointer(location, columnComponents, glType, normalized, stride, offset);
+			}
+			glVertexAttribDivisor(location, divisor); // A VAO keeps divisors, so reset them too
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,109 @@
+package william.starsight.graphics.scene;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Arrays;
+
+/**
+ * Sorts {@link RenderQueue}'s 64-bit draw keys, as unsigned numbers, with an LSD radix sort over their bytes, carrying
+ * along the index each key was added at. The sort is stable and all its storage is reused, so once it has grown to a
+ * frame's worth of draws it doesn't allocate.
+ *
+ * @author William
+ */
+final class DrawKeySorter {
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private int size;
+    private long[] keys;
+    private int[] order;
+    private long[] keyScratch;
+    private int[] orderScratch;
+    private final int[] counts = new int[RADIX];
+
+    DrawKeySorter(int capacity) {
+        keys = new long[capacity];
+        order = new int[capacity];
+        keyScratch = new long[capacity];
+        orderScratch = new int[capacity];
+    }
+
+    /**
+     * Adds a key
+     *
+     * @param key The key
+     * @return The index it was added at, which {@link #getIndex(int)} gives back once sorted
+     */
+    int add(long key) {
+        if (size == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            order = Arrays.copyOf(order, capacity);
+            keyScratch = new long[capacity];
+            orderScratch = new int[capacity];
+        }
+        keys[size] = key;
+        order[size] = size;
+        return size++;
+    }
+
+    /// LSD radix sort of the keys, carrying the indices along. Bytes every key shares are skipped.
+    void sort() {
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                counts[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+            }
+            if (size == 0 || counts[(int) (keys[0] >>> shift) & (RADIX - 1)] == size) {
+                continue; // Everything has the same byte here, so this pass wouldn't move anything
+            }
+
+            int total = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                int count = counts[digit];
+                counts[digit] = total;
+                total += count;
+            }
+            for (int i = 0; i < size; i++) {
+                int destination = counts[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+                keyScratch[destination] = keys[i];
+                orderScratch[destination] = order[i];
+            }
+
+            long[] swapKeys = keys;
+            keys = keyScratch;
+            keyScratch = swapKeys;
+            int[] swapOrder = order;
+            order = orderScratch;
+            orderScratch = swapOrder;
+        }
+    }
+
+    /**
+     * @param i The position, in sorted order once {@link #sort()} has run
+     * @return The key there
+     */
+    @Contract(pure = true)
+    long getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @param i The position, in sorted order once {@link #sort()} has run
+     * @return The index the key there was added at
+     */
+    @Contract(pure = true)
+    int getIndex(int i) {
+        return order[i];
+    }
+
+    @Contract(pure = true)
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
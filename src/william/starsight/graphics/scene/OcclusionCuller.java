@@ -0,0 +1,297 @@
+package william.starsight.graphics.scene;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.mesh.EBOMesh;
+import william.starsight.graphics.mesh.VertexFormat;
+import william.starsight.graphics.mesh.VertexFormatType;
+import william.starsight.graphics.shader.ShaderCompilationException;
+import william.starsight.graphics.shader.ShaderLinkingException;
+import william.starsight.graphics.shader.ShaderProgram;
+import william.starsight.graphics.shader.Uniform;
+import william.starsight.graphics.shader.UniformNotFoundException;
+import william.starsight.graphics.state.GLStateCache;
+import william.starsight.graphics.state.PipelineState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Skips things hidden behind other things, like caves underground or chunks behind a mountain, using hardware occlusion
+ * queries.
+ * <p>
+ * Each {@link Target} is a box, usually a chunk's bounds. After the frame's opaque geometry is drawn, the boxes are drawn
+ * invisibly against its depth buffer with a {@code GL_ANY_SAMPLES_PASSED} query each. The results are read the next
+ * frame, when the GPU has long finished, so nothing ever waits on a query. A frame goes:
+ * <pre>
+ * culler.beginFrame();
+ * for each chunk in the frustum: if (culler.isVisible(target)) draw the chunk
+ * culler.runQueries(viewProjection, cameraPosition);
+ * </pre>
+ * Being a frame late means a target can show up one frame after it should. To keep that from showing, the culler errs
+ * towards drawing: new targets, targets that weren't checked last frame (say they were outside the frustum) and targets
+ * the camera is inside of all count as visible, and the boxes are grown a little so they come into view a bit before
+ * what's inside them does.
+ * <p>
+ * Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public class OcclusionCuller {
+    /**
+     * How far the boxes are grown on every side by default, in world units
+     */
+    public static final float DEFAULT_MARGIN = 0.5f;
+
+    // Depth tested against what's drawn, writing nothing. Both sides are drawn, the near side may be clipped away.
+    private static final PipelineState QUERY_STATE = PipelineState.OPAQUE
+            .withDepthWrite(false)
+            .withDepthTest(true, GL_LEQUAL)
+            .withCulling(false, GL_BACK)
+            .withColorWrite(false);
+
+    private static final float[] CUBE_VERTICES = {
+            0, 0, 0,  1, 0, 0,  1, 1, 0,  0, 1, 0,
+            0, 0, 1,  1, 0, 1,  1, 1, 1,  0, 1, 1,
+    };
+    private static final int[] CUBE_INDICES = {
+            0, 2, 1,  0, 3, 2, // -Z
+            4, 5, 6,  4, 6, 7, // +Z
+            0, 1, 5,  0, 5, 4, // -Y
+            3, 7, 6,  3, 6, 2, // +Y
+            0, 4, 7,  0, 7, 3, // -X
+            1, 2, 6,  1, 6, 5, // +X
+    };
+
+    private final List<Target> targets = new ArrayList<>();
+    private float margin = DEFAULT_MARGIN;
+
+    private ShaderProgram boxShader;
+    private EBOMesh cube;
+    private Uniform viewProjectionUniform, boxMinUniform, boxMaxUniform;
+
+    private int frame;
+    private int occludedCount;
+    private int lastOccludedCount;
+
+    /**
+     * A box whose visibility is tracked
+     */
+    public static final class Target {
+        private final Vector3f min = new Vector3f(), max = new Vector3f();
+        private int query;
+        private boolean pending; // A query was issued and its result hasn't been read yet
+        private boolean visible = true;
+        private int lastChecked = Integer.MIN_VALUE; // The frame isVisible() was last called on this
+
+        private Target(@NotNull Vector3fc min, @NotNull Vector3fc max) {
+            this.min.set(min);
+            this.max.set(max);
+        }
+
+        /**
+         * Moves or resizes the box, such as when a chunk's mesh changes
+         *
+         * @param min The minimum corner
+         * @param max The maximum corner
+         */
+        public void setBounds(@NotNull Vector3fc min, @NotNull Vector3fc max) {
+            this.min.set(min);
+            this.max.set(max);
+        }
+
+        @Contract(pure = true)
+        public @NotNull Vector3fc getMin() {
+            return min;
+        }
+
+        @Contract(pure = true)
+        public @NotNull Vector3fc getMax() {
+            return max;
+        }
+    }
+
+    /**
+     * Compiles the box shader and uploads the box
+     */
+    public void initialize() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        boxShader = new ShaderProgram("""
+                #version 430
+
+                layout(location = 0) in vec3 pos;
+
+                uniform mat4 viewProjection;
+                uniform vec3 boxMin;
+                uniform vec3 boxMax;
+
+                void main() {
+                    gl_Position = viewProjection * vec4(mix(boxMin, boxMax, pos), 1.0);
+                }
+                """, """
+                #version 430
+
+                void main() {
+                }
+                """);
+        try {
+            boxShader.compileAndLink();
+            viewProjectionUniform = boxShader.getUniform("viewProjection");
+            boxMinUniform = boxShader.getUniform("boxMin");
+            boxMaxUniform = boxShader.getUniform("boxMax");
+        } catch (ShaderCompilationException | ShaderLinkingException | UniformNotFoundException e) {
+            throw new IllegalStateException("The occlusion query shader is broken!", e);
+        }
+
+        cube = new EBOMesh(CUBE_VERTICES, CUBE_INDICES, VertexFormat.of(VertexFormatType.VEC3));
+        cube.initialize();
+    }
+
+    /**
+     * Starts tracking a box. It counts as visible until a query says otherwise.
+     *
+     * @param min The minimum corner
+     * @param max The maximum corner
+     * @return The target, to check and eventually {@link #removeTarget(Target) remove}
+     */
+    public @NotNull Target createTarget(@NotNull Vector3fc min, @NotNull Vector3fc max) {
+        Target target = new Target(min, max);
+        target.query = glGenQueries();
+        targets.add(target);
+        return target;
+    }
+
+    /**
+     * Stops tracking a box, such as when its chunk unloads
+     *
+     * @param target The target
+     */
+    public void removeTarget(@NotNull Target target) {
+        if (targets.remove(target)) {
+            glDeleteQueries(target.query);
+            target.query = 0;
+        }
+    }
+
+    /**
+     * Starts a frame
+     */
+    public void beginFrame() {
+        frame++;
+        lastOccludedCount = occludedCount;
+        occludedCount = 0;
+    }
+
+    /**
+     * Checks whether a target was visible as of the latest query result. Only targets checked this frame get queried
+     * by {@link #runQueries(Matrix4fc, Vector3fc)}, so call this for everything that would otherwise be drawn.
+     *
+     * @param target The target
+     * @return Whether to draw what's in the box
+     */
+    public boolean isVisible(@NotNull Target target) {
+        boolean checkedLastFrame = target.lastChecked == frame - 1 || target.lastChecked == frame;
+        target.lastChecked = frame;
+
+        if (target.pending && glGetQueryObjecti(target.query, GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+            target.visible = glGetQueryObjecti(target.query, GL_QUERY_RESULT) != 0;
+            target.pending = false;
+        }
+        if (!checkedLastFrame) {
+            target.visible = true; // Whatever was known is out of date, so don't risk a hole
+        }
+        if (!target.visible) {
+            occludedCount++;
+        }
+        return target.visible;
+    }
+
+    /**
+     * Queries every target checked this frame that isn't still waiting on a query. Call this once the opaque geometry
+     * is drawn, so its depth is there to test against. The fixed function state is put back the way it was.
+     *
+     * @param viewProjection The camera's projection matrix times its view matrix
+     * @param cameraPosition Where the camera is, as a target it's inside of can't be hidden
+     */
+    public void runQueries(@NotNull Matrix4fc viewProjection, @NotNull Vector3fc cameraPosition) {
+        boolean started = false;
+        PipelineState previous = null;
+
+        for (Target target : targets) {
+            if (target.lastChecked != frame || target.pending) {
+                continue;
+            }
+            float minX = target.min.x - margin, minY = target.min.y - margin, minZ = target.min.z - margin;
+            float maxX = target.max.x + margin, maxY = target.max.y + margin, maxZ = target.max.z + margin;
+            if (cameraPosition.x() >= minX && cameraPosition.x() <= maxX
+                    && cameraPosition.y() >= minY && cameraPosition.y() <= maxY
+                    && cameraPosition.z() >= minZ && cameraPosition.z() <= maxZ) {
+                target.visible = true; // The near plane would clip the box away, so it would look hidden
+                continue;
+            }
+
+            if (!started) {
+                previous = GLStateCache.getPipelineState();
+                QUERY_STATE.apply();
+                boxShader.bind();
+                viewProjectionUniform.set(viewProjection);
+                started = true;
+            }
+            boxMinUniform.set(minX, minY, minZ);
+            boxMaxUniform.set(maxX, maxY, maxZ);
+            glBeginQuery(GL_ANY_SAMPLES_PASSED, target.query);
+            cube.render();
+            glEndQuery(GL_ANY_SAMPLES_PASSED);
+            target.pending = true;
+        }
+
+        if (previous != null) {
+            previous.apply();
+        }
+    }
+
+    /**
+     * @param margin How far the boxes are grown on every side, in world units
+     */
+    public void setMargin(float margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * @return How many targets the last whole frame found hidden
+     */
+    @Contract(pure = true)
+    public int getLastOccludedCount() {
+        return lastOccludedCount;
+    }
+
+    /**
+     * @return How many targets are tracked
+     */
+    @Contract(pure = true)
+    public int getTargetCount() {
+        return targets.size();
+    }
+
+    public void cleanup() {
+        for (Target target : targets) {
+            glDeleteQueries(target.query);
+            target.query = 0;
+        }
+        targets.clear();
+        if (cube != null) {
+            cube.cleanup();
+        }
+        if (boxShader != null) {
+            boxShader.cleanup();
+        }
+    }
+}
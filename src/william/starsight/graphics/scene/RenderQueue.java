@@ -0,0 +1,256 @@
+package william.starsight.graphics.scene;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import william.starsight.Starsight;
+import william.starsight.graphics.mesh.Mesh;
+import william.starsight.graphics.shader.ObjectUniformRing;
+import william.starsight.graphics.shader.ShaderProgram;
+import william.starsight.graphics.shader.Uniform;
+import william.starsight.graphics.state.PipelineState;
+import william.starsight.graphics.texture.Texture;
+
+import java.util.Arrays;
+
+/**
+ * Collects a frame's draws, sorts them so draws sharing a shader, texture and vertex array end up next to each other, and
+ * then runs them, only binding what actually changes from one draw to the next.
+ * <p>
+ * Each draw gets a 64-bit key, sorted with an LSD radix sort over its bytes by {@link DrawKeySorter}:
+ * <pre>
+ * opaque passes:       pass (4) | shader (12) | texture (12) | vertex array (16) | depth (20), front to back
+ * back to front passes: pass (4) | depth (20), inverted     | shader (12) | texture (12) | vertex array (16)
+ * </pre>
+ * The names in the key are truncated, so two objects can share a key by accident. That only costs a bind, as the actual
+ * objects are compared when the draws run. All the storage is reused from frame to frame, so a queue that has reached
+ * its peak size doesn't allocate.
+ * <p>
+ * Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public class RenderQueue {
+    /**
+     * The number of render passes a key has room for
+     */
+    public static final int MAX_PASSES = 16;
+
+    /**
+     * The uniform the model matrix of each draw gets written to by default
+     */
+    public static final String DEFAULT_MODEL_UNIFORM = "model";
+
+    private final boolean[] backToFront = new boolean[MAX_PASSES];
+    private final PipelineState[] passStates = new PipelineState[MAX_PASSES];
+    private String modelUniform = DEFAULT_MODEL_UNIFORM;
+    private ObjectUniformRing objectRing;
+
+    private int size;
+    private final DrawKeySorter sorter = new DrawKeySorter(256);
+
+    private Mesh[] meshes = new Mesh[256];
+    private ShaderProgram[] shaders = new ShaderProgram[256];
+    private Texture[] textures = new Texture[256];
+    private Matrix4f[] transforms = new Matrix4f[256];
+
+    private int lastStateChanges;
+
+    /**
+     * Makes a pass draw back to front, for blending, instead of grouping by state
+     *
+     * @param pass The pass, from 0 to {@link #MAX_PASSES} - 1
+     * @param backToFront Whether to sort by depth first
+     */
+    public void setBackToFront(int pass, boolean backToFront) {
+        checkPass(pass);
+        this.backToFront[pass] = backToFront;
+    }
+
+    /**
+     * Sets the depth, cull and blend state a pass draws with
+     *
+     * @param pass The pass, from 0 to {@link #MAX_PASSES} - 1
+     * @param state The state, or {@code null} to leave the state alone
+     */
+    public void setPassState(int pass, @Nullable PipelineState state) {
+        checkPass(pass);
+        passStates[pass] = state;
+    }
+
+    /**
+     * Sets the uniform the model matrix of each draw is written to
+     *
+     * @param modelUniform The uniform name, or {@code null} to not write one
+     */
+    public void setModelUniform(@Nullable String modelUniform) {
+        this.modelUniform = modelUniform;
+    }
+
+    /**
+     * Sends the model matrices through an {@link ObjectUniformRing} instead of a uniform per draw. The whole queue's
+     * matrices are then written in one go when it flushes, and each draw only binds its slice. If the driver loses the
+     * ring's data for a frame, that frame falls back to the model uniform.
+     *
+     * @param objectRing The ring, which must be initialized, or {@code null} to go back to the model uniform
+     */
+    public void setObjectRing(@Nullable ObjectUniformRing objectRing) {
+        this.objectRing = objectRing;
+    }
+
+    /**
+     * Queues a draw
+     *
+     * @param pass The pass, from 0 to {@link #MAX_PASSES} - 1. Lower passes draw first.
+     * @param shader The shader to draw with
+     * @param texture The texture to bind, or {@code null} to leave the texture alone
+     * @param mesh The mesh
+     * @param transform The model matrix, which is copied
+     * @param depth How far the mesh is from the camera, used to order the draws within a pass
+     */
+    public void submit(int pass, @NotNull ShaderProgram shader, @Nullable Texture texture, @NotNull Mesh mesh, @NotNull Matrix4fc transform, float depth) {
+        checkPass(pass);
+        if (size == meshes.length) {
+            grow();
+        }
+
+        sorter.add(makeKey(pass, backToFront[pass], shader.getId(), texture == null ? 0 : texture.getId(), mesh.getVertexArray(), depth));
+        meshes[size] = mesh;
+        shaders[size] = shader;
+        textures[size] = texture;
+        if (transforms[size] == null) {
+            transforms[size] = new Matrix4f();
+        }
+        transforms[size].set(transform);
+        size++;
+    }
+
+    /**
+     * Packs a draw's sort key, as laid out in the class docs
+     *
+     * @param pass The pass
+     * @param backToFront Whether the pass sorts by depth first
+     * @param shader The shader program's name
+     * @param texture The texture's name, or 0 for none
+     * @param vertexArray The vertex array's name
+     * @param depth How far the draw is from the camera
+     * @return The key
+     */
+    @Contract(pure = true)
+    static long makeKey(int pass, boolean backToFront, int shader, int texture, int vertexArray, float depth) {
+        long shaderBits = shader & 0xFFFL;
+        long textureBits = texture & 0xFFFL;
+        long vertexArrayBits = vertexArray & 0xFFFFL;
+        // Positive floats sort the same as their bits, so the top of the bits makes a cheap, roughly logarithmic depth
+        long depthBits = (Float.floatToIntBits(Math.max(depth, 0.0f)) >>> 11) & 0xFFFFFL;
+
+        long key = (long) pass << 60;
+        if (backToFront) {
+            key |= ((~depthBits & 0xFFFFFL) << 40) | (shaderBits << 28) | (textureBits << 16) | vertexArrayBits;
+        } else {
+            key |= (shaderBits << 48) | (textureBits << 36) | (vertexArrayBits << 20) | depthBits;
+        }
+        return key;
+    }
+
+    /**
+     * Sorts and runs every queued draw, then empties the queue
+     */
+    public void flush() {
+        sorter.sort();
+        ObjectUniformRing ring = objectRing;
+        if (ring != null && size > 0) {
+            ring.begin(size);
+            for (int i = 0; i < size; i++) {
+                ring.push(transforms[sorter.getIndex(i)], 1.0f, 1.0f, 1.0f, 1.0f); // In draw order, so index i is draw i
+            }
+            if (!ring.end()) {
+                Starsight.LOG.fine("Lost the object ring's data, using the model uniform this frame");
+                ring = null;
+            }
+        }
+
+        ShaderProgram currentShader = null;
+        Texture currentTexture = null;
+        Uniform model = null;
+        int currentPass = -1;
+        int stateChanges = 0;
+
+        for (int i = 0; i < size; i++) {
+            int draw = sorter.getIndex(i);
+            int pass = (int) (sorter.getKey(i) >>> 60);
+            if (pass != currentPass) {
+                if (passStates[pass] != null) {
+                    passStates[pass].apply();
+                }
+                currentPass = pass;
+            }
+            ShaderProgram shader = shaders[draw];
+            if (shader != currentShader) {
+                shader.bind();
+                currentShader = shader;
+                model = modelUniform == null || ring != null ? null : shader.findUniform(modelUniform); // Once per bind, not per draw
+                stateChanges++;
+            }
+            Texture texture = textures[draw];
+            if (texture != null && texture != currentTexture) {
+                texture.bind();
+                currentTexture = texture;
+                stateChanges++;
+            }
+            if (ring != null) {
+                ring.bind(i);
+            } else if (model != null) {
+                model.set(transforms[draw]);
+            }
+            meshes[draw].render();
+        }
+
+        lastStateChanges = stateChanges;
+        clear();
+    }
+
+    /**
+     * Empties the queue without drawing anything
+     */
+    public void clear() {
+        // Let go of the meshes and such, but keep the matrices to reuse
+        Arrays.fill(meshes, 0, size, null);
+        Arrays.fill(shaders, 0, size, null);
+        Arrays.fill(textures, 0, size, null);
+        size = 0;
+        sorter.clear();
+    }
+
+    /**
+     * @return The number of queued draws
+     */
+    @Contract(pure = true)
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return How many shader and texture binds the last {@link #flush()} made
+     */
+    @Contract(pure = true)
+    public int getLastStateChanges() {
+        return lastStateChanges;
+    }
+
+    private void grow() {
+        int capacity = meshes.length * 2;
+        meshes = Arrays.copyOf(meshes, capacity);
+        shaders = Arrays.copyOf(shaders, capacity);
+        textures = Arrays.copyOf(textures, capacity);
+        transforms = Arrays.copyOf(transforms, capacity);
+    }
+
+    private static void checkPass(int pass) {
+        if (pass < 0 || pass >= MAX_PASSES) {
+            throw new IllegalArgumentException("Render pass out of range: " + pass);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package william.starsight.graphics.scene;
 
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4fc;
+
 import java.io.Serializable;
 
 public class SceneGraph implements Serializable { /*
@@ -8,6 +11,8 @@ public class SceneGraph implements Serializable { /*
                                                   */
 
     private SceneNode root;
+    private transient FrustumIntersection frustum; // Scratch for culling, made on first use
+    private int lastCulledCount;
 
     public SceneGraph(SceneNode root) {
         this.root = root;
@@ -21,7 +26,42 @@ public class SceneGraph implements Serializable { /*
         root.render(); // Also recursive
     }
 
+    /**
+     * Renders everything inside the camera's frustum, skipping whole subtrees whose bounds are outside it
+     *
+     * @param viewProjection The camera's projection matrix times its view matrix
+     */
+    public void render(Matrix4fc viewProjection) {
+        root.updateBounds(null); // Only walks the parts that moved
+        lastCulledCount = root.render(updateFrustum(viewProjection));
+    }
+
+    /**
+     * Queues everything inside the camera's frustum to be drawn sorted by state. Draw it with {@link RenderQueue#flush()}.
+     *
+     * @param queue The queue
+     * @param viewProjection The camera's projection matrix times its view matrix
+     */
+    public void submit(RenderQueue queue, Matrix4fc viewProjection) {
+        root.updateBounds(null);
+        lastCulledCount = root.submit(queue, updateFrustum(viewProjection), viewProjection);
+    }
+
+    /**
+     * @return How many nodes the last {@link #render(Matrix4fc)} or {@link #submit(RenderQueue, Matrix4fc)} skipped
+     */
+    public int getLastCulledCount() {
+        return lastCulledCount;
+    }
+
     public void cleanup() {
         root.cleanup();
     }
+
+    private FrustumIntersection updateFrustum(Matrix4fc viewProjection) {
+        if (frustum == null) {
+            frustum = new FrustumIntersection(); // Not serialized, so it's also missing after deserializing
+        }
+        return frustum.set(viewProjection);
+    }
 }
@@ -1,25 +1,60 @@
 package william.starsight.graphics.scene;
 
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
 import william.starsight.graphics.mesh.Mesh;
+import william.starsight.graphics.shader.ShaderProgram;
+import william.starsight.graphics.texture.Texture;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
 public class SceneNode implements Serializable, AutoCloseable {
-    private Matrix4f transform;
+    private Matrix4f transform = new Matrix4f();
     private Mesh content;
-    private List<SceneNode> children;
+    private final List<SceneNode> children = new ArrayList<>();
+    private SceneNode parent;
 
     private Runnable beforeRenderCallback;
     private Runnable afterRenderCallback;
 
+    // What submit() draws the content with. Nodes without a shader aren't submitted. GL handles, so not serialized.
+    private transient ShaderProgram shader;
+    private transient Texture texture;
+    private int renderPass;
+
+    // World space state, worked out lazily by updateBounds(). Bounds with min above max are empty, which is never culled.
+    private final Matrix4f worldTransform = new Matrix4f();
+    private final Vector3f contentMin = new Vector3f(), contentMax = new Vector3f();
+    private final Vector3f boundsMin = new Vector3f(), boundsMax = new Vector3f(); // Content and every child together
+    private boolean contentBounded; // Whether the content has bounds to cull by
+    private boolean subtreeBounded; // Whether everything in the subtree does
+    private boolean transformDirty = true;
+    private boolean boundsDirty = true; // Something in this subtree changed
+
     public SceneNode(Mesh content, Runnable beforeRenderCallback, Runnable afterRenderCallback) {
         this.content = content;
         this.beforeRenderCallback = beforeRenderCallback;
         this.afterRenderCallback = afterRenderCallback;
     }
 
+    /**
+     * Constructs a node that draws through a {@link RenderQueue} instead of callbacks
+     *
+     * @param content The mesh, or {@code null} for a node that only groups its children
+     * @param shader The shader to draw the mesh with
+     * @param texture The texture to bind, or {@code null} for none
+     */
+    public SceneNode(Mesh content, ShaderProgram shader, Texture texture) {
+        this.content = content;
+        this.shader = shader;
+        this.texture = texture;
+    }
+
     public Matrix4f getTransform(Matrix4f parentTransform) {
         if (parentTransform == null) {
             return transform;
@@ -27,15 +62,128 @@ public class SceneNode implements Serializable, AutoCloseable {
         return parentTransform.mul(transform);
     }
 
+    /**
+     * Renders this node and every child, without culling
+     */
     public void render() {
-        beforeRenderCallback.run();
-        content.render();
-        afterRenderCallback.run();
+        renderContent();
         children.forEach(SceneNode::render);
     }
 
+    /**
+     * Renders this node and its children, skipping whatever lies outside the frustum. The world bounds have to be up
+     * to date, see {@link #updateBounds(Matrix4fc)}.
+     *
+     * @param frustum The camera's frustum
+     * @return The number of nodes whose content was skipped
+     */
+    public int render(FrustumIntersection frustum) {
+        if (subtreeBounded && !frustum.testAab(boundsMin, boundsMax)) {
+            return countContent(); // The whole subtree is off screen
+        }
+
+        int culled = 0;
+        if (!contentBounded || frustum.testAab(contentMin, contentMax)) {
+            renderContent();
+        } else if (content != null) {
+            culled++;
+        }
+        for (SceneNode child : children) {
+            culled += child.render(frustum);
+        }
+        return culled;
+    }
+
+    /**
+     * Queues the content of this node and its children, skipping whatever lies outside the frustum. Unlike
+     * {@link #render(FrustumIntersection)} nothing is drawn yet and the callbacks are not run; the queue sorts the draws
+     * by state first. The world bounds have to be up to date, see {@link #updateBounds(Matrix4fc)}.
+     *
+     * @param queue The queue
+     * @param frustum The camera's frustum
+     * @param viewProjection The camera's projection matrix times its view matrix, to work out depths with
+     * @return The number of nodes whose content was skipped
+     */
+    public int submit(RenderQueue queue, FrustumIntersection frustum, Matrix4fc viewProjection) {
+        if (subtreeBounded && !frustum.testAab(boundsMin, boundsMax)) {
+            return countContent();
+        }
+
+        int culled = 0;
+        if (content != null && shader != null) {
+            if (!contentBounded) {
+                queue.submit(renderPass, shader, texture, content, worldTransform, 0.0f);
+            } else if (frustum.testAab(contentMin, contentMax)) {
+                // The clip space w of the centre is its distance along the view direction
+                float x = (contentMin.x + contentMax.x) * 0.5f;
+                float y = (contentMin.y + contentMax.y) * 0.5f;
+                float z = (contentMin.z + contentMax.z) * 0.5f;
+                float depth = viewProjection.m03() * x + viewProjection.m13() * y + viewProjection.m23() * z + viewProjection.m33();
+                queue.submit(renderPass, shader, texture, content, worldTransform, depth);
+            } else {
+                culled++;
+            }
+        }
+        for (SceneNode child : children) {
+            culled += child.submit(queue, frustum, viewProjection);
+        }
+        return culled;
+    }
+
+    public void setShader(ShaderProgram shader) {
+        this.shader = shader;
+    }
+
+    public ShaderProgram getShader() {
+        return shader;
+    }
+
+    public void setTexture(Texture texture) {
+        this.texture = texture;
+    }
+
+    public Texture getTexture() {
+        return texture;
+    }
+
+    /**
+     * @param renderPass The pass the content is drawn in, from 0 to {@link RenderQueue#MAX_PASSES} - 1
+     */
+    public void setRenderPass(int renderPass) {
+        this.renderPass = renderPass;
+    }
+
+    public int getRenderPass() {
+        return renderPass;
+    }
+
+    /**
+     * Brings the world transforms and bounds of this subtree up to date, only visiting the parts that changed
+     *
+     * @param parentWorldTransform The parent's world transform, or {@code null} at the root
+     */
+    public void updateBounds(Matrix4fc parentWorldTransform) {
+        updateBounds(parentWorldTransform, false);
+    }
+
+    /**
+     * @return The minimum corner of the world space bounds of this node and everything under it
+     */
+    public Vector3fc getBoundsMin() {
+        return boundsMin;
+    }
+
+    /**
+     * @return The maximum corner of the world space bounds of this node and everything under it
+     */
+    public Vector3fc getBoundsMax() {
+        return boundsMax;
+    }
+
     public void setTransform(Matrix4f transform) {
         this.transform = new Matrix4f(transform);
+        transformDirty = true;
+        invalidateBounds();
     }
 
     public List<SceneNode> getChildren() {
@@ -44,27 +192,50 @@ public class SceneNode implements Serializable, AutoCloseable {
 
     public void addChild(SceneNode child) {
         children.add(child);
+        child.parent = this;
+        child.transformDirty = true; // Its world transform now depends on a new parent
+        invalidateBounds();
     }
 
     public boolean removeChild(SceneNode child) {
-        return children.remove(child); // Returns true if node was successfully removed
+        boolean removed = children.remove(child); // Returns true if node was successfully removed
+        if (removed) {
+            child.parent = null;
+            child.transformDirty = true;
+            invalidateBounds();
+        }
+        return removed;
     }
 
     public void initialize() {
-        content.initialize();
+        if (content != null) {
+            content.initialize();
+        }
         children.forEach(SceneNode::initialize);
     }
 
     public void setContent(Mesh mesh) {
         this.content = mesh;
+        invalidateBounds();
     }
 
     public Mesh getContent() {
         return content;
     }
 
+    /**
+     * Marks the bounds of this node and its ancestors as stale, for when the content's bounds change in place
+     */
+    public void invalidateBounds() {
+        for (SceneNode node = this; node != null && !node.boundsDirty; node = node.parent) {
+            node.boundsDirty = true;
+        }
+    }
+
     public void cleanup() {
-        content.cleanup();
+        if (content != null) {
+            content.cleanup();
+        }
         children.forEach(SceneNode::cleanup);
     }
 
@@ -72,4 +243,65 @@ public class SceneNode implements Serializable, AutoCloseable {
     public void close() {
         cleanup();
     }
+
+    private void renderContent() {
+        if (beforeRenderCallback != null) {
+            beforeRenderCallback.run();
+        }
+        if (content != null) {
+            content.render();
+        }
+        if (afterRenderCallback != null) {
+            afterRenderCallback.run();
+        }
+    }
+
+    private int countContent() {
+        int count = content != null ? 1 : 0;
+        for (SceneNode child : children) {
+            count += child.countContent();
+        }
+        return count;
+    }
+
+    private void updateBounds(Matrix4fc parentWorldTransform, boolean parentMoved) {
+        boolean moved = parentMoved || transformDirty;
+        if (!moved && !boundsDirty) {
+            return; // Nothing under here changed
+        }
+        if (moved) {
+            if (parentWorldTransform == null) {
+                worldTransform.set(transform);
+            } else {
+                parentWorldTransform.mul(transform, worldTransform);
+            }
+            transformDirty = false;
+        }
+
+        contentBounded = content != null && content.hasBounds();
+        if (contentBounded) {
+            Vector3fc min = content.getBoundsMin();
+            Vector3fc max = content.getBoundsMax();
+            worldTransform.transformAab(min.x(), min.y(), min.z(), max.x(), max.y(), max.z(), contentMin, contentMax);
+        }
+        // A node with content but no bounds can't be culled, and neither can anything above it
+        subtreeBounded = content == null || contentBounded;
+        boundsMin.set(Float.POSITIVE_INFINITY);
+        boundsMax.set(Float.NEGATIVE_INFINITY);
+        if (contentBounded) {
+            boundsMin.set(contentMin);
+            boundsMax.set(contentMax);
+        }
+
+        for (SceneNode child : children) {
+            child.updateBounds(worldTransform, moved);
+            if (!child.subtreeBounded) {
+                subtreeBounded = false;
+            } else if (child.boundsMin.x <= child.boundsMax.x) {
+                boundsMin.min(child.boundsMin);
+                boundsMax.max(child.boundsMax);
+            }
+        }
+        boundsDirty = false;
+    }
 }
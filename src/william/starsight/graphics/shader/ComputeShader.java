@@ -0,0 +1,118 @@
+package william.starsight.graphics.shader;
+
+import org.intellij.lang.annotations.Language;
+import org.lwjgl.opengl.GL;
+import william.starsight.Starsight;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * A program made of a single compute shader, for work done on the GPU outside of drawing
+ *
+ * @author William
+ */
+public class ComputeShader implements AutoCloseable {
+    private final String source;
+
+    private int id;
+
+    /**
+     * Constructs a new ComputeShader
+     *
+     * @param source The compute shader code
+     */
+    public ComputeShader(@Language("Glsl") String source) {
+        this.source = source;
+        this.id = 0;
+    }
+
+    /**
+     * Compiles and links the shader
+     *
+     * @throws ShaderCompilationException If the shader cannot compile
+     * @throws ShaderLinkingException If the shader cannot link
+     *
+     * @apiNote DO NOT RUN BEFORE {@link GL#createCapabilities()} OR THIS WILL CRASH
+     */
+    public void compileAndLink() throws ShaderCompilationException, ShaderLinkingException {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+
+        if (id != 0) {
+            Starsight.LOG.warning("Attempted double compilation");
+            return;
+        }
+
+        int shader = glCreateShader(GL_COMPUTE_SHADER);
+        glShaderSource(shader, source);
+        glCompileShader(shader);
+        if (glGetShaderi(shader, GL_COMPILE_STATUS) == GL_FALSE) {
+            String error = glGetShaderInfoLog(shader, Starsight.MAX_OPENGL_ERROR_LENGTH);
+            glDeleteShader(shader);
+            throw new ShaderCompilationException("Shader compilation failed:\nCompute shader:\n" + error + "\n");
+        }
+
+        id = glCreateProgram();
+        glAttachShader(id, shader);
+        glLinkProgram(id);
+        glDeleteShader(shader);
+
+        if (glGetProgrami(id, GL_LINK_STATUS) == GL_FALSE) {
+            String log = glGetProgramInfoLog(id, Starsight.MAX_OPENGL_ERROR_LENGTH);
+            GLStateCache.deleteProgram(id);
+            id = 0; // So it can be compiled again, and nothing binds the broken program
+            throw new ShaderLinkingException("Shader failed to link: " + log);
+        }
+    }
+
+    /**
+     * Binds the shader for use
+     */
+    public void bind() {
+        GLStateCache.useProgram(id);
+    }
+
+    /**
+     * Runs the bound shader
+     *
+     * @param groupsX The number of work groups along x
+     * @param groupsY The number of work groups along y
+     * @param groupsZ The number of work groups along z
+     */
+    public void dispatch(int groupsX, int groupsY, int groupsZ) {
+        glDispatchCompute(groupsX, groupsY, groupsZ);
+    }
+
+    /**
+     * @param uniformName The name of the uniform
+     * @return Its location, or -1 if it isn't an active variable in the shader code
+     */
+    public int getUniformLocation(String uniformName) {
+        return glGetUniformLocation(getId(), uniformName);
+    }
+
+    /**
+     * Cleans up the shader
+     */
+    public void cleanup() {
+        if (id != 0) {
+            GLStateCache.deleteProgram(id);
+            id = 0;
+        }
+    }
+
+    public int getId() {
+        if (id == 0) {
+            throw new IllegalStateException("Shader program not yet compiled/linked");
+        }
+        return id;
+    }
+
+    @Override
+    public void close() {
+        cleanup();
+    }
+}
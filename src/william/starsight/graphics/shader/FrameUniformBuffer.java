@@ -0,0 +1,169 @@
+package william.starsight.graphics.shader;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3fc;
+import org.lwjgl.system.MemoryStack;
+import william.starsight.graphics.GraphicsUtils;
+import william.starsight.util.Camera;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * A uniform buffer of what every shader wants to know once per frame: the camera's matrices and position, the time and
+ * the viewport size. It is written once per frame and bound to {@link #BINDING}, and every {@link ShaderProgram} that
+ * declares the block gets pointed at that binding when it links, so no shader needs these set one by one.
+ * <p>
+ * Shaders declare the block as in {@link #GLSL_BLOCK}:
+ * <pre>
+ * layout(std140, binding = 0) uniform Frame {
+ *     mat4 view;
+ *     mat4 projection;
+ *     mat4 viewProjection;
+ *     vec4 cameraPosition; // w is unused
+ *     vec2 viewportSize;
+ *     float time;
+ * };
+ * </pre>
+ * Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public class FrameUniformBuffer {
+    /**
+     * The uniform buffer binding point the block is bound to
+     */
+    public static final int BINDING = 0;
+
+    /**
+     * The name of the block in GLSL
+     */
+    public static final String BLOCK_NAME = "Frame";
+
+    /**
+     * The declaration of the block, to paste into shaders
+     */
+    public static final String GLSL_BLOCK = """
+            layout(std140, binding = 0) uniform Frame {
+                mat4 view;
+                mat4 projection;
+                mat4 viewProjection;
+                vec4 cameraPosition;
+                vec2 viewportSize;
+                float time;
+            };
+            """;
+
+    // std140 offsets, in bytes
+    private static final int VIEW_OFFSET = 0;
+    private static final int PROJECTION_OFFSET = 64;
+    private static final int VIEW_PROJECTION_OFFSET = 128;
+    private static final int CAMERA_POSITION_OFFSET = 192;
+    private static final int VIEWPORT_SIZE_OFFSET = 208;
+    private static final int TIME_OFFSET = 216;
+    private static final int SIZE = 224; // Rounded up to a vec4
+
+    private final Matrix4f view = new Matrix4f();
+    private final Matrix4f projection = new Matrix4f();
+    private final Matrix4f viewProjection = new Matrix4f();
+
+    private int UBO;
+
+    /**
+     * Creates the buffer and binds it to {@link #BINDING}
+     */
+    public void initialize() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        UBO = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, UBO);
+        glBufferData(GL_UNIFORM_BUFFER, SIZE, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, BINDING, UBO);
+    }
+
+    /**
+     * Writes this frame's values from a camera
+     *
+     * @param camera The camera
+     * @param projection The projection matrix
+     * @param time The time, in seconds
+     * @param viewportWidth The width of the viewport, in pixels
+     * @param viewportHeight The height of the viewport, in pixels
+     */
+    public void update(@NotNull Camera camera, @NotNull Matrix4fc projection, float time, int viewportWidth, int viewportHeight) {
+        camera.getViewMatrix(view);
+        update(view, projection, camera.getPosition(), time, viewportWidth, viewportHeight);
+    }
+
+    /**
+     * Writes this frame's values
+     *
+     * @param view The view matrix
+     * @param projection The projection matrix
+     * @param cameraPosition Where the camera is
+     * @param time The time, in seconds
+     * @param viewportWidth The width of the viewport, in pixels
+     * @param viewportHeight The height of the viewport, in pixels
+     */
+    public void update(@NotNull Matrix4fc view, @NotNull Matrix4fc projection, @NotNull Vector3fc cameraPosition, float time, int viewportWidth, int viewportHeight) {
+        this.view.set(view);
+        this.projection.set(projection);
+        projection.mul(view, viewProjection);
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            ByteBuffer data = stack.calloc(SIZE);
+            this.view.get(VIEW_OFFSET, data);
+            this.projection.get(PROJECTION_OFFSET, data);
+            viewProjection.get(VIEW_PROJECTION_OFFSET, data);
+            data.putFloat(CAMERA_POSITION_OFFSET, cameraPosition.x())
+                    .putFloat(CAMERA_POSITION_OFFSET + 4, cameraPosition.y())
+                    .putFloat(CAMERA_POSITION_OFFSET + 8, cameraPosition.z())
+                    .putFloat(VIEWPORT_SIZE_OFFSET, viewportWidth)
+                    .putFloat(VIEWPORT_SIZE_OFFSET + 4, viewportHeight)
+                    .putFloat(TIME_OFFSET, time);
+
+            glBindBuffer(GL_UNIFORM_BUFFER, UBO);
+            glBufferData(GL_UNIFORM_BUFFER, SIZE, GL_DYNAMIC_DRAW); // Orphan last frame's copy instead of waiting on it
+            glBufferSubData(GL_UNIFORM_BUFFER, 0L, data);
+            glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        }
+        glBindBufferBase(GL_UNIFORM_BUFFER, BINDING, UBO); // In case something else took the binding since
+    }
+
+    /**
+     * @return The view matrix from the last update
+     */
+    @Contract(pure = true)
+    public @NotNull Matrix4fc getView() {
+        return view;
+    }
+
+    /**
+     * @return The projection matrix from the last update
+     */
+    @Contract(pure = true)
+    public @NotNull Matrix4fc getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return The projection matrix times the view matrix from the last update, for culling and such on the CPU
+     */
+    @Contract(pure = true)
+    public @NotNull Matrix4fc getViewProjection() {
+        return viewProjection;
+    }
+
+    public void cleanup() {
+        if (UBO != 0) {
+            glDeleteBuffers(UBO);
+            UBO = 0;
+        }
+    }
+}
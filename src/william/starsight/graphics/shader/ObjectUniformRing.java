@@ -0,0 +1,275 @@
+package william.starsight.graphics.shader;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Matrix3f;
+import org.joml.Matrix4fc;
+import org.joml.Vector4fc;
+import william.starsight.graphics.GraphicsUtils;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * A ring of uniform buffer space for per-object data, the model matrix, its normal matrix and a tint, so a frame's worth
+ * of objects goes up in one mapped write instead of a few uniform calls per object.
+ * <p>
+ * Each frame goes {@link #begin(int)}, {@link #push} once per object, {@link #end()}, and then {@link #bind(int)} before
+ * each object's draw, which points {@link #BINDING} at that object's slice with {@code glBindBufferRange}. Like
+ * {@link william.starsight.graphics.mesh.DynamicMesh}, the buffer is split into one region per frame in flight, written
+ * unsynchronized, with a fence on each region so it's never written while the GPU still reads it.
+ * <p>
+ * Shaders declare the block as in {@link #GLSL_BLOCK}, and {@link ShaderProgram} binds it when it links:
+ * <pre>
+ * layout(std140, binding = 1) uniform Object {
+ *     mat4 model;
+ *     mat3 normalMatrix;
+ *     vec4 tint;
+ * };
+ * </pre>
+ * Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public class ObjectUniformRing {
+    /**
+     * The uniform buffer binding point the block is bound to
+     */
+    public static final int BINDING = 1;
+
+    /**
+     * The name of the block in GLSL
+     */
+    public static final String BLOCK_NAME = "Object";
+
+    /**
+     * The declaration of the block, to paste into shaders
+     */
+    public static final String GLSL_BLOCK = """
+            layout(std140, binding = 1) uniform Object {
+                mat4 model;
+                mat3 normalMatrix;
+                vec4 tint;
+            };
+            """;
+
+    /**
+     * The default number of regions, enough for the GPU to be a couple of frames behind
+     */
+    public static final int DEFAULT_REGIONS = 3;
+
+    // std140 offsets, in bytes. A mat3 takes three vec4 columns.
+    private static final int MODEL_OFFSET = 0;
+    private static final int NORMAL_OFFSET = 64;
+    private static final int TINT_OFFSET = 112;
+    private static final int BLOCK_SIZE = 128;
+
+    private static final long FENCE_TIMEOUT_NANOS = 1_000_000_000L;
+
+    private final int regions;
+    private final long[] fences;
+    private final Matrix3f normal = new Matrix3f();
+
+    private int UBO;
+    private int stride; // BLOCK_SIZE rounded up to the offset alignment
+    private int maxObjects; // Per region
+    private int region = -1;
+    private ByteBuffer mapped;
+    private int count;
+
+    /**
+     * Constructs a ring with {@link #DEFAULT_REGIONS}
+     *
+     * @param maxObjects How many objects a frame is expected to draw. It grows if a frame needs more.
+     */
+    public ObjectUniformRing(int maxObjects) {
+        this(maxObjects, DEFAULT_REGIONS);
+    }
+
+    /**
+     * Constructs a ring
+     *
+     * @param maxObjects How many objects a frame is expected to draw. It grows if a frame needs more.
+     * @param regions How many frames of objects the ring holds
+     */
+    public ObjectUniformRing(int maxObjects, int regions) {
+        if (maxObjects <= 0 || regions <= 0) {
+            throw new IllegalArgumentException("An object ring needs room for at least one object and one region!");
+        }
+        this.maxObjects = maxObjects;
+        this.regions = regions;
+        this.fences = new long[regions];
+    }
+
+    public void initialize() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        int alignment = glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+        stride = (BLOCK_SIZE + alignment - 1) / alignment * alignment;
+
+        UBO = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, UBO);
+        glBufferData(GL_UNIFORM_BUFFER, (long) stride * maxObjects * regions, GL_STREAM_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    /**
+     * Moves on to the next region and maps it, waiting for the GPU only if it's still reading that region
+     *
+     * @param objectCount How many objects will be pushed this frame
+     */
+    public void begin(int objectCount) {
+        if (mapped != null) {
+            throw new IllegalStateException("Already writing, call end() first!");
+        }
+        // Last frame's draws are all issued by now, so this fence covers them
+        if (region >= 0) {
+            if (fences[region] != 0L) {
+                glDeleteSync(fences[region]);
+            }
+            fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+        if (objectCount > maxObjects) {
+            grow(objectCount);
+        }
+
+        region = (region + 1) % regions;
+        waitForRegion(region);
+
+        long regionSize = (long) stride * maxObjects;
+        glBindBuffer(GL_UNIFORM_BUFFER, UBO);
+        mapped = glMapBufferRange(GL_UNIFORM_BUFFER, region * regionSize, regionSize,
+                GL_MAP_WRITE_BIT | GL_MAP_UNSYNCHRONIZED_BIT | GL_MAP_INVALIDATE_RANGE_BIT);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        if (mapped == null) {
+            throw new IllegalStateException("Could not map the object ring's buffer!");
+        }
+        count = 0;
+    }
+
+    /**
+     * Writes an object's data
+     *
+     * @param model The model matrix. The normal matrix is worked out from it.
+     * @param tint The tint
+     * @return The object's index, to {@link #bind(int)} once the frame's objects are written
+     */
+    public int push(@NotNull Matrix4fc model, @NotNull Vector4fc tint) {
+        return push(model, tint.x(), tint.y(), tint.z(), tint.w());
+    }
+
+    /**
+     * Writes an object's data
+     *
+     * @param model The model matrix. The normal matrix is worked out from it.
+     * @param red The tint's red
+     * @param green The tint's green
+     * @param blue The tint's blue
+     * @param alpha The tint's alpha
+     * @return The object's index, to {@link #bind(int)} once the frame's objects are written
+     */
+    public int push(@NotNull Matrix4fc model, float red, float green, float blue, float alpha) {
+        if (mapped == null) {
+            throw new IllegalStateException("Not writing, call begin() first!");
+        }
+        if (count == maxObjects) {
+            throw new IllegalStateException("More objects pushed than begin() was told about!");
+        }
+        int offset = count * stride;
+        model.get(offset + MODEL_OFFSET, mapped);
+        model.normal(normal).get3x4(offset + NORMAL_OFFSET, mapped);
+        mapped.putFloat(offset + TINT_OFFSET, red)
+                .putFloat(offset + TINT_OFFSET + 4, green)
+                .putFloat(offset + TINT_OFFSET + 8, blue)
+                .putFloat(offset + TINT_OFFSET + 12, alpha);
+        return count++;
+    }
+
+    /**
+     * Unmaps the region, after which the objects can be bound
+     *
+     * @return Whether the data survived. If not, which can happen when the display mode changes, nothing was written
+     * this frame and there are no objects to bind.
+     */
+    public boolean end() {
+        if (mapped == null) {
+            throw new IllegalStateException("Not writing, call begin() first!");
+        }
+        mapped = null;
+        glBindBuffer(GL_UNIFORM_BUFFER, UBO);
+        boolean intact = glUnmapBuffer(GL_UNIFORM_BUFFER);
+        if (!intact) {
+            count = 0; // The contents got corrupted
+        }
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        return intact;
+    }
+
+    /**
+     * Points {@link #BINDING} at an object's data for the next draw
+     *
+     * @param index The index {@link #push} returned this frame
+     */
+    public void bind(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("No object " + index + " this frame");
+        }
+        long offset = ((long) region * maxObjects + index) * stride;
+        glBindBufferRange(GL_UNIFORM_BUFFER, BINDING, UBO, offset, BLOCK_SIZE);
+    }
+
+    /**
+     * @return How many objects a frame can push before the ring grows
+     */
+    @Contract(pure = true)
+    public int getMaxObjects() {
+        return maxObjects;
+    }
+
+    public void cleanup() {
+        if (mapped != null) {
+            glBindBuffer(GL_UNIFORM_BUFFER, UBO);
+            glUnmapBuffer(GL_UNIFORM_BUFFER);
+            glBindBuffer(GL_UNIFORM_BUFFER, 0);
+            mapped = null;
+        }
+        deleteFences();
+        if (UBO != 0) {
+            glDeleteBuffers(UBO);
+            UBO = 0;
+        }
+    }
+
+    /// Reallocates for more objects. The new storage has nothing in flight, so the old fences don't matter anymore.
+    private void grow(int objectCount) {
+        deleteFences();
+        maxObjects = Math.max(objectCount, maxObjects + maxObjects / 2);
+        glBindBuffer(GL_UNIFORM_BUFFER, UBO);
+        glBufferData(GL_UNIFORM_BUFFER, (long) stride * maxObjects * regions, GL_STREAM_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    private void waitForRegion(int region) {
+        long fence = fences[region];
+        if (fence == 0L) {
+            return;
+        }
+        int result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+        if (result == GL_TIMEOUT_EXPIRED || result == GL_WAIT_FAILED) {
+            throw new IllegalStateException("Timed out waiting for the GPU to finish with an object ring region!");
+        }
+        glDeleteSync(fence);
+        fences[region] = 0L;
+    }
+
+    private void deleteFences() {
+        for (int i = 0; i < regions; i++) {
+            if (fences[i] != 0L) {
+                glDeleteSync(fences[i]);
+                fences[i] = 0L;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package william.starsight.graphics.shader;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import william.starsight.Starsight;
+import william.starsight.graphics.GraphicsUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Keeps linked programs on disk as driver binaries, so the next launch can skip compiling GLSL altogether. Hand it to
+ * {@link ShaderProgram#compileAndLink(ProgramBinaryCache)} or {@link ShaderVariants#setBinaryCache(ProgramBinaryCache)}.
+ * <p>
+ * A binary is found by a hash of the sources together with the GPU's vendor, renderer and driver version, as a binary is
+ * only good for the exact driver that made it. The driver may still turn a binary down, after an update say, in which
+ * case the program is compiled from source as usual and the binary replaced.
+ * <p>
+ * Nothing here is fatal. If the driver has no binary formats or the directory can't be written, the cache just stays
+ * empty and programs are compiled every time.
+ *
+ * @author William
+ */
+public class ProgramBinaryCache {
+    private static final int MAGIC = 0x53535042; // SSPB
+    private static final String EXTENSION = ".bin";
+
+    private final Path directory;
+    private String driver; // Vendor, renderer and version, found once GL is up
+    private boolean supported;
+
+    /**
+     * Constructs a cache
+     *
+     * @param directory The directory to keep the binaries in, which is created if it doesn't exist
+     */
+    public ProgramBinaryCache(@NotNull Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return Whether the driver can hand out program binaries at all
+     */
+    public boolean isSupported() {
+        initialize();
+        return supported;
+    }
+
+    /**
+     * Works out the key a program's binary is stored under
+     *
+     * @param sources The preprocessed sources of every stage
+     * @return The key, or {@code null} if binaries aren't supported
+     */
+    @Nullable String key(@NotNull String... sources) {
+        if (!isSupported()) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(driver.getBytes(StandardCharsets.UTF_8));
+            for (String source : sources) {
+                digest.update((byte) 0); // So moving text from one stage to the next changes the hash
+                digest.update(source.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every JVM has SHA-256", e);
+        }
+    }
+
+    /**
+     * Loads a cached binary into a fresh program. A binary the driver turns down is deleted.
+     *
+     * @param program The program, which has nothing attached
+     * @param key The key from {@link #key(String...)}
+     * @return Whether the program is now linked
+     */
+    boolean load(int program, @NotNull String key) {
+        Path file = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            Starsight.LOG.warning("Could not read program binary " + file + ": " + e.getMessage());
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        if (bytes.length <= 2 * Integer.BYTES || header.getInt() != MAGIC) {
+            delete(file);
+            return false;
+        }
+        int format = header.getInt();
+
+        ByteBuffer binary = MemoryUtil.memAlloc(bytes.length - 2 * Integer.BYTES);
+        try {
+            binary.put(bytes, 2 * Integer.BYTES, binary.remaining()).flip();
+            glProgramBinary(program, format, binary);
+        } finally {
+            MemoryUtil.memFree(binary);
+        }
+
+        if (glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE) {
+            Starsight.LOG.fine("The driver turned down program binary " + key + ", compiling from source");
+            delete(file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Saves a linked program's binary. The program should have been linked with
+     * {@code GL_PROGRAM_BINARY_RETRIEVABLE_HINT} set.
+     *
+     * @param program The program
+     * @param key The key from {@link #key(String...)}
+     */
+    void save(int program, @NotNull String key) {
+        int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return;
+        }
+
+        byte[] bytes;
+        ByteBuffer binary = MemoryUtil.memAlloc(length);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer writtenLength = stack.mallocInt(1);
+            IntBuffer format = stack.mallocInt(1);
+            glGetProgramBinary(program, writtenLength, format, binary);
+            bytes = new byte[2 * Integer.BYTES + writtenLength.get(0)]; // The driver may write less than it asked room for
+            ByteBuffer.wrap(bytes).putInt(MAGIC).putInt(format.get(0));
+            binary.get(0, bytes, 2 * Integer.BYTES, writtenLength.get(0));
+        } finally {
+            MemoryUtil.memFree(binary);
+        }
+
+        // Written next to it and moved into place, so a crash or a second launch never sees half a file
+        Path file = directory.resolve(key + EXTENSION);
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, bytes);
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Starsight.LOG.warning("Could not write program binary " + file + ": " + e.getMessage());
+            if (temporary != null) {
+                delete(temporary); // clear() only looks for finished binaries, so nothing else would
+            }
+        }
+    }
+
+    /**
+     * Deletes every cached binary
+     */
+    public void clear() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                delete(file);
+            }
+        } catch (IOException e) {
+            Starsight.LOG.warning("Could not clear program binaries in " + directory + ": " + e.getMessage());
+        }
+    }
+
+    @Contract(pure = true)
+    public @NotNull Path getDirectory() {
+        return directory;
+    }
+
+    private void initialize() {
+        if (driver != null) {
+            return;
+        }
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        driver = glGetString(GL_VENDOR) + "\n" + glGetString(GL_RENDERER) + "\n" + glGetString(GL_VERSION);
+        supported = glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+        if (!supported) {
+            Starsight.LOG.fine("The driver has no program binary formats, so programs won't be cached");
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            Starsight.LOG.warning("Could not delete program binary " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package william.starsight.graphics.shader;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import william.starsight.Starsight;
+import william.starsight.graphics.GraphicsUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.lwjgl.opengl.ARBParallelShaderCompile.glMaxShaderCompilerThreadsARB;
+import static org.lwjgl.opengl.KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR;
+
+/**
+ * Compiles a batch of programs without stalling on each one. Asking a program whether it compiled makes the driver
+ * finish it right then, so {@link ShaderProgram#compileAndLink()} compiles programs one at a time. This hands every
+ * program to the driver first and asks later, so they compile side by side and a loading screen can keep drawing.
+ * <pre>
+ * ShaderCompiler compiler = new ShaderCompiler();
+ * CompletableFuture&lt;ShaderProgram&gt; terrain = compiler.submit(terrainProgram);
+ * // ... each frame of the loading screen
+ * compiler.poll(2_000_000L);
+ * </pre>
+ * With {@code KHR_parallel_shader_compile} (or the ARB version), the driver compiles on its own threads and
+ * {@link #poll(long)} only finishes the programs that are done. Without it, the driver may still compile in the
+ * background, but there's no asking whether it has, so {@link #poll(long)} finishes programs in order until its time
+ * budget runs out.
+ * <p>
+ * The futures are completed from {@link #poll(long)} and {@link #finishAll()}, so their callbacks run on the render
+ * thread, and everything here must be called from it.
+ *
+ * @author William
+ */
+public class ShaderCompiler {
+    /**
+     * Lets the driver pick how many threads to compile with
+     */
+    private static final int DRIVER_CHOOSES_THREADS = 0xFFFFFFFF;
+
+    private record Pending(ShaderProgram program, CompletableFuture<ShaderProgram> future) {}
+
+    /// A program the driver is done with, whose future hasn't been completed yet
+    private record Finished(Pending pending, @Nullable Exception failure) {
+        void complete() {
+            if (failure == null) {
+                pending.future().complete(pending.program());
+            } else {
+                pending.future().completeExceptionally(failure);
+            }
+        }
+    }
+
+    private final List<Pending> pending = new ArrayList<>();
+    private final boolean parallel;
+
+    /**
+     * Constructs a compiler, turning on the driver's compiler threads if it has them
+     */
+    public ShaderCompiler() {
+        if (!GraphicsUtils.isGLInitialized()) {
+            throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
+        }
+        GLCapabilities capabilities = GL.getCapabilities();
+        if (capabilities.GL_KHR_parallel_shader_compile) {
+            glMaxShaderCompilerThreadsKHR(DRIVER_CHOOSES_THREADS);
+            parallel = true;
+        } else if (capabilities.GL_ARB_parallel_shader_compile) {
+            glMaxShaderCompilerThreadsARB(DRIVER_CHOOSES_THREADS);
+            parallel = true;
+        } else {
+            Starsight.LOG.fine("No parallel shader compile extension, programs will be finished in order");
+            parallel = false;
+        }
+    }
+
+    /**
+     * Starts compiling a program
+     *
+     * @param program The program, not compiled yet
+     * @return A future that completes with the program once it's linked, or fails with a
+     * {@link ShaderCompilationException} or {@link ShaderLinkingException}
+     */
+    public @NotNull CompletableFuture<ShaderProgram> submit(@NotNull ShaderProgram program) {
+        return submit(program, null);
+    }
+
+    /**
+     * Starts compiling a program, or loads it from a binary cached by an earlier run
+     *
+     * @param program The program, not compiled yet
+     * @param cache The cache to load from and save to, or {@code null} to always compile
+     * @return A future that completes with the program once it's linked, or fails with a
+     * {@link ShaderCompilationException} or {@link ShaderLinkingException}
+     */
+    public @NotNull CompletableFuture<ShaderProgram> submit(@NotNull ShaderProgram program, @Nullable ProgramBinaryCache cache) {
+        if (!program.submit(cache)) {
+            return CompletableFuture.completedFuture(program); // Came straight out of the cache
+        }
+        CompletableFuture<ShaderProgram> future = new CompletableFuture<>();
+        pending.add(new Pending(program, future));
+        return future;
+    }
+
+    /**
+     * Finishes the programs that are done, for calling once a frame
+     *
+     * @param budgetNanos Roughly how long to spend. Without the extension, this is how long to wait on the driver for.
+     *                    At least one program is finished each call, so a tiny budget still makes progress.
+     * @return How many programs were finished
+     */
+    public int poll(long budgetNanos) {
+        long start = System.nanoTime();
+        List<Finished> finished = new ArrayList<>();
+        for (Iterator<Pending> iterator = pending.iterator(); iterator.hasNext(); ) {
+            if (!finished.isEmpty() && System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+            Pending next = iterator.next();
+            if (!next.program().isReady(parallel)) {
+                continue;
+            }
+            iterator.remove();
+            finished.add(finishProgram(next));
+        }
+        // Only now, as the callbacks may well submit or finish more programs
+        finished.forEach(Finished::complete);
+        return finished.size();
+    }
+
+    /**
+     * Finishes one program now, waiting for the driver if it has to. Does nothing if the program isn't waiting here.
+     *
+     * @param program The program
+     */
+    public void finish(@NotNull ShaderProgram program) {
+        for (int i = 0; i < pending.size(); i++) {
+            if (pending.get(i).program() == program) {
+                complete(pending.remove(i)); // Out of the list first, so its callbacks are free to change it
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finishes every program, waiting for the driver as long as it takes
+     */
+    public void finishAll() {
+        while (!pending.isEmpty()) {
+            complete(pending.removeFirst()); // Also finishes anything the callbacks submit
+        }
+    }
+
+    /**
+     * @return How many programs haven't been finished yet
+     */
+    @Contract(pure = true)
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return Whether the driver compiles on its own threads and can be asked when it's done
+     */
+    @Contract(pure = true)
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    private static void complete(Pending pending) {
+        finishProgram(pending).complete();
+    }
+
+    private static Finished finishProgram(Pending pending) {
+        try {
+            pending.program().finish();
+            return new Finished(pending, null);
+        } catch (ShaderCompilationException | ShaderLinkingException e) {
+            return new Finished(pending, e);
+        }
+    }
+}
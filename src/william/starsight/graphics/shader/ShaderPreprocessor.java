@@ -0,0 +1,211 @@
+package william.starsight.graphics.shader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Runs the parts of preprocessing GLSL doesn't do itself, before the source reaches the driver:
+ * <ul>
+ *     <li>{@code #include "path"} pastes in another file. Paths starting with {@code /} are from the root of the
+ *     resources, the rest are relative to the including file. Each file is only pasted in once, like with
+ *     {@code #pragma once}, and include cycles are an error.</li>
+ *     <li>Defines are injected right after the {@code #version} line, so the shader can {@code #ifdef} away the code a
+ *     variant doesn't need. See {@link ShaderVariants}.</li>
+ * </ul>
+ *
+ * @author William
+ */
+public class ShaderPreprocessor {
+    private static final String INCLUDE = "#include";
+
+    private final Function<String, String> loader;
+
+    /**
+     * Constructs a preprocessor that loads includes from the resources
+     */
+    public ShaderPreprocessor() {
+        this(ShaderPreprocessor::loadResource);
+    }
+
+    /**
+     * Constructs a preprocessor that loads includes some other way
+     *
+     * @param loader Gives the source of a file from its absolute path, or {@code null} if there is no such file
+     */
+    public ShaderPreprocessor(@NotNull Function<String, String> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Preprocesses a source file loaded through the loader
+     *
+     * @param path The absolute path of the file
+     * @param defines The defines to inject, name to value. An empty value defines the name with no value.
+     * @return The source, ready to compile
+     * @throws ShaderCompilationException If a file can't be found or includes itself
+     */
+    public @NotNull String processFile(@NotNull String path, @NotNull Map<String, String> defines) throws ShaderCompilationException {
+        String source = loader.apply(path);
+        if (source == null) {
+            throw new ShaderCompilationException("Shader source not found: " + path);
+        }
+        return process(source, path, defines);
+    }
+
+    /**
+     * Preprocesses source that's already loaded
+     *
+     * @param source The source
+     * @param path The absolute path the source came from, which relative includes are resolved against, or
+     *             {@code null} to resolve them from the root
+     * @param defines The defines to inject, name to value. An empty value defines the name with no value.
+     * @return The source, ready to compile
+     * @throws ShaderCompilationException If a file can't be found or includes itself
+     */
+    public @NotNull String process(@NotNull String source, @Nullable String path, @NotNull Map<String, String> defines) throws ShaderCompilationException {
+        StringBuilder out = new StringBuilder(source.length() + 256);
+        String name = path == null ? "/" : path;
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(name);
+        expand(source, name, out, new HashSet<>(Set.of(name)), stack);
+        return injectDefines(out, defines);
+    }
+
+    private void expand(String source, String path, StringBuilder out, Set<String> included, Deque<String> stack) throws ShaderCompilationException {
+        for (String line : source.split("\\R", -1)) {
+            String trimmed = line.strip();
+            if (!trimmed.startsWith(INCLUDE)) {
+                out.append(line).append('\n');
+                continue;
+            }
+
+            String target = parseIncludePath(trimmed, path);
+            String resolved = resolve(path, target);
+            if (stack.contains(resolved)) {
+                throw new ShaderCompilationException("Include cycle: " + resolved + " <- " + String.join(" <- ", stack));
+            }
+            if (!included.add(resolved)) {
+                continue; // Already pasted in
+            }
+            String includedSource = loader.apply(resolved);
+            if (includedSource == null) {
+                throw new ShaderCompilationException("Could not find " + resolved + ", included from " + path);
+            }
+            stack.push(resolved);
+            expand(includedSource, resolved, out, included, stack);
+            stack.pop();
+        }
+    }
+
+    /// #version has to come first, so the defines go right after it
+    private static String injectDefines(StringBuilder source, Map<String, String> defines) {
+        if (defines.isEmpty()) {
+            return source.toString();
+        }
+        StringBuilder block = new StringBuilder();
+        for (Map.Entry<String, String> define : defines.entrySet()) {
+            block.append("#define ").append(define.getKey());
+            if (!define.getValue().isEmpty()) {
+                block.append(' ').append(define.getValue());
+            }
+            block.append('\n');
+        }
+
+        int version = findVersionLine(source);
+        if (version < 0) {
+            return block.append(source).toString();
+        }
+        int lineEnd = source.indexOf("\n", version);
+        int insertAt = lineEnd < 0 ? source.length() : lineEnd + 1;
+        return source.insert(insertAt, block).toString();
+    }
+
+    /// Where the #version directive starts, or -1. Only counts it at the start of a line, so one in a comment doesn't.
+    private static int findVersionLine(CharSequence source) {
+        int lineStart = 0;
+        while (lineStart < source.length()) {
+            int i = lineStart;
+            while (i < source.length() && (source.charAt(i) == ' ' || source.charAt(i) == '\t')) {
+                i++;
+            }
+            if (startsWith(source, i, "#version")) {
+                return i;
+            }
+            while (i < source.length() && source.charAt(i) != '\n') {
+                i++;
+            }
+            lineStart = i + 1;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence source, int offset, String prefix) {
+        if (offset + prefix.length() > source.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (source.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String parseIncludePath(String line, String path) throws ShaderCompilationException {
+        int open = line.indexOf('"');
+        int close = line.lastIndexOf('"');
+        if (open < 0 || close <= open) {
+            open = line.indexOf('<');
+            close = line.lastIndexOf('>');
+        }
+        if (open < 0 || close <= open + 1) {
+            throw new ShaderCompilationException("Malformed include in " + path + ": " + line);
+        }
+        return line.substring(open + 1, close);
+    }
+
+    private static String resolve(String from, String target) {
+        if (target.startsWith("/")) {
+            return normalize(target);
+        }
+        int slash = from.lastIndexOf('/');
+        return normalize(from.substring(0, slash + 1) + target);
+    }
+
+    /// Folds away . and .. so the same file always has the same path
+    private static String normalize(String path) {
+        Deque<String> parts = new ArrayDeque<>();
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".")) {
+                continue;
+            }
+            if (part.equals("..")) {
+                parts.pollLast();
+            } else {
+                parts.addLast(part);
+            }
+        }
+        return "/" + String.join("/", parts);
+    }
+
+    private static @Nullable String loadResource(String path) {
+        try (InputStream in = ShaderPreprocessor.class.getResourceAsStream(path)) {
+            if (in == null) {
+                return null;
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -2,16 +2,33 @@ package william.starsight.graphics.shader;
 
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.Contract;
-import org.joml.Matrix4f;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4fc;
+import org.joml.Vector2fc;
+import org.joml.Vector3fc;
+import org.joml.Vector4fc;
+import org.lwjgl.system.MemoryStack;
 import william.starsight.Starsight;
 
 import org.lwjgl.opengl.GL;
 import william.starsight.graphics.GraphicsUtils;
+import william.starsight.graphics.state.GLStateCache;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import static org.lwjgl.opengl.GL43.*;
+import static org.lwjgl.opengl.KHRParallelShaderCompile.GL_COMPLETION_STATUS_KHR;
 
 /**
  * The shader class for Starsight
+ * <p>
+ * Every uniform is looked up once, when the program links. Setting one by name then costs a map lookup; holding on to
+ * its {@link Uniform} from {@link #getUniform(String)} skips even that.
  *
  * @author William
  */
@@ -19,6 +36,14 @@ public class ShaderProgram implements AutoCloseable {
 	private final String vertexSource, fragmentSource;
 
 	private int id;
+	
+	// Handed to the driver by submit() and not checked on yet
+	private int pendingProgram, pendingVert, pendingFrag;
+	private ProgramBinaryCache pendingCache;
+	private String pendingKey;
+	
+	private final Map<String, Uniform> uniforms = new HashMap<>();
+	private final Set<String> warnedUniforms = new HashSet<>(); // So a missing uniform is only complained about once
 
 	/**
 	 * Constructs a new ShaderProgram
@@ -43,23 +68,112 @@ public class ShaderProgram implements AutoCloseable {
      *  DO NOT RUN BEFORE {@link GL#createCapabilities()} OR THIS WILL CRASH
 	 */
 	public void compileAndLink() throws ShaderCompilationException, ShaderLinkingException {
+		compileAndLink(null);
+	}
+	
+	/**
+	 * Compiles and links the shaders, or loads the program straight from a binary cached by an earlier run
+	 *
+	 * @param cache The cache to load from and save to, or {@code null} to always compile
+	 * @throws ShaderCompilationException If the shader cannot compile
+	 * @throws ShaderLinkingException If the shader cannot link
+	 *
+	 * @apiNote A binary the driver turns down is thrown away and the shaders compiled from source, so the cache never
+	 *  makes a program fail that would otherwise work. See {@link #compileAndLink()} for everything else.
+	 */
+	public void compileAndLink(@Nullable ProgramBinaryCache cache) throws ShaderCompilationException, ShaderLinkingException {
+		submit(cache);
+		finish();
+	}
+	
+	/**
+	 * Hands the shaders to the driver without asking how it went, which is what would make the driver finish them on the
+	 * spot. {@link #finish()} asks later. See {@link ShaderCompiler}.
+	 *
+	 * @param cache The cache to load from and save to, or {@code null} to always compile
+	 * @return Whether there's anything to finish
+	 */
+	boolean submit(@Nullable ProgramBinaryCache cache) {
 		if (!GraphicsUtils.isGLInitialized()) {
 			throw new UnsupportedOperationException("This task cannot be performed until OpenGL is initialized.");
 		}
 		
-		if (id != 0) {
+		if (id != 0 || pendingProgram != 0) {
 			Starsight.LOG.warning("Attempted double compilation");
-			return; // Just skip it.
+			return false; // Just skip it.
+		}
+		
+		String key = cache == null ? null : cache.key(vertexSource, fragmentSource);
+		if (key != null) {
+			int program = glCreateProgram();
+			if (cache.load(program, key)) {
+				id = program;
+				afterLink();
+				return false;
+			}
+			glDeleteProgram(program);
 		}
 		
-		int vert = glCreateShader(GL_VERTEX_SHADER);
-		int frag = glCreateShader(GL_FRAGMENT_SHADER);
+		pendingVert = glCreateShader(GL_VERTEX_SHADER);
+		pendingFrag = glCreateShader(GL_FRAGMENT_SHADER);
 
-		glShaderSource(vert, vertexSource);
-		glShaderSource(frag, fragmentSource);
+		glShaderSource(pendingVert, vertexSource);
+		glShaderSource(pendingFrag, fragmentSource);
 
-		glCompileShader(vert);
-		glCompileShader(frag);
+		glCompileShader(pendingVert);
+		glCompileShader(pendingFrag);
+		
+		// Linking shaders that didn't compile just fails, and finish() reports the compile errors first anyway
+		pendingProgram = glCreateProgram();
+		
+		glAttachShader(pendingProgram, pendingVert);
+		glAttachShader(pendingProgram, pendingFrag);
+		
+		if (key != null) {
+			glProgramParameteri(pendingProgram, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+		}
+		glLinkProgram(pendingProgram);
+		
+		pendingCache = key == null ? null : cache;
+		pendingKey = key;
+		return true;
+	}
+	
+	/**
+	 * @return Whether the program has been submitted but not finished yet
+	 */
+	@Contract(pure = true)
+	boolean isPending() {
+		return pendingProgram != 0;
+	}
+	
+	/**
+	 * Asks whether the driver is done with the program, without waiting for it. Only means something with
+	 * {@code KHR_parallel_shader_compile}, otherwise the answer is always yes and {@link #finish()} does the waiting.
+	 *
+	 * @param parallel Whether the driver has the extension
+	 * @return Whether {@link #finish()} would return without waiting
+	 */
+	boolean isReady(boolean parallel) {
+		return pendingProgram == 0 || !parallel || glGetProgrami(pendingProgram, GL_COMPLETION_STATUS_KHR) == GL_TRUE;
+	}
+	
+	/**
+	 * Checks how the submitted shaders went, waiting for the driver if it isn't done yet
+	 *
+	 * @throws ShaderCompilationException If the shader cannot compile
+	 * @throws ShaderLinkingException If the shader cannot link
+	 */
+	void finish() throws ShaderCompilationException, ShaderLinkingException {
+		if (pendingProgram == 0) {
+			return; // Loaded from the cache, or skipped
+		}
+		int program = pendingProgram, vert = pendingVert, frag = pendingFrag;
+		ProgramBinaryCache cache = pendingCache;
+		String key = pendingKey;
+		pendingProgram = pendingVert = pendingFrag = 0;
+		pendingCache = null;
+		pendingKey = null;
 
 		String vertError = null;
 		String fragError = null;
@@ -72,7 +186,11 @@ public class ShaderProgram implements AutoCloseable {
 			fragError = glGetShaderInfoLog(frag, Starsight.MAX_OPENGL_ERROR_LENGTH);
 		}
 		
+		glDeleteShader(vert);
+		glDeleteShader(frag);
+		
 		if (vertError != null || fragError != null) {
+			glDeleteProgram(program);
 			StringBuilder sb = new StringBuilder("Shader compilation failed:\n");
 			if (vertError != null) {
 				sb.append("Vertex shader:\n").append(vertError).append("\n");
@@ -83,26 +201,40 @@ public class ShaderProgram implements AutoCloseable {
 			throw new ShaderCompilationException(sb.toString());
 		}
 		
-		id = glCreateProgram();
-		
-		glAttachShader(id, vert);
-		glAttachShader(id, frag);
-		
-		glLinkProgram(id);
+		if (glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE) {
+			String log = glGetProgramInfoLog(program, Starsight.MAX_OPENGL_ERROR_LENGTH);
+			glDeleteProgram(program);
+			throw new ShaderLinkingException("Shader failed to link: " + log);
+		}
 		
-		if (glGetProgrami(id, GL_LINK_STATUS) == GL_FALSE) {
-			throw new ShaderLinkingException("Shader failed to link: " + glGetProgramInfoLog(id, Starsight.MAX_OPENGL_ERROR_LENGTH));
+		id = program;
+		if (cache != null) {
+			cache.save(id, key);
 		}
+		afterLink();
+	}
+	
+	/// Everything a freshly linked program needs, however it was linked
+	private void afterLink() {
+		findUniforms();
 		
-		glDeleteShader(vert);
-		glDeleteShader(frag);
+		// Shaders don't have to give the shared blocks a binding themselves
+		bindBlock(FrameUniformBuffer.BLOCK_NAME, FrameUniformBuffer.BINDING);
+		bindBlock(ObjectUniformRing.BLOCK_NAME, ObjectUniformRing.BINDING);
+	}
+	
+	private void bindBlock(String blockName, int binding) {
+		int block = glGetUniformBlockIndex(id, blockName);
+		if (block != GL_INVALID_INDEX) {
+			glUniformBlockBinding(id, block, binding);
+		}
 	}
 	
 	/**
 	 * Binds the shader for use
 	 */
 	public void bind() {
-		glUseProgram(id);
+		GLStateCache.useProgram(id);
 	}
 	
 	/**
@@ -112,16 +244,23 @@ public class ShaderProgram implements AutoCloseable {
 	 */
 	@SuppressWarnings("MethodMayBeStatic")
 	public void unbind() {
-		glUseProgram(0);
+		GLStateCache.useProgram(0);
 	}
 	
 	/**
 	 * Cleans up the shader
 	 */
 	public void cleanup() {
+		if (pendingProgram != 0) {
+			glDeleteShader(pendingVert);
+			glDeleteShader(pendingFrag);
+			glDeleteProgram(pendingProgram);
+			pendingProgram = pendingVert = pendingFrag = 0;
+		}
 		if (id != 0) {
-			glDeleteProgram(id);
+			GLStateCache.deleteProgram(id);
 			id = 0;
+			uniforms.clear(); // The handles point at a program that's gone
 		}
 	}
 	
@@ -145,7 +284,33 @@ public class ShaderProgram implements AutoCloseable {
 	 */
 	@Contract(pure = true)
 	public boolean doesUniformExist(String uniformName) {
-		return glGetUniformLocation(id, uniformName) != -1; // Not as clear-cut as it may seem, as there are edge cases
+		return uniforms.containsKey(uniformName);
+	}
+	
+	/**
+	 * Gets the handle of a uniform, to set it without looking it up by name
+	 *
+	 * @param uniformName The name. Elements of arrays can be named like {@code lights[2]}.
+	 * @return The handle
+	 * @throws UniformNotFoundException If the uniform isn't an active variable in the shader code
+	 */
+	public @NotNull Uniform getUniform(String uniformName) throws UniformNotFoundException {
+		Uniform uniform = uniforms.get(uniformName);
+		if (uniform == null) {
+			throw new UniformNotFoundException("Uniform " + uniformName + " does not exist.");
+		}
+		return uniform;
+	}
+	
+	/**
+	 * Gets the handle of a uniform, if it exists
+	 *
+	 * @param uniformName The name
+	 * @return The handle, or {@code null} if the uniform isn't an active variable in the shader code
+	 */
+	@Contract(pure = true)
+	public @Nullable Uniform findUniform(String uniformName) {
+		return uniforms.get(uniformName);
 	}
 	
 	/**
@@ -155,11 +320,10 @@ public class ShaderProgram implements AutoCloseable {
 	 * @param value The value
 	 */
 	public void setUniform(String uniformName, int value) {
-		if(!doesUniformExist(uniformName)) {
-			Starsight.LOG.warning("Uniform " + uniformName + " does not exist. Skipping...");
-			return;
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(value);
 		}
-		glUniform1i(getUniformLocation(uniformName), value);
 	}
 	
 	/**
@@ -169,11 +333,10 @@ public class ShaderProgram implements AutoCloseable {
 	 * @param value The value
 	 */
 	public void setUniform(String uniformName, float value) {
-		if(!doesUniformExist(uniformName)) {
-			Starsight.LOG.warning("Uniform " + uniformName + " does not exist. Skipping...");
-			return;
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(value);
 		}
-		glUniform1f(getUniformLocation(uniformName), value);
 	}
 	
 	/**
@@ -183,11 +346,23 @@ public class ShaderProgram implements AutoCloseable {
 	 * @param value The value
 	 */
 	public void setUniform(String uniformName, double value) {
-		if(!doesUniformExist(uniformName)) {
-			Starsight.LOG.warning("Uniform " + uniformName + " does not exist. Skipping...");
-			return;
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(value);
+		}
+	}
+	
+	/**
+	 * Sets a uniform's value
+	 *
+	 * @param uniformName The name
+	 * @param value The value
+	 */
+	public void setUniform(String uniformName, Vector2fc value) {
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(value);
 		}
-		glUniform1d(getUniformLocation(uniformName), value);
 	}
 	
 	/**
@@ -196,16 +371,100 @@ public class ShaderProgram implements AutoCloseable {
 	 * @param uniformName The name
 	 * @param value The value
 	 */
-	public void setUniform(String uniformName, Matrix4f value) {
-		if (!doesUniformExist(uniformName)) {
+	public void setUniform(String uniformName, Vector3fc value) {
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(value);
+		}
+	}
+	
+	/**
+	 * Sets a uniform's value
+	 *
+	 * @param uniformName The name
+	 * @param value The value
+	 */
+	public void setUniform(String uniformName, Vector4fc value) {
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(value);
+		}
+	}
+	
+	/**
+	 * Sets a uniform's value
+	 *
+	 * @param uniformName The name
+	 * @param value The value
+	 */
+	public void setUniform(String uniformName, Matrix4fc value) {
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(value);
+		}
+	}
+	
+	/**
+	 * Sets a float uniform or array, see {@link Uniform#set(float[])}
+	 *
+	 * @param uniformName The name
+	 * @param values The values
+	 */
+	public void setUniform(String uniformName, float[] values) {
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(values);
+		}
+	}
+	
+	/**
+	 * Sets an integer uniform or array, see {@link Uniform#set(int[])}
+	 *
+	 * @param uniformName The name
+	 * @param values The values
+	 */
+	public void setUniform(String uniformName, int[] values) {
+		Uniform uniform = lookup(uniformName);
+		if (uniform != null) {
+			uniform.set(values);
+		}
+	}
+	
+	private @Nullable Uniform lookup(String uniformName) {
+		Uniform uniform = uniforms.get(uniformName);
+		if (uniform == null && warnedUniforms.add(uniformName)) {
 			Starsight.LOG.warning("Uniform " + uniformName + " does not exist. Skipping...");
-			return;
 		}
-		glUniformMatrix4fv(getUniformLocation(uniformName), false, value.get(new float[4*4]));
+		return uniform;
 	}
 	
-	@Contract(pure = true) // Doesn't mutate state I think
-	private int getUniformLocation(String uniformName) {
-		return glGetUniformLocation(id, uniformName);
+	/// Enumerates the active uniforms once, so nothing is looked up by name afterwards
+	private void findUniforms() {
+		uniforms.clear();
+		int count = glGetProgrami(id, GL_ACTIVE_UNIFORMS);
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer size = stack.mallocInt(1);
+			IntBuffer type = stack.mallocInt(1);
+			for (int i = 0; i < count; i++) {
+				String name = glGetActiveUniform(id, i, size, type);
+				int location = glGetUniformLocation(id, name);
+				if (location == -1) {
+					continue; // Lives in a uniform block, which isn't set this way
+				}
+				
+				// Arrays come back as "name[0]", and can be set from there or from any element
+				boolean array = name.endsWith("[0]");
+				String baseName = array ? name.substring(0, name.length() - 3) : name;
+				uniforms.put(baseName, new Uniform(id, baseName, location, type.get(0), size.get(0)));
+				if (array) {
+					uniforms.put(name, uniforms.get(baseName));
+					for (int element = 1; element < size.get(0); element++) {
+						String elementName = baseName + "[" + element + "]";
+						int elementLocation = glGetUniformLocation(id, elementName);
+						uniforms.put(elementName, new Uniform(id, elementName, elementLocation, type.get(0), size.get(0) - element));
+					}
+				}
+			}
+		}
 	}
 }
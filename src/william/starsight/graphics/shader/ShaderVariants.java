@@ -0,0 +1,226 @@
+package william.starsight.graphics.shader;
+
+import org.intellij.lang.annotations.Language;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * One shader built in several variants, each with a different set of optional features compiled in, like ambient
+ * occlusion, fog or alpha testing. A variant only contains the code for its own features, so the hot paths don't pay for
+ * branching on uniforms.
+ * <p>
+ * Each feature is a define, and a variant is named by a bitmask where bit {@code i} turns on feature {@code i}. The shader
+ * wraps each feature's code in {@code #ifdef}. Variants are compiled the first time they're asked for and then kept, so
+ * each one is compiled exactly once.
+ * <pre>
+ * ShaderVariants terrain = new ShaderVariants(vertex, fragment, "AO", "FOG", "ALPHA_TEST");
+ * ShaderProgram program = terrain.get(terrain.feature("AO") | terrain.feature("FOG"));
+ * </pre>
+ * Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public class ShaderVariants implements AutoCloseable {
+    private final String vertexSource, fragmentSource;
+    private final String vertexPath, fragmentPath; // For resolving relative includes, may be null
+    private final String[] features;
+    private final ShaderPreprocessor preprocessor;
+    private final Map<String, String> defines = new LinkedHashMap<>();
+    private ProgramBinaryCache binaryCache;
+
+    private record Compiling(ShaderProgram program, CompletableFuture<ShaderProgram> future, ShaderCompiler compiler) {}
+
+    private final Map<Integer, ShaderProgram> variants = new HashMap<>();
+    private final Map<Integer, Compiling> compiling = new HashMap<>();
+
+    /**
+     * Constructs variants of shader source, resolving includes from the resources
+     *
+     * @param vertexSource The vertex shader code
+     * @param fragmentSource The fragment shader code
+     * @param features The name of the define each feature bit turns on, from bit 0 up. At most 31.
+     */
+    public ShaderVariants(@Language("Glsl") String vertexSource, @Language("Glsl") String fragmentSource, String @NotNull ... features) {
+        this(vertexSource, null, fragmentSource, null, new ShaderPreprocessor(), features);
+    }
+
+    /**
+     * Constructs variants of shader source
+     *
+     * @param vertexSource The vertex shader code
+     * @param vertexPath Where the vertex shader code came from, to resolve relative includes against, or {@code null}
+     * @param fragmentSource The fragment shader code
+     * @param fragmentPath Where the fragment shader code came from, to resolve relative includes against, or {@code null}
+     * @param preprocessor The preprocessor, which decides where includes come from
+     * @param features The name of the define each feature bit turns on, from bit 0 up. At most 31.
+     */
+    public ShaderVariants(@Language("Glsl") String vertexSource, String vertexPath, @Language("Glsl") String fragmentSource, String fragmentPath,
+                          @NotNull ShaderPreprocessor preprocessor, String @NotNull ... features) {
+        if (features.length > Integer.SIZE - 1) {
+            throw new IllegalArgumentException("Too many features for a bitmask: " + features.length);
+        }
+        this.vertexSource = vertexSource;
+        this.vertexPath = vertexPath;
+        this.fragmentSource = fragmentSource;
+        this.fragmentPath = fragmentPath;
+        this.preprocessor = preprocessor;
+        this.features = features.clone();
+    }
+
+    /**
+     * Adds a define every variant gets. Only affects variants compiled afterwards.
+     *
+     * @param name The name
+     * @param value The value, or an empty string for none
+     */
+    public void define(@NotNull String name, @NotNull String value) {
+        defines.put(name, value);
+    }
+
+    /**
+     * Sets where compiled variants are kept between runs, so each one is only ever compiled from source once per driver
+     *
+     * @param binaryCache The cache, or {@code null} to always compile
+     */
+    public void setBinaryCache(@Nullable ProgramBinaryCache binaryCache) {
+        this.binaryCache = binaryCache;
+    }
+
+    /**
+     * @param name The name of a feature
+     * @return The bit that turns it on
+     */
+    @Contract(pure = true)
+    public int feature(@NotNull String name) {
+        for (int i = 0; i < features.length; i++) {
+            if (features[i].equals(name)) {
+                return 1 << i;
+            }
+        }
+        throw new IllegalArgumentException("No such feature: " + name);
+    }
+
+    /**
+     * Gets a variant, compiling it if this is the first time it's asked for
+     *
+     * @param featureMask The features to turn on, one bit each
+     * @return The compiled and linked variant
+     * @throws ShaderCompilationException If the variant cannot be preprocessed or compiled
+     * @throws ShaderLinkingException If the variant cannot link
+     */
+    public @NotNull ShaderProgram get(int featureMask) throws ShaderCompilationException, ShaderLinkingException {
+        if ((featureMask >>> features.length) != 0) {
+            throw new IllegalArgumentException("Unknown feature bits in " + Integer.toBinaryString(featureMask));
+        }
+        ShaderProgram variant = variants.get(featureMask);
+        if (variant != null) {
+            return variant;
+        }
+
+        Compiling compiling = this.compiling.get(featureMask);
+        if (compiling != null) {
+            compiling.compiler().finish(compiling.program()); // Don't wait for the next poll
+            try {
+                return compiling.future().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof ShaderCompilationException compilation) {
+                    throw compilation;
+                }
+                if (e.getCause() instanceof ShaderLinkingException linking) {
+                    throw linking;
+                }
+                throw e;
+            }
+        }
+
+        variant = createVariant(featureMask);
+        variant.compileAndLink(binaryCache);
+        variants.put(featureMask, variant); // Only once it worked, so a broken variant isn't handed out later
+        return variant;
+    }
+
+    /**
+     * Starts compiling a variant alongside others, so a loading screen can warm up every variant it'll need without
+     * waiting on each one. Asking {@link #get(int)} for it before it's done just finishes it on the spot.
+     *
+     * @param featureMask The features to turn on, one bit each
+     * @param compiler The compiler to submit it to
+     * @return A future that completes with the linked variant, or fails if it doesn't compile
+     * @throws ShaderCompilationException If the variant cannot be preprocessed
+     */
+    public @NotNull CompletableFuture<ShaderProgram> getAsync(int featureMask, @NotNull ShaderCompiler compiler) throws ShaderCompilationException {
+        if ((featureMask >>> features.length) != 0) {
+            throw new IllegalArgumentException("Unknown feature bits in " + Integer.toBinaryString(featureMask));
+        }
+        ShaderProgram variant = variants.get(featureMask);
+        if (variant != null) {
+            return CompletableFuture.completedFuture(variant);
+        }
+        Compiling compiling = this.compiling.get(featureMask);
+        if (compiling != null) {
+            return compiling.future();
+        }
+
+        ShaderProgram program = createVariant(featureMask);
+        CompletableFuture<ShaderProgram> future = compiler.submit(program, binaryCache);
+        this.compiling.put(featureMask, new Compiling(program, future, compiler));
+        // Runs on the render thread, from the compiler's poll, or right here if it came out of the cache
+        future.whenComplete((linked, error) -> {
+            this.compiling.remove(featureMask);
+            if (error == null) {
+                variants.put(featureMask, linked);
+            } else {
+                program.cleanup();
+            }
+        });
+        return future;
+    }
+
+    private ShaderProgram createVariant(int featureMask) throws ShaderCompilationException {
+        Map<String, String> variantDefines = new LinkedHashMap<>(defines);
+        for (int i = 0; i < features.length; i++) {
+            if ((featureMask & (1 << i)) != 0) {
+                variantDefines.put(features[i], "");
+            }
+        }
+        return new ShaderProgram(
+                preprocessor.process(vertexSource, vertexPath, variantDefines),
+                preprocessor.process(fragmentSource, fragmentPath, variantDefines));
+    }
+
+    /**
+     * @return How many variants have been compiled
+     */
+    @Contract(pure = true)
+    public int getCompiledCount() {
+        return variants.size();
+    }
+
+    /**
+     * Cleans up every compiled variant
+     */
+    public void cleanup() {
+        // Copied first, as cancelling runs the callback that takes it out of the map
+        List<Compiling> unfinished = List.copyOf(compiling.values());
+        compiling.clear();
+        for (Compiling variant : unfinished) {
+            variant.future().cancel(false);
+            variant.program().cleanup();
+        }
+        variants.values().forEach(ShaderProgram::cleanup);
+        variants.clear();
+    }
+
+    @Override
+    public void close() {
+        cleanup();
+    }
+}
@@ -0,0 +1,154 @@
+package william.starsight.graphics.shader;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Matrix3fc;
+import org.joml.Matrix4fc;
+import org.joml.Vector2fc;
+import org.joml.Vector3fc;
+import org.joml.Vector4fc;
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * A handle to one uniform of a linked {@link ShaderProgram}, found once when the program links. Hold on to it instead of
+ * looking the uniform up by name every time it's set.
+ * <p>
+ * Values are written with {@code glProgramUniform}, so the program doesn't have to be bound first, and matrices go
+ * through the thread's {@link MemoryStack}, so setting a uniform never allocates. The handle stops working once its
+ * program is cleaned up.
+ *
+ * @author William
+ */
+public final class Uniform {
+    private final int program;
+    private final String name;
+    private final int location;
+    private final int type;
+    private final int size;
+
+    Uniform(int program, @NotNull String name, int location, int type, int size) {
+        this.program = program;
+        this.name = name;
+        this.location = location;
+        this.type = type;
+        this.size = size;
+    }
+
+    public void set(int value) {
+        glProgramUniform1i(program, location, value);
+    }
+
+    public void set(float value) {
+        glProgramUniform1f(program, location, value);
+    }
+
+    public void set(double value) {
+        glProgramUniform1d(program, location, value);
+    }
+
+    public void set(float x, float y) {
+        glProgramUniform2f(program, location, x, y);
+    }
+
+    public void set(float x, float y, float z) {
+        glProgramUniform3f(program, location, x, y, z);
+    }
+
+    public void set(float x, float y, float z, float w) {
+        glProgramUniform4f(program, location, x, y, z, w);
+    }
+
+    public void set(@NotNull Vector2fc value) {
+        glProgramUniform2f(program, location, value.x(), value.y());
+    }
+
+    public void set(@NotNull Vector3fc value) {
+        glProgramUniform3f(program, location, value.x(), value.y(), value.z());
+    }
+
+    public void set(@NotNull Vector4fc value) {
+        glProgramUniform4f(program, location, value.x(), value.y(), value.z(), value.w());
+    }
+
+    public void set(@NotNull Matrix3fc value) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            glProgramUniformMatrix3fv(program, location, false, value.get(stack.mallocFloat(3 * 3)));
+        }
+    }
+
+    public void set(@NotNull Matrix4fc value) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            glProgramUniformMatrix4fv(program, location, false, value.get(stack.mallocFloat(4 * 4)));
+        }
+    }
+
+    /**
+     * Sets a float uniform, or an array of them, starting at this element. How the values are split up depends on the
+     * uniform's type, so a {@code vec3[4]} takes 12 floats and a {@code mat4} takes 16, column by column.
+     *
+     * @param values The values
+     */
+    public void set(float @NotNull [] values) {
+        switch (type) {
+            case GL_FLOAT -> glProgramUniform1fv(program, location, values);
+            case GL_FLOAT_VEC2 -> glProgramUniform2fv(program, location, values);
+            case GL_FLOAT_VEC3 -> glProgramUniform3fv(program, location, values);
+            case GL_FLOAT_VEC4 -> glProgramUniform4fv(program, location, values);
+            case GL_FLOAT_MAT3 -> glProgramUniformMatrix3fv(program, location, false, values);
+            case GL_FLOAT_MAT4 -> glProgramUniformMatrix4fv(program, location, false, values);
+            default -> throw new IllegalArgumentException("Uniform " + name + " can't be set from floats");
+        }
+    }
+
+    /**
+     * Sets an integer, boolean or sampler uniform, or an array of them, starting at this element. How the values are
+     * split up depends on the uniform's type, like {@link #set(float[])}.
+     *
+     * @param values The values
+     */
+    public void set(int @NotNull [] values) {
+        switch (type) {
+            case GL_INT, GL_BOOL, GL_SAMPLER_2D, GL_SAMPLER_3D, GL_SAMPLER_CUBE, GL_SAMPLER_2D_ARRAY, GL_SAMPLER_2D_SHADOW ->
+                    glProgramUniform1iv(program, location, values);
+            case GL_INT_VEC2, GL_BOOL_VEC2 -> glProgramUniform2iv(program, location, values);
+            case GL_INT_VEC3, GL_BOOL_VEC3 -> glProgramUniform3iv(program, location, values);
+            case GL_INT_VEC4, GL_BOOL_VEC4 -> glProgramUniform4iv(program, location, values);
+            case GL_UNSIGNED_INT -> glProgramUniform1uiv(program, location, values);
+            case GL_UNSIGNED_INT_VEC2 -> glProgramUniform2uiv(program, location, values);
+            case GL_UNSIGNED_INT_VEC3 -> glProgramUniform3uiv(program, location, values);
+            case GL_UNSIGNED_INT_VEC4 -> glProgramUniform4uiv(program, location, values);
+            default -> throw new IllegalArgumentException("Uniform " + name + " can't be set from integers");
+        }
+    }
+
+    /**
+     * @return The name, without any {@code [0]} on the end
+     */
+    @Contract(pure = true)
+    public @NotNull String getName() {
+        return name;
+    }
+
+    @Contract(pure = true)
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * @return The GL type, such as {@code GL_FLOAT_MAT4}
+     */
+    @Contract(pure = true)
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return How many elements the uniform has, which is 1 unless it's an array
+     */
+    @Contract(pure = true)
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,354 @@
+package william.starsight.graphics.state;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Remembers what is bound and enabled in the OpenGL context, and only calls into the driver when something actually
+ * changes.
+ * <p>
+ * This only works if every change of the tracked state goes through here, including deletes, since deleting a bound
+ * object unbinds it. Code that changes the state behind its back has to call {@link #invalidate()} afterwards.
+ * <p>
+ * Starsight only ever makes one context, so the state is global. Everything here must be called from the render thread.
+ *
+ * @author William
+ */
+public final class GLStateCache {
+    /**
+     * The number of texture units tracked, which is the minimum OpenGL 4.3 guarantees for the fragment shader
+     */
+    public static final int TEXTURE_UNITS = 16;
+
+    private static final int UNKNOWN = -1;
+
+    @Contract(" -> fail")
+    private GLStateCache() {
+        throw new AssertionError("This class must not be instantiated.");
+    }
+
+    private static int program = UNKNOWN;
+    private static int vertexArray = UNKNOWN;
+    private static int framebuffer = UNKNOWN;
+    private static int activeUnit = UNKNOWN;
+    private static final int[] textures = new int[TEXTURE_UNITS];
+
+    // Capabilities are UNKNOWN, 0 or 1
+    private static int depthTest = UNKNOWN;
+    private static int depthMask = UNKNOWN;
+    private static int depthFunc = UNKNOWN;
+    private static int cullFace = UNKNOWN;
+    private static int cullMode = UNKNOWN;
+    private static int frontFace = UNKNOWN;
+    private static int blend = UNKNOWN;
+    private static int blendSource = UNKNOWN;
+    private static int blendDestination = UNKNOWN;
+    private static int colorMask = UNKNOWN; // All four channels together
+    private static boolean clearColorKnown;
+    private static float clearRed, clearGreen, clearBlue, clearAlpha;
+
+    static {
+        Arrays.fill(textures, UNKNOWN);
+    }
+
+    /**
+     * Forgets everything, so the next change of each piece of state always reaches the driver
+     */
+    public static void invalidate() {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        framebuffer = UNKNOWN;
+        activeUnit = UNKNOWN;
+        Arrays.fill(textures, UNKNOWN);
+        depthTest = UNKNOWN;
+        depthMask = UNKNOWN;
+        depthFunc = UNKNOWN;
+        cullFace = UNKNOWN;
+        cullMode = UNKNOWN;
+        frontFace = UNKNOWN;
+        blend = UNKNOWN;
+        blendSource = UNKNOWN;
+        blendDestination = UNKNOWN;
+        colorMask = UNKNOWN;
+        clearColorKnown = false;
+    }
+
+    /**
+     * Binds a shader program
+     *
+     * @param id The program, or 0 for none
+     */
+    public static void useProgram(int id) {
+        if (program != id) {
+            glUseProgram(id);
+            program = id;
+        }
+    }
+
+    /**
+     * Deletes a shader program, forgetting it if it was in use
+     *
+     * @param id The program
+     */
+    public static void deleteProgram(int id) {
+        glDeleteProgram(id);
+        if (program == id) {
+            program = UNKNOWN; // A program in use is only deleted once it stops being used
+        }
+    }
+
+    /**
+     * Binds a vertex array
+     *
+     * @param id The vertex array, or 0 for none
+     */
+    public static void bindVertexArray(int id) {
+        if (vertexArray != id) {
+            glBindVertexArray(id);
+            vertexArray = id;
+        }
+    }
+
+    /**
+     * Deletes a vertex array, which unbinds it if it was bound
+     *
+     * @param id The vertex array
+     */
+    public static void deleteVertexArray(int id) {
+        glDeleteVertexArrays(id);
+        if (vertexArray == id) {
+            vertexArray = 0;
+        }
+    }
+
+    /**
+     * Binds a framebuffer for both drawing and reading
+     *
+     * @param id The framebuffer, or 0 for the window's
+     */
+    public static void bindFramebuffer(int id) {
+        if (framebuffer != id) {
+            glBindFramebuffer(GL_FRAMEBUFFER, id);
+            framebuffer = id;
+        }
+    }
+
+    /**
+     * Deletes a framebuffer, which unbinds it if it was bound
+     *
+     * @param id The framebuffer
+     */
+    public static void deleteFramebuffer(int id) {
+        glDeleteFramebuffers(id);
+        if (framebuffer == id) {
+            framebuffer = 0;
+        }
+    }
+
+    /**
+     * Binds a 2D texture to a texture unit
+     *
+     * @param unit The unit, from 0 to {@link #TEXTURE_UNITS} - 1
+     * @param id The texture, or 0 for none
+     */
+    public static void bindTexture(int unit, int id) {
+        if (textures[unit] == id) {
+            return;
+        }
+        if (activeUnit != unit) {
+            glActiveTexture(GL_TEXTURE0 + unit);
+            activeUnit = unit;
+        }
+        glBindTexture(GL_TEXTURE_2D, id);
+        textures[unit] = id;
+    }
+
+    /**
+     * Deletes a texture, which unbinds it from every unit it was bound to
+     *
+     * @param id The texture
+     */
+    public static void deleteTexture(int id) {
+        glDeleteTextures(id);
+        for (int unit = 0; unit < TEXTURE_UNITS; unit++) {
+            if (textures[unit] == id) {
+                textures[unit] = 0;
+            }
+        }
+    }
+
+    /**
+     * Gets the texture bound to a unit
+     *
+     * @param unit The unit
+     * @return The texture, 0 for none, or -1 if it isn't known
+     */
+    @Contract(pure = true)
+    public static int getTexture(int unit) {
+        return textures[unit];
+    }
+
+    /**
+     * @return The program in use, 0 for none, or -1 if it isn't known
+     */
+    @Contract(pure = true)
+    public static int getProgram() {
+        return program;
+    }
+
+    /**
+     * @return The bound vertex array, 0 for none, or -1 if it isn't known
+     */
+    @Contract(pure = true)
+    public static int getVertexArray() {
+        return vertexArray;
+    }
+
+    /**
+     * @return The bound framebuffer, 0 for the window's, or -1 if it isn't known
+     */
+    @Contract(pure = true)
+    public static int getFramebuffer() {
+        return framebuffer;
+    }
+
+    public static void setDepthTest(boolean enabled) {
+        depthTest = setCapability(GL_DEPTH_TEST, depthTest, enabled);
+    }
+
+    public static void setDepthMask(boolean write) {
+        int value = write ? 1 : 0;
+        if (depthMask != value) {
+            glDepthMask(write);
+            depthMask = value;
+        }
+    }
+
+    public static void setDepthFunc(int function) {
+        if (depthFunc != function) {
+            glDepthFunc(function);
+            depthFunc = function;
+        }
+    }
+
+    public static void setCullFace(boolean enabled) {
+        cullFace = setCapability(GL_CULL_FACE, cullFace, enabled);
+    }
+
+    /**
+     * @param face Which faces to cull, {@code GL_BACK}, {@code GL_FRONT} or {@code GL_FRONT_AND_BACK}
+     */
+    public static void setCullMode(int face) {
+        if (cullMode != face) {
+            glCullFace(face);
+            cullMode = face;
+        }
+    }
+
+    /**
+     * @param winding Which winding faces the camera, {@code GL_CCW} or {@code GL_CW}
+     */
+    public static void setFrontFace(int winding) {
+        if (frontFace != winding) {
+            glFrontFace(winding);
+            frontFace = winding;
+        }
+    }
+
+    public static void setBlend(boolean enabled) {
+        blend = setCapability(GL_BLEND, blend, enabled);
+    }
+
+    public static void setBlendFunc(int source, int destination) {
+        if (blendSource != source || blendDestination != destination) {
+            glBlendFunc(source, destination);
+            blendSource = source;
+            blendDestination = destination;
+        }
+    }
+
+    /**
+     * @param write Whether to write colour at all. The channels are only ever turned on or off together.
+     */
+    public static void setColorMask(boolean write) {
+        int value = write ? 1 : 0;
+        if (colorMask != value) {
+            glColorMask(write, write, write, write);
+            colorMask = value;
+        }
+    }
+
+    /**
+     * Gets the current fixed function state, to put back later with {@link PipelineState#apply()}. Anything not known
+     * yet is asked of the driver once and remembered.
+     *
+     * @return The state
+     */
+    public static @NotNull PipelineState getPipelineState() {
+        if (depthTest == UNKNOWN) {
+            depthTest = glIsEnabled(GL_DEPTH_TEST) ? 1 : 0;
+        }
+        if (depthMask == UNKNOWN) {
+            depthMask = glGetBoolean(GL_DEPTH_WRITEMASK) ? 1 : 0;
+        }
+        if (depthFunc == UNKNOWN) {
+            depthFunc = glGetInteger(GL_DEPTH_FUNC);
+        }
+        if (cullFace == UNKNOWN) {
+            cullFace = glIsEnabled(GL_CULL_FACE) ? 1 : 0;
+        }
+        if (cullMode == UNKNOWN) {
+            cullMode = glGetInteger(GL_CULL_FACE_MODE);
+        }
+        if (frontFace == UNKNOWN) {
+            frontFace = glGetInteger(GL_FRONT_FACE);
+        }
+        if (blend == UNKNOWN) {
+            blend = glIsEnabled(GL_BLEND) ? 1 : 0;
+        }
+        if (blendSource == UNKNOWN || blendDestination == UNKNOWN) {
+            // Starsight never sets separate alpha factors, so the RGB ones stand for both
+            blendSource = glGetInteger(GL_BLEND_SRC_RGB);
+            blendDestination = glGetInteger(GL_BLEND_DST_RGB);
+        }
+        if (colorMask == UNKNOWN) {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                ByteBuffer mask = stack.malloc(4);
+                glGetBooleanv(GL_COLOR_WRITEMASK, mask);
+                colorMask = mask.get(0) != 0 ? 1 : 0;
+            }
+        }
+        return new PipelineState(depthTest == 1, depthMask == 1, depthFunc, cullFace == 1, cullMode, frontFace,
+                blend == 1, blendSource, blendDestination, colorMask == 1);
+    }
+
+    public static void setClearColor(float red, float green, float blue, float alpha) {
+        if (clearColorKnown && clearRed == red && clearGreen == green && clearBlue == blue && clearAlpha == alpha) {
+            return;
+        }
+        glClearColor(red, green, blue, alpha);
+        clearRed = red;
+        clearGreen = green;
+        clearBlue = blue;
+        clearAlpha = alpha;
+        clearColorKnown = true;
+    }
+
+    private static int setCapability(int capability, int current, boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if (current != value) {
+            if (enabled) {
+                glEnable(capability);
+            } else {
+                glDisable(capability);
+            }
+        }
+        return value;
+    }
+}
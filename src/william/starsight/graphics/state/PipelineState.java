@@ -0,0 +1,167 @@
+package william.starsight.graphics.state;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * The fixed function state a draw needs, depth testing, culling, blending and colour writes, as one immutable object. Applying it only
+ * changes what differs from the current state, through {@link GLStateCache}, so switching between a few of these every
+ * frame is cheap.
+ * <p>
+ * Start from {@link #OPAQUE} or {@link #TRANSLUCENT} and change what's needed with the {@code with} methods.
+ *
+ * @author William
+ */
+public final class PipelineState {
+    /**
+     * Depth tested and written, back faces culled, no blending. This is what the window sets up.
+     */
+    public static final PipelineState OPAQUE = new PipelineState(true, true, GL_LESS, true, GL_BACK, GL_CCW, false, GL_ONE, GL_ZERO, true);
+
+    /**
+     * Depth tested but not written, so things behind still show through, with alpha blending
+     */
+    public static final PipelineState TRANSLUCENT = new PipelineState(true, false, GL_LESS, true, GL_BACK, GL_CCW, true, GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA, true);
+
+    private final boolean depthTest;
+    private final boolean depthWrite;
+    private final int depthFunc;
+    private final boolean cullFace;
+    private final int cullMode;
+    private final int frontFace;
+    private final boolean blend;
+    private final int blendSource;
+    private final int blendDestination;
+    private final boolean colorWrite;
+
+    PipelineState(boolean depthTest, boolean depthWrite, int depthFunc, boolean cullFace, int cullMode, int frontFace,
+                  boolean blend, int blendSource, int blendDestination, boolean colorWrite) {
+        this.depthTest = depthTest;
+        this.depthWrite = depthWrite;
+        this.depthFunc = depthFunc;
+        this.cullFace = cullFace;
+        this.cullMode = cullMode;
+        this.frontFace = frontFace;
+        this.blend = blend;
+        this.blendSource = blendSource;
+        this.blendDestination = blendDestination;
+        this.colorWrite = colorWrite;
+    }
+
+    /**
+     * Makes this the current state. Blend and depth functions are left alone while blending or depth testing is off.
+     */
+    public void apply() {
+        GLStateCache.setDepthTest(depthTest);
+        GLStateCache.setDepthMask(depthWrite);
+        if (depthTest) {
+            GLStateCache.setDepthFunc(depthFunc);
+        }
+        GLStateCache.setCullFace(cullFace);
+        if (cullFace) {
+            GLStateCache.setCullMode(cullMode);
+        }
+        GLStateCache.setFrontFace(frontFace);
+        GLStateCache.setBlend(blend);
+        if (blend) {
+            GLStateCache.setBlendFunc(blendSource, blendDestination);
+        }
+        GLStateCache.setColorMask(colorWrite);
+    }
+
+    @Contract(pure = true)
+    public @NotNull PipelineState withDepthTest(boolean depthTest, int depthFunc) {
+        return new PipelineState(depthTest, depthWrite, depthFunc, cullFace, cullMode, frontFace, blend, blendSource, blendDestination, colorWrite);
+    }
+
+    @Contract(pure = true)
+    public @NotNull PipelineState withDepthWrite(boolean depthWrite) {
+        return new PipelineState(depthTest, depthWrite, depthFunc, cullFace, cullMode, frontFace, blend, blendSource, blendDestination, colorWrite);
+    }
+
+    /**
+     * @param cullFace Whether to cull
+     * @param cullMode Which faces to cull, {@code GL_BACK}, {@code GL_FRONT} or {@code GL_FRONT_AND_BACK}
+     */
+    @Contract(pure = true)
+    public @NotNull PipelineState withCulling(boolean cullFace, int cullMode) {
+        return new PipelineState(depthTest, depthWrite, depthFunc, cullFace, cullMode, frontFace, blend, blendSource, blendDestination, colorWrite);
+    }
+
+    /**
+     * @param frontFace Which winding faces the camera, {@code GL_CCW} or {@code GL_CW}
+     */
+    @Contract(pure = true)
+    public @NotNull PipelineState withFrontFace(int frontFace) {
+        return new PipelineState(depthTest, depthWrite, depthFunc, cullFace, cullMode, frontFace, blend, blendSource, blendDestination, colorWrite);
+    }
+
+    @Contract(pure = true)
+    public @NotNull PipelineState withBlend(boolean blend, int blendSource, int blendDestination) {
+        return new PipelineState(depthTest, depthWrite, depthFunc, cullFace, cullMode, frontFace, blend, blendSource, blendDestination, colorWrite);
+    }
+
+    /**
+     * @param colorWrite Whether to write colour, off for passes that only want depth or occlusion queries
+     */
+    @Contract(pure = true)
+    public @NotNull PipelineState withColorWrite(boolean colorWrite) {
+        return new PipelineState(depthTest, depthWrite, depthFunc, cullFace, cullMode, frontFace, blend, blendSource, blendDestination, colorWrite);
+    }
+
+    @Contract(pure = true)
+    public boolean isDepthTest() {
+        return depthTest;
+    }
+
+    @Contract(pure = true)
+    public boolean isDepthWrite() {
+        return depthWrite;
+    }
+
+    @Contract(pure = true)
+    public boolean isCullFace() {
+        return cullFace;
+    }
+
+    @Contract(pure = true)
+    public boolean isBlend() {
+        return blend;
+    }
+
+    @Contract(pure = true)
+    public boolean isColorWrite() {
+        return colorWrite;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PipelineState other)) {
+            return false;
+        }
+        return depthTest == other.depthTest && depthWrite == other.depthWrite && depthFunc == other.depthFunc
+                && cullFace == other.cullFace && cullMode == other.cullMode && frontFace == other.frontFace
+                && blend == other.blend && blendSource == other.blendSource && blendDestination == other.blendDestination
+                && colorWrite == other.colorWrite;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Boolean.hashCode(depthTest);
+        result = 31 * result + Boolean.hashCode(depthWrite);
+        result = 31 * result + depthFunc;
+        result = 31 * result + Boolean.hashCode(cullFace);
+        result = 31 * result + cullMode;
+        result = 31 * result + frontFace;
+        result = 31 * result + Boolean.hashCode(blend);
+        result = 31 * result + blendSource;
+        result = 31 * result + blendDestination;
+        result = 31 * result + Boolean.hashCode(colorWrite);
+        return result;
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Tracks the OpenGL state of the context so redundant state changes can be skipped
+ *
+ * @author William
+ */
+package william.starsight.graphics.state;
\ No newline at end of file
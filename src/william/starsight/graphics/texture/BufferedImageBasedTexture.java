@@ -2,6 +2,7 @@ package william.starsight.graphics.texture;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.system.MemoryUtil;
+import william.starsight.graphics.state.GLStateCache;
 
 import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
@@ -41,7 +42,7 @@ public class BufferedImageBasedTexture extends Texture {
     @Override
     public void initialize() {
         textureId = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, textureId);
+        GLStateCache.bindTexture(0, textureId);
 
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
@@ -51,7 +52,7 @@ public class BufferedImageBasedTexture extends Texture {
         glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, imgData);
         glGenerateMipmap(GL_TEXTURE_2D);
 
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLStateCache.bindTexture(0, 0);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package william.starsight.graphics.texture;
 
 import org.lwjgl.stb.STBImage;
+import william.starsight.graphics.state.GLStateCache;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -27,7 +28,7 @@ public final class SimpleTexture extends Texture {
     @Override
     public void initialize() {
         textureId = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, textureId);
+        GLStateCache.bindTexture(0, textureId);
 
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
@@ -40,7 +41,7 @@ public final class SimpleTexture extends Texture {
         glTexImage2D(GL_TEXTURE_2D, 0, format, width[0], height[0], 0, format, GL_UNSIGNED_BYTE, imageData);
         glGenerateMipmap(GL_TEXTURE_2D);
 
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLStateCache.bindTexture(0, 0);
     }
 
     @Override
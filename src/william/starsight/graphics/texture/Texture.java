@@ -1,6 +1,6 @@
 package william.starsight.graphics.texture;
 
-import static org.lwjgl.opengl.GL43.*;
+import william.starsight.graphics.state.GLStateCache;
 
 /**
  * The texture class for Starsight, extendable to make texture atlases
@@ -10,23 +10,58 @@ import static org.lwjgl.opengl.GL43.*;
  * @implNote DO NOT USE ANYTHING EXCEPT FOR DIRECT BUFFERS
  */
 public abstract class Texture {
-    protected boolean isBound = false;
 	protected int textureId = 0;
 	
+	/**
+	 * Binds the texture to unit 0
+	 */
 	public void bind() {
-        if (isBound)
-            return;
-        if (textureId != 0) {
-            glBindTexture(GL_TEXTURE_2D, textureId);
-            isBound = true;
-        }
+		bind(0);
 	}
 
+	/**
+	 * Binds the texture to a texture unit. Whether it's already bound there is tracked by {@link GLStateCache}, so it
+	 * stays right when another texture gets bound in between.
+	 *
+	 * @param unit The unit, from 0 to {@link GLStateCache#TEXTURE_UNITS} - 1
+	 */
+	public void bind(int unit) {
+		if (textureId != 0) {
+			GLStateCache.bindTexture(unit, textureId);
+		}
+	}
+
+	/**
+	 * Unbinds the texture from unit 0, if it's bound there
+	 */
 	public void unbind() {
-        if (!isBound)
-            return;
-        glBindTexture(GL_TEXTURE_2D, 0);
-        isBound = false;
+		unbind(0);
+	}
+
+	/**
+	 * Unbinds the texture from a texture unit, if it's bound there
+	 *
+	 * @param unit The unit
+	 */
+	public void unbind(int unit) {
+		if (isBound(unit)) {
+			GLStateCache.bindTexture(unit, 0);
+		}
+	}
+
+	/**
+	 * @param unit The unit
+	 * @return Whether the texture is bound to the unit
+	 */
+	public boolean isBound(int unit) {
+		return textureId != 0 && GLStateCache.getTexture(unit) == textureId;
+	}
+
+	/**
+	 * @return The OpenGL name of the texture, or 0 if it isn't initialized
+	 */
+	public int getId() {
+		return textureId;
 	}
 
 	public abstract void initialize();
@@ -34,7 +69,7 @@ public abstract class Texture {
 	public void cleanup() {
 		textureSubclassCleanup();
 		if (textureId != 0)
-			glDeleteTextures(textureId);
+			GLStateCache.deleteTexture(textureId);
 	}
 
 	protected abstract void textureSubclassCleanup();
@@ -1,10 +1,12 @@
 package william.starsight.test;
 
+import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import william.starsight.core.Program;
 import william.starsight.core.Window;
 import william.starsight.graphics.mesh.Mesh;
 import william.starsight.graphics.mesh.Tesselator;
+import william.starsight.graphics.shader.FrameUniformBuffer;
 import william.starsight.graphics.shader.ShaderCompilationException;
 import william.starsight.graphics.shader.ShaderLinkingException;
 import william.starsight.graphics.shader.ShaderProgram;
@@ -32,6 +34,7 @@ public class Main implements Program {
     Window parent = null;
 
     float aspect = 0.0f;
+    int width, height;
 
     double currentTime = 0.0;
 
@@ -67,8 +70,7 @@ public class Main implements Program {
             layout(location = 1) in vec2 uv;
             layout(location = 2) in vec3 normals;
             
-            uniform mat4 perspective;
-            uniform mat4 view;
+            """ + FrameUniformBuffer.GLSL_BLOCK + """
             
             out vec2 fragUV;
             out vec3 fragNormals;
@@ -77,7 +79,7 @@ public class Main implements Program {
                 fragUV = uv;
                 fragNormals = normals;
                 
-                gl_Position = perspective * view * vec4(pos, 1.0);
+                gl_Position = viewProjection * vec4(pos, 1.0);
             }
             """, testingNormals ? """
             #version 430
@@ -105,6 +107,9 @@ public class Main implements Program {
             }
             """);
 
+    final FrameUniformBuffer frameUniforms = new FrameUniformBuffer();
+    final Matrix4f projection = new Matrix4f();
+
     double lastX = 0;
     double lastY = 0;
 
@@ -112,6 +117,8 @@ public class Main implements Program {
     public void initialize(Window parent, int initWidth, int initHeight, double startTime) {
         this.parent = parent;
         this.aspect = (float) initWidth / initHeight;
+        this.width = initWidth;
+        this.height = initHeight;
 
         this.lastX = initWidth / 2;
         this.lastY = initWidth / 2;
@@ -140,6 +147,7 @@ public class Main implements Program {
         } catch (ShaderCompilationException e) {
             throw new RuntimeException(e);
         }
+        frameUniforms.initialize();
     }
 
     private final Vector3f tickVector = new Vector3f();
@@ -172,8 +180,8 @@ public class Main implements Program {
     public void render(double newTime) {
         tex.bind();
         testShader.bind();
-        testShader.setUniform("perspective", Camera.getPerspectiveMatrix(/*(float) Math.toRadians(70.0)*/70, aspect, 0.01f, 10000f)); // Whyy does JOML use degrees?
-        testShader.setUniform("view", camera.getViewMatrix());
+        Camera.getPerspectiveMatrix(/*(float) Math.toRadians(70.0)*/70, aspect, 0.01f, 10000f, projection); // Whyy does JOML use degrees?
+        frameUniforms.update(camera, projection, (float) newTime, width, height);
 
         cubes.render();
 
@@ -184,8 +192,10 @@ public class Main implements Program {
     @Override
     public void cleanup() {
         testShader.cleanup();
+        frameUniforms.cleanup();
         tex.cleanup();
         cubes.cleanup();
+        tess.close();
     }
 
     @Override
@@ -196,6 +206,8 @@ public class Main implements Program {
     @Override
     public void resized(int newWidth, int newHeight) {
         this.aspect = (float) newWidth / newHeight;
+        this.width = newWidth;
+        this.height = newHeight;
     }
 
     @Override
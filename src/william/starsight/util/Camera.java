@@ -63,10 +63,20 @@ public class Camera {
 	 * @return The view (camera) matrix
 	 */
 	public Matrix4f getViewMatrix() {
-		return new Matrix4f().identity().lookAt(
-				position,
-				position.add(front, new Vector3f()),
-				up
+		return getViewMatrix(new Matrix4f());
+	}
+	
+	/**
+	 * Calculates the view matrix for this camera without allocating
+	 *
+	 * @param dest Where to put the matrix
+	 * @return {@code dest}
+	 */
+	public Matrix4f getViewMatrix(Matrix4f dest) {
+		return dest.setLookAt(
+				position.x, position.y, position.z,
+				position.x + front.x, position.y + front.y, position.z + front.z,
+				up.x, up.y, up.z
 		);
 	}
 
@@ -121,9 +131,19 @@ public class Camera {
      * @apiNote JOML uses degrees for some reason for FOV, so please keep that in mind.
 	 */
 	public static Matrix4f getPerspectiveMatrix(float fov, float aspect, float near, float far) {
+		return getPerspectiveMatrix(fov, aspect, near, far, new Matrix4f());
+	}
+	
+	/**
+	 * Same as {@link #getPerspectiveMatrix(float, float, float, float)}, but without allocating
+	 *
+	 * @param dest Where to put the matrix
+	 * @return {@code dest}
+	 */
+	public static Matrix4f getPerspectiveMatrix(float fov, float aspect, float near, float far, Matrix4f dest) {
 		fov = MathUtils.clamp(fov, MINIMUM_FOV, MAXIMUM_FOV); // Yes, I know reassigning parameter variables is bad practice, but we only use this value as clamped.
 		
-		return new Matrix4f().identity().perspective(fov, aspect, near, far);
+		return dest.setPerspective(fov, aspect, near, far);
 	}
 
 	private void updateCameraVectors() {
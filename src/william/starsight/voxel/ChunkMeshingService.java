@@ -0,0 +1,199 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.NotNull;
+import william.starsight.Starsight;
+import william.starsight.core.RenderThreadQueue;
+import william.starsight.graphics.mesh.Mesh;
+import william.starsight.graphics.mesh.Tesselator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meshes voxel grids on a pool of worker threads and hands the finished meshes to the render thread for upload.
+ * <p>
+ * Each worker keeps its own {@link Tesselator} and {@link GreedyMesher}, so meshing never contends on shared buffers. The
+ * workers are a fixed set of threads that live as long as the service, so there's exactly one tesselator per worker. The
+ * only OpenGL work, {@link Mesh#initialize()}, is posted to a {@link RenderThreadQueue}, which {@link william.starsight.core.Window}
+ * drains every frame under a time budget.
+ * <p>
+ * A grid must not be modified until the future for its mesh completes, as the worker reads it concurrently.
+ *
+ * @author William
+ */
+public class ChunkMeshingService implements AutoCloseable {
+    /// A queued job, kept as itself so close() can still find the future of one that never ran
+    private record Job(Runnable work, CompletableFuture<Mesh> result) implements Runnable {
+        @Override
+        public void run() {
+            work.run();
+        }
+    }
+
+    private final ExecutorService pool;
+    private final RenderThreadQueue uploadQueue;
+
+    private final ThreadLocal<Tesselator> tesselators;
+    private final ConcurrentLinkedQueue<Tesselator> allTesselators = new ConcurrentLinkedQueue<>(); // So close() can free them
+    private final ThreadLocal<GreedyMesher> meshers;
+
+    /**
+     * Constructs a meshing service that leaves one core free for the render thread
+     *
+     * @param uploadQueue The queue the render thread drains, usually {@link william.starsight.core.Window#getRenderThreadQueue()}
+     */
+    public ChunkMeshingService(@NotNull RenderThreadQueue uploadQueue) {
+        this(uploadQueue, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Constructs a meshing service
+     *
+     * @param uploadQueue The queue the render thread drains, usually {@link william.starsight.core.Window#getRenderThreadQueue()}
+     * @param workers The number of worker threads
+     */
+    public ChunkMeshingService(@NotNull RenderThreadQueue uploadQueue, int workers) {
+        this(uploadQueue, workers, Tesselator.Mode.STANDARD);
+    }
+
+    /**
+     * Constructs a meshing service
+     *
+     * @param uploadQueue The queue the render thread drains, usually {@link william.starsight.core.Window#getRenderThreadQueue()}
+     * @param workers The number of worker threads
+     * @param mode The vertex layout the meshes use. With {@link Tesselator.Mode#PACKED}, mesh at the origin and place the
+     *             chunk with a transform, as packed positions only span a short.
+     */
+    public ChunkMeshingService(@NotNull RenderThreadQueue uploadQueue, int workers, @NotNull Tesselator.Mode mode) {
+        this(uploadQueue, workers, mode, new MaterialRegistry());
+    }
+
+    /**
+     * Constructs a meshing service
+     *
+     * @param uploadQueue The queue the render thread drains, usually {@link william.starsight.core.Window#getRenderThreadQueue()}
+     * @param workers The number of worker threads
+     * @param mode The vertex layout the meshes use. With {@link Tesselator.Mode#PACKED}, mesh at the origin and place the
+     *             chunk with a transform, as packed positions only span a short.
+     * @param materialRegistry Where the meshers look up which materials are opaque
+     */
+    public ChunkMeshingService(@NotNull RenderThreadQueue uploadQueue, int workers, @NotNull Tesselator.Mode mode, @NotNull MaterialRegistry materialRegistry) {
+        this.uploadQueue = uploadQueue;
+        this.meshers = ThreadLocal.withInitial(() -> new GreedyMesher(materialRegistry));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "Chunk mesher " + threadNumber.incrementAndGet());
+            thread.setDaemon(true); // Don't keep the game running if close() is never called
+            return thread;
+        });
+        this.tesselators = ThreadLocal.withInitial(() -> {
+            Tesselator tesselator = new Tesselator(mode);
+            allTesselators.add(tesselator);
+            return tesselator;
+        });
+    }
+
+    /**
+     * Meshes a grid in the background
+     *
+     * @param grid The voxels to mesh
+     * @param originX The x coordinate of the grid's minimum corner
+     * @param originY The y coordinate of the grid's minimum corner
+     * @param originZ The z coordinate of the grid's minimum corner
+     * @return A future that completes on the render thread with the uploaded mesh, or with {@code null} if the grid had
+     * no visible faces
+     */
+    public @NotNull CompletableFuture<Mesh> submit(@NotNull VoxelGrid grid, float originX, float originY, float originZ) {
+        return submit(new VoxelNeighborhood(grid), originX, originY, originZ);
+    }
+
+    /**
+     * Meshes the centre of a neighbourhood in the background, culling faces against its neighbours
+     *
+     * @param neighborhood The grid to mesh and its neighbours, none of which may be modified until the future completes
+     * @param originX The x coordinate of the grid's minimum corner
+     * @param originY The y coordinate of the grid's minimum corner
+     * @param originZ The z coordinate of the grid's minimum corner
+     * @return A future that completes on the render thread with the uploaded mesh, or with {@code null} if the grid had
+     * no visible faces
+     */
+    public @NotNull CompletableFuture<Mesh> submit(@NotNull VoxelNeighborhood neighborhood, float originX, float originY, float originZ) {
+        return submit(neighborhood, 0, (dx, dy, dz) -> true, originX, originY, originZ);
+    }
+
+    /**
+     * Meshes the centre of a neighbourhood in the background at a lower level of detail. The downsampling happens on the
+     * worker too.
+     *
+     * @param neighborhood The grid to mesh and its neighbours, none of which may be modified until the future completes
+     * @param level The level of detail, usually from {@link LodSelector}
+     * @param include Which neighbours are at the same level, see {@link VoxelNeighborhood#downsample}
+     * @param originX The x coordinate of the grid's minimum corner
+     * @param originY The y coordinate of the grid's minimum corner
+     * @param originZ The z coordinate of the grid's minimum corner
+     * @return A future that completes on the render thread with the uploaded mesh, or with {@code null} if the grid had
+     * no visible faces
+     */
+    public @NotNull CompletableFuture<Mesh> submit(@NotNull VoxelNeighborhood neighborhood, int level, @NotNull VoxelNeighborhood.NeighborFilter include,
+                                                   float originX, float originY, float originZ) {
+        CompletableFuture<Mesh> result = new CompletableFuture<>();
+        pool.execute(new Job(() -> {
+            Mesh mesh;
+            Tesselator tesselator = tesselators.get();
+            try {
+                int factor = LodSelector.getFactor(level);
+                VoxelNeighborhood coarse = neighborhood.downsample(factor, include);
+                if (meshers.get().mesh(coarse, tesselator, originX, originY, originZ, factor) == 0) {
+                    result.complete(null); // Nothing to upload, so don't bother the render thread
+                    return;
+                }
+                mesh = tesselator.flushMesh();
+            } catch (Throwable e) {
+                tesselator.reset(); // Or the quads written so far end up in this worker's next mesh
+                result.completeExceptionally(e);
+                return;
+            }
+
+            uploadQueue.post(() -> {
+                if (result.isDone()) {
+                    mesh.cleanup(); // Cancelled while it was waiting
+                    return;
+                }
+                try {
+                    mesh.initialize();
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                result.complete(mesh);
+            });
+        }, result));
+        return result;
+    }
+
+    /**
+     * Stops the workers. Meshes that already reached the upload queue will still be uploaded, and the futures of grids
+     * that were never meshed are cancelled.
+     */
+    @Override
+    public void close() {
+        for (Runnable job : pool.shutdownNow()) {
+            ((Job) job).result().cancel(false);
+        }
+        try {
+            if (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                Starsight.LOG.warning("Meshing workers did not stop in time; leaking their tesselators");
+                return; // Freeing a buffer a worker is still writing to would crash
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        allTesselators.forEach(Tesselator::close);
+        allTesselators.clear();
+    }
+}
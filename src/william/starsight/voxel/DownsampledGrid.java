@@ -0,0 +1,276 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A lower resolution snapshot of another grid, where every voxel stands for a cube of {@code factor^3} voxels of the
+ * source. Used to mesh distant chunks at a coarser level of detail.
+ * <p>
+ * A coarse voxel is solid when at least half of its cube is, and then takes the most common solid material in it, so
+ * thin features fade out with distance instead of bloating. Its light is the brightest sky and block light in the cube.
+ * <p>
+ * The source is read once on construction, so later edits to it are not reflected.
+ *
+ * @author William
+ */
+public class DownsampledGrid implements VoxelGrid {
+    private final int factor;
+    private final int sizeX, sizeY, sizeZ;
+    private final int[] materials;
+    private final int[] light;
+
+    /**
+     * Downsamples a grid
+     *
+     * @param source The full resolution grid
+     * @param factor How many source voxels make up one side of a coarse voxel. Must divide every side of the source.
+     */
+    public DownsampledGrid(@NotNull VoxelGrid source, int factor) {
+        if (factor <= 0 || source.getSizeX() % factor != 0 || source.getSizeY() % factor != 0 || source.getSizeZ() % factor != 0) {
+            throw new IllegalArgumentException("Downsampling factor must divide the size of the grid!");
+        }
+        this.factor = factor;
+        this.sizeX = source.getSizeX() / factor;
+        this.sizeY = source.getSizeY() / factor;
+        this.sizeZ = source.getSizeZ() / factor;
+        int volume = sizeX * sizeY * sizeZ;
+        this.materials = new int[volume];
+        this.light = new int[volume];
+
+        int sourceVolume = source.getSizeX() * source.getSizeY() * source.getSizeZ();
+        int[] scratch = new int[sourceVolume];
+        source.copyMaterials(scratch);
+        reduceMaterials(scratch, source.getSizeX(), source.getSizeY());
+        source.copyLight(scratch);
+        reduceLight(scratch, source.getSizeX(), source.getSizeY());
+    }
+
+    /**
+     * Downsamples a grid, or returns it as-is if there is nothing to do
+     *
+     * @param source The full resolution grid
+     * @param factor How many source voxels make up one side of a coarse voxel
+     * @return The source if {@code factor} is 1, or a new {@link DownsampledGrid}
+     */
+    public static @NotNull VoxelGrid of(@NotNull VoxelGrid source, int factor) {
+        return factor == 1 ? source : new DownsampledGrid(source, factor);
+    }
+
+    @Override
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    @Override
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    @Override
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    @Override
+    public int getMaterial(int x, int y, int z) {
+        return materials[x + sizeX * (y + sizeY * z)];
+    }
+
+    @Override
+    public void copyMaterials(int @NotNull [] destination) {
+        System.arraycopy(materials, 0, destination, 0, materials.length);
+    }
+
+    @Override
+    public void copyMaterials(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ, int @NotNull [] destination) {
+        copyBox(materials, minX, minY, minZ, sizeX, sizeY, sizeZ, destination);
+    }
+
+    @Override
+    public int getLight(int x, int y, int z) {
+        return light[x + sizeX * (y + sizeY * z)];
+    }
+
+    @Override
+    public void copyLight(int @NotNull [] destination) {
+        System.arraycopy(light, 0, destination, 0, light.length);
+    }
+
+    @Override
+    public void copyLight(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ, int @NotNull [] destination) {
+        copyBox(light, minX, minY, minZ, sizeX, sizeY, sizeZ, destination);
+    }
+
+    /**
+     * @return How many source voxels make up one side of a voxel of this grid
+     */
+    @Contract(pure = true)
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * Wraps a grid so it reads at a lower resolution without copying it. Each read works out its coarse voxel from the
+     * source on the spot, which is cheaper than a {@link DownsampledGrid} when only a few voxels get read, like the border
+     * of a neighbouring chunk.
+     * <p>
+     * The view keeps scratch space of its own, so it must not be read from more than one thread at a time.
+     *
+     * @param source The full resolution grid, which must not be modified while the view is in use
+     * @param factor How many source voxels make up one side of a coarse voxel. Must divide every side of the source.
+     * @return The view, or the source if {@code factor} is 1
+     */
+    public static @NotNull VoxelGrid view(@NotNull VoxelGrid source, int factor) {
+        if (factor == 1) {
+            return source;
+        }
+        if (factor <= 0 || source.getSizeX() % factor != 0 || source.getSizeY() % factor != 0 || source.getSizeZ() % factor != 0) {
+            throw new IllegalArgumentException("Downsampling factor must divide the size of the grid!");
+        }
+        int cell = factor * factor * factor;
+        return new VoxelGrid() {
+            private final int[] cube = new int[cell];
+            private final int[] found = new int[cell];
+            private final int[] counts = new int[cell];
+
+            @Override
+            public int getSizeX() {
+                return source.getSizeX() / factor;
+            }
+
+            @Override
+            public int getSizeY() {
+                return source.getSizeY() / factor;
+            }
+
+            @Override
+            public int getSizeZ() {
+                return source.getSizeZ() / factor;
+            }
+
+            @Override
+            public int getMaterial(int x, int y, int z) {
+                int n = 0;
+                for (int dz = 0; dz < factor; dz++) {
+                    for (int dy = 0; dy < factor; dy++) {
+                        for (int dx = 0; dx < factor; dx++) {
+                            cube[n++] = source.getMaterial(x * factor + dx, y * factor + dy, z * factor + dz);
+                        }
+                    }
+                }
+                return dominant(cube, cell, found, counts);
+            }
+
+            @Override
+            public int getLight(int x, int y, int z) {
+                int n = 0;
+                for (int dz = 0; dz < factor; dz++) {
+                    for (int dy = 0; dy < factor; dy++) {
+                        for (int dx = 0; dx < factor; dx++) {
+                            cube[n++] = source.getLight(x * factor + dx, y * factor + dy, z * factor + dz);
+                        }
+                    }
+                }
+                return brightest(cube, cell);
+            }
+        };
+    }
+
+    private void reduceMaterials(int[] source, int sourceX, int sourceY) {
+        int cell = factor * factor * factor;
+        int[] cube = new int[cell];
+        int[] found = new int[cell];
+        int[] counts = new int[cell];
+
+        for (int z = 0, n = 0; z < sizeZ; z++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int x = 0; x < sizeX; x++, n++) {
+                    gather(source, sourceX, sourceY, x, y, z, cube);
+                    materials[n] = dominant(cube, cell, found, counts);
+                }
+            }
+        }
+    }
+
+    private void reduceLight(int[] source, int sourceX, int sourceY) {
+        int cell = factor * factor * factor;
+        int[] cube = new int[cell];
+        for (int z = 0, n = 0; z < sizeZ; z++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int x = 0; x < sizeX; x++, n++) {
+                    gather(source, sourceX, sourceY, x, y, z, cube);
+                    light[n] = brightest(cube, cell);
+                }
+            }
+        }
+    }
+
+    /// Copies a box out of one of the flat arrays a row at a time
+    private void copyBox(int[] values, int minX, int minY, int minZ, int boxX, int boxY, int boxZ, int[] destination) {
+        int n = 0;
+        for (int z = minZ; z < minZ + boxZ; z++) {
+            for (int y = minY; y < minY + boxY; y++) {
+                System.arraycopy(values, minX + sizeX * (y + sizeY * z), destination, n, boxX);
+                n += boxX;
+            }
+        }
+    }
+
+    /// Copies the source voxels under one coarse voxel into a flat array
+    private void gather(int[] source, int sourceX, int sourceY, int x, int y, int z, int[] cube) {
+        int n = 0;
+        for (int dz = 0; dz < factor; dz++) {
+            for (int dy = 0; dy < factor; dy++) {
+                int row = x * factor + sourceX * ((y * factor + dy) + sourceY * (z * factor + dz));
+                System.arraycopy(source, row, cube, n, factor);
+                n += factor;
+            }
+        }
+    }
+
+    /// Air unless at least half the cube is solid, otherwise the most common solid material in it
+    private static int dominant(int[] cube, int cell, int[] found, int[] counts) {
+        // There are at most cell distinct materials, so a flat list will do
+        int distinct = 0;
+        int solid = 0;
+        for (int i = 0; i < cell; i++) {
+            int material = cube[i];
+            if (material == AIR) {
+                continue;
+            }
+            solid++;
+            int k = 0;
+            while (k < distinct && found[k] != material) {
+                k++;
+            }
+            if (k == distinct) {
+                found[distinct] = material;
+                counts[distinct++] = 0;
+            }
+            counts[k]++;
+        }
+
+        if (solid * 2 < cell) {
+            return AIR;
+        }
+        int best = 0;
+        for (int k = 1; k < distinct; k++) {
+            if (counts[k] > counts[best]) {
+                best = k;
+            }
+        }
+        return found[best];
+    }
+
+    /// The brightest sky and block light in the cube, packed back together
+    private static int brightest(int[] cube, int cell) {
+        int sky = 0;
+        int block = 0;
+        for (int i = 0; i < cell; i++) {
+            sky = Math.max(sky, cube[i] >>> 4);
+            block = Math.max(block, cube[i] & 0xF);
+        }
+        return (sky << 4) | block;
+    }
+}
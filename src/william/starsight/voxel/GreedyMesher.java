@@ -0,0 +1,482 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.NotNull;
+import william.starsight.graphics.mesh.Tesselator;
+import william.starsight.graphics.mesh.Tesselator.QuadDirection;
+
+/**
+ * Turns a {@link VoxelGrid} into quads, merging coplanar faces of the same material into the largest rectangles it can
+ * find before handing them to a {@link Tesselator}.
+ * <p>
+ * A face is only emitted if the voxel next to it doesn't hide it: opaque materials (see {@link MaterialRegistry}) hide
+ * everything, and transparent ones hide faces of their own material. Meshing a {@link VoxelNeighborhood} applies the
+ * same rule across the chunk border.
+ * <p>
+ * With a {@link Tesselator.Mode#isLit() lit} tesselator, each vertex also gets smooth ambient occlusion and light,
+ * averaged from the voxels around it, and quads are split along whichever diagonal keeps the shading symmetric. Faces
+ * then only merge if their shading matches too.
+ * <p>
+ * UVs are emitted in block units, so a 5x3 merged face gets UVs from 0 to 5 and 0 to 3. With a {@code GL_REPEAT}
+ * texture that tiles the texture once per block instead of stretching it across the whole face.
+ * <p>
+ * The mesher keeps its scratch arrays between calls, so keep one around per thread instead of making a new one per chunk.
+ *
+ * @author William
+ */
+public class GreedyMesher {
+    private static final QuadDirection[] POSITIVE = {QuadDirection.POS_X, QuadDirection.POS_Y, QuadDirection.POS_Z};
+    private static final QuadDirection[] NEGATIVE = {QuadDirection.NEG_X, QuadDirection.NEG_Y, QuadDirection.NEG_Z};
+
+    /*
+    Which corner of a face each tesselator vertex sits on, per QuadDirection ordinal. Corners count around the face in
+    the slice's u and v axes: 0 is (-u, -v), 1 is (+u, -v), 2 is (+u, +v), 3 is (-u, +v).
+     */
+    private static final int[][] CORNER_OF_VERTEX = {
+            {0, 3, 2, 1}, // NEG_X
+            {1, 0, 3, 2}, // NEG_Y
+            {1, 0, 3, 2}, // NEG_Z
+            {3, 0, 1, 2}, // POS_X
+            {0, 1, 2, 3}, // POS_Y
+            {0, 1, 2, 3}, // POS_Z
+    };
+    private static final int[] CORNER_DU = {-1, 1, 1, -1};
+    private static final int[] CORNER_DV = {-1, -1, 1, 1};
+
+    private static final int LIGHT_BITS = 10; // One corner from Tesselator.packLight
+    private static final long NO_MERGE = 1L << (4 * LIGHT_BITS); // Set when the corners differ, as merging would stretch the gradient
+
+    private final MaterialRegistry materialRegistry;
+
+    // Each mask cell holds the material of the visible face in that spot of the current slice, or 0 for no face
+    private int[] mask = new int[0];
+    // And the light of its 4 corners, which has to match too for faces to merge. Always 0 when not lit.
+    private long[] maskLight = new long[0];
+
+    /*
+    A copy of the region being meshed with a one voxel border around it. The voxel at (x, y, z) of the region lives at
+    (x + 1) + paddedStride[1] * (y + 1) + paddedStride[2] * (z + 1), so every voxel of the region has all 26 of its
+    neighbours in the array and the sweeps never need to bounds check.
+     */
+    private int[] padded = new int[0];
+    private int[] unpadded = new int[0]; // Just the box of the centre grid under the padded region
+    // The same again for light and opacity, only filled in when the tesselator is lit
+    private int[] paddedLight = new int[0];
+    private boolean[] paddedOpaque = new boolean[0];
+
+    // Scratch vectors, indexed by axis, so the inner loops don't allocate
+    private final int[] size = new int[3]; // Of the region being meshed
+    private final int[] regionMin = new int[3];
+    private final int[] centreSize = new int[3];
+    private final int[] boxMin = new int[3]; // The part of the centre the padded region covers
+    private final int[] boxSize = new int[3];
+    private final int[] paddedStride = new int[3];
+    private final int[] cursor = new int[3];
+    private final float[] extent = new float[3];
+    private final float[] centre = new float[3];
+    private float voxelSize; // Of the current call
+
+    /**
+     * Constructs a mesher that treats every material as opaque
+     */
+    public GreedyMesher() {
+        this(new MaterialRegistry());
+    }
+
+    /**
+     * Constructs a mesher
+     *
+     * @param materialRegistry Where to look up which materials are opaque
+     */
+    public GreedyMesher(@NotNull MaterialRegistry materialRegistry) {
+        this.materialRegistry = materialRegistry;
+    }
+
+    /**
+     * Meshes the grid with its minimum corner at the origin
+     *
+     * @param grid The voxels to mesh
+     * @param tesselator The tesselator that receives the quads
+     * @return The number of quads emitted
+     */
+    public int mesh(@NotNull VoxelGrid grid, @NotNull Tesselator tesselator) {
+        return mesh(grid, tesselator, 0.0f, 0.0f, 0.0f);
+    }
+
+    /**
+     * Meshes the grid with its minimum corner at the given position, treating everything outside it as air
+     *
+     * @param grid The voxels to mesh
+     * @param tesselator The tesselator that receives the quads
+     * @param originX The x coordinate of the grid's minimum corner
+     * @param originY The y coordinate of the grid's minimum corner
+     * @param originZ The z coordinate of the grid's minimum corner
+     * @return The number of quads emitted
+     */
+    public int mesh(@NotNull VoxelGrid grid, @NotNull Tesselator tesselator, float originX, float originY, float originZ) {
+        return mesh(new VoxelNeighborhood(grid), tesselator, originX, originY, originZ);
+    }
+
+    /**
+     * Meshes the centre of a neighbourhood with its minimum corner at the given position, culling faces against the
+     * neighbouring grids too
+     *
+     * @param neighborhood The grid to mesh and its neighbours
+     * @param tesselator The tesselator that receives the quads
+     * @param originX The x coordinate of the grid's minimum corner
+     * @param originY The y coordinate of the grid's minimum corner
+     * @param originZ The z coordinate of the grid's minimum corner
+     * @return The number of quads emitted
+     */
+    public int mesh(@NotNull VoxelNeighborhood neighborhood, @NotNull Tesselator tesselator, float originX, float originY, float originZ) {
+        return mesh(neighborhood, tesselator, originX, originY, originZ, 1.0f);
+    }
+
+    /**
+     * Meshes the centre of a neighbourhood with every voxel scaled up, for drawing a {@link DownsampledGrid} at the size
+     * of the chunk it came from. Texture coordinates are scaled too, so textures keep the same density in the world.
+     *
+     * @param neighborhood The grid to mesh and its neighbours, usually from {@link VoxelNeighborhood#downsample}
+     * @param tesselator The tesselator that receives the quads
+     * @param originX The x coordinate of the grid's minimum corner
+     * @param originY The y coordinate of the grid's minimum corner
+     * @param originZ The z coordinate of the grid's minimum corner
+     * @param voxelSize The side length of one voxel in the world
+     * @return The number of quads emitted
+     */
+    public int mesh(@NotNull VoxelNeighborhood neighborhood, @NotNull Tesselator tesselator, float originX, float originY, float originZ, float voxelSize) {
+        VoxelGrid center = neighborhood.getCenter();
+        return meshRegion(neighborhood, 0, 0, 0, center.getSizeX(), center.getSizeY(), center.getSizeZ(), tesselator, originX, originY, originZ, voxelSize);
+    }
+
+    /**
+     * Meshes only a box inside the centre of a neighbourhood. Faces on the edge of the box are culled against the voxels
+     * just outside it, whether those are in the centre grid or a neighbour, so meshing every box of a grid separately gives
+     * the same faces as meshing the grid whole.
+     *
+     * @param neighborhood The grid to mesh and its neighbours
+     * @param minX The x coordinate of the box's minimum corner in the centre grid
+     * @param minY The y coordinate of the box's minimum corner in the centre grid
+     * @param minZ The z coordinate of the box's minimum corner in the centre grid
+     * @param sizeX The size of the box along x
+     * @param sizeY The size of the box along y
+     * @param sizeZ The size of the box along z
+     * @param tesselator The tesselator that receives the quads
+     * @param originX The x coordinate of the grid's (not the box's) minimum corner
+     * @param originY The y coordinate of the grid's minimum corner
+     * @param originZ The z coordinate of the grid's minimum corner
+     * @return The number of quads emitted
+     */
+    public int mesh(@NotNull VoxelNeighborhood neighborhood, int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ,
+                    @NotNull Tesselator tesselator, float originX, float originY, float originZ) {
+        return meshRegion(neighborhood, minX, minY, minZ, sizeX, sizeY, sizeZ, tesselator, originX, originY, originZ, 1.0f);
+    }
+
+    private int meshRegion(VoxelNeighborhood neighborhood, int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ,
+                           Tesselator tesselator, float originX, float originY, float originZ, float voxelSize) {
+        this.voxelSize = voxelSize;
+        regionMin[0] = minX;
+        regionMin[1] = minY;
+        regionMin[2] = minZ;
+        size[0] = sizeX;
+        size[1] = sizeY;
+        size[2] = sizeZ;
+        originX += minX * voxelSize;
+        originY += minY * voxelSize;
+        originZ += minZ * voxelSize;
+
+        boolean lit = tesselator.getMode().isLit();
+        fillPadded(neighborhood, lit);
+        int quads = 0;
+
+        // Sweep each axis once per face direction. The u and v axes span the slice.
+        for (int d = 0; d < 3; d++) {
+            int u = (d + 1) % 3;
+            int v = (d + 2) % 3;
+            int sizeU = size[u];
+            int sizeV = size[v];
+
+            if (mask.length < sizeU * sizeV) {
+                mask = new int[sizeU * sizeV];
+                maskLight = new long[sizeU * sizeV];
+            }
+
+            for (int sign = -1; sign <= 1; sign += 2) {
+                int toNeighbor = sign * paddedStride[d];
+                for (int layer = 0; layer < size[d]; layer++) {
+                    cursor[d] = layer;
+                    int n = 0;
+                    for (int j = 0; j < sizeV; j++) {
+                        cursor[v] = j;
+                        for (int i = 0; i < sizeU; i++) {
+                            cursor[u] = i;
+                            int index = (cursor[0] + 1) + (cursor[1] + 1) * paddedStride[1] + (cursor[2] + 1) * paddedStride[2];
+                            int face = visibleFace(padded[index], padded[index + toNeighbor]);
+                            mask[n] = face;
+                            maskLight[n] = lit && face != 0 ? cornerLight(index + toNeighbor, paddedStride[u], paddedStride[v]) : 0L;
+                            n++;
+                        }
+                    }
+
+                    // A face on the positive side of the layer sits on the plane after it
+                    int plane = sign > 0 ? layer + 1 : layer;
+                    quads += mergeSlice(tesselator, sign > 0 ? POSITIVE[d] : NEGATIVE[d], d, u, v, plane, sizeU, sizeV, originX, originY, originZ);
+                }
+            }
+        }
+        return quads;
+    }
+
+    /// The material of the face between a voxel and its neighbour, or 0 if that face can't be seen
+    private int visibleFace(int material, int neighbor) {
+        if (material == VoxelGrid.AIR || neighbor == material || materialRegistry.isOpaque(neighbor)) {
+            return 0;
+        }
+        return material;
+    }
+
+    /**
+     * Works out the ambient occlusion and light of all 4 corners of a face
+     *
+     * @param front The padded index of the voxel the face looks into
+     * @param strideU The padded stride along the slice's u axis
+     * @param strideV The padded stride along the slice's v axis
+     * @return The corners packed {@value #LIGHT_BITS} bits each, plus {@link #NO_MERGE} if they aren't all equal
+     */
+    private long cornerLight(int front, int strideU, int strideV) {
+        long packed = 0L;
+        int first = -1;
+        boolean uniform = true;
+        for (int corner = 0; corner < 4; corner++) {
+            int side1 = front + CORNER_DU[corner] * strideU;
+            int side2 = front + CORNER_DV[corner] * strideV;
+            int diagonal = side1 + CORNER_DV[corner] * strideV;
+            boolean occluded1 = paddedOpaque[side1];
+            boolean occluded2 = paddedOpaque[side2];
+            boolean occludedDiagonal = paddedOpaque[diagonal];
+
+            // Two sides block the corner entirely, so it can't be seen (or lit) through the diagonal
+            int ao = occluded1 && occluded2 ? 0 : 3 - ((occluded1 ? 1 : 0) + (occluded2 ? 1 : 0) + (occludedDiagonal ? 1 : 0));
+
+            // Smooth lighting averages the open voxels touching the corner
+            int light = paddedLight[front];
+            int sky = light >>> 4;
+            int block = light & 0xF;
+            int samples = 1;
+            if (!occluded1) {
+                sky += paddedLight[side1] >>> 4;
+                block += paddedLight[side1] & 0xF;
+                samples++;
+            }
+            if (!occluded2) {
+                sky += paddedLight[side2] >>> 4;
+                block += paddedLight[side2] & 0xF;
+                samples++;
+            }
+            if (!occludedDiagonal && !(occluded1 && occluded2)) {
+                sky += paddedLight[diagonal] >>> 4;
+                block += paddedLight[diagonal] & 0xF;
+                samples++;
+            }
+
+            int value = Tesselator.packLight(ao, (sky + samples / 2) / samples, (block + samples / 2) / samples);
+            if (first == -1) {
+                first = value;
+            } else if (value != first) {
+                uniform = false;
+            }
+            packed |= (long) value << (corner * LIGHT_BITS);
+        }
+        return uniform ? packed : packed | NO_MERGE;
+    }
+
+    /// Copies the region and the shell around it into the padded scratch arrays
+    private void fillPadded(VoxelNeighborhood neighborhood, boolean lit) {
+        VoxelGrid center = neighborhood.getCenter();
+        centreSize[0] = center.getSizeX();
+        centreSize[1] = center.getSizeY();
+        centreSize[2] = center.getSizeZ();
+        int px = size[0] + 2;
+        int py = size[1] + 2;
+        int pz = size[2] + 2;
+        paddedStride[0] = 1;
+        paddedStride[1] = px;
+        paddedStride[2] = px * py;
+
+        // Only the part of the centre the padded region covers gets copied, so remeshing one section stays cheap
+        for (int a = 0; a < 3; a++) {
+            boxMin[a] = Math.max(0, regionMin[a] - 1);
+            boxSize[a] = Math.max(0, Math.min(centreSize[a], regionMin[a] + size[a] + 1) - boxMin[a]);
+        }
+        int boxVolume = boxSize[0] * boxSize[1] * boxSize[2];
+        if (unpadded.length < boxVolume) {
+            unpadded = new int[boxVolume];
+        }
+        int paddedVolume = px * py * pz;
+        if (padded.length < paddedVolume) {
+            padded = new int[paddedVolume];
+        }
+
+        if (boxVolume != 0) {
+            center.copyMaterials(boxMin[0], boxMin[1], boxMin[2], boxSize[0], boxSize[1], boxSize[2], unpadded);
+        }
+        copyPadded(padded, neighborhood, false);
+
+        if (!lit) {
+            return;
+        }
+
+        if (paddedLight.length < paddedVolume) {
+            paddedLight = new int[paddedVolume];
+            paddedOpaque = new boolean[paddedVolume];
+        }
+        if (boxVolume != 0) {
+            center.copyLight(boxMin[0], boxMin[1], boxMin[2], boxSize[0], boxSize[1], boxSize[2], unpadded);
+        }
+        copyPadded(paddedLight, neighborhood, true);
+        for (int i = 0; i < paddedVolume; i++) {
+            paddedOpaque[i] = materialRegistry.isOpaque(padded[i]);
+        }
+    }
+
+    /// Fills a padded array from the copy of the centre's box, a row at a time, and from the neighbours for whatever is outside the centre
+    private void copyPadded(int[] destination, VoxelNeighborhood neighborhood, boolean light) {
+        int px = paddedStride[1];
+        int pxy = paddedStride[2];
+        // The stretch of each row, in region coordinates, that lies inside the centre grid
+        int firstInside = Math.max(-1, -regionMin[0]);
+        int lastInside = Math.min(size[0], centreSize[0] - regionMin[0] - 1);
+
+        for (int z = -1; z <= size[2]; z++) {
+            int cz = regionMin[2] + z;
+            boolean zInside = cz >= 0 && cz < centreSize[2];
+            for (int y = -1; y <= size[1]; y++) {
+                int cy = regionMin[1] + y;
+                boolean yInside = cy >= 0 && cy < centreSize[1];
+                int row = 1 + (y + 1) * px + (z + 1) * pxy;
+
+                int x = -1;
+                if (zInside && yInside && firstInside <= lastInside) {
+                    for (; x < firstInside; x++) {
+                        destination[row + x] = sample(neighborhood, light, regionMin[0] + x, cy, cz);
+                    }
+                    int from = (regionMin[0] + firstInside - boxMin[0]) + boxSize[0] * ((cy - boxMin[1]) + boxSize[1] * (cz - boxMin[2]));
+                    System.arraycopy(unpadded, from, destination, row + firstInside, lastInside - firstInside + 1);
+                    x = lastInside + 1;
+                }
+                for (; x <= size[0]; x++) {
+                    destination[row + x] = sample(neighborhood, light, regionMin[0] + x, cy, cz);
+                }
+            }
+        }
+    }
+
+    private static int sample(VoxelNeighborhood neighborhood, boolean light, int x, int y, int z) {
+        return light ? neighborhood.getLight(x, y, z) : neighborhood.getMaterial(x, y, z);
+    }
+
+    /// Greedily pulls rectangles out of the mask for one slice and emits them
+    private int mergeSlice(Tesselator tesselator, QuadDirection direction, int d, int u, int v, int plane, int sizeU, int sizeV, float originX, float originY, float originZ) {
+        int quads = 0;
+        int n = 0;
+        for (int j = 0; j < sizeV; j++) {
+            for (int i = 0; i < sizeU; ) {
+                int face = mask[n];
+                if (face == 0) {
+                    i++;
+                    n++;
+                    continue;
+                }
+                long light = maskLight[n];
+                boolean mergeable = (light & NO_MERGE) == 0;
+
+                // Grow along u as far as the face matches
+                int width = 1;
+                while (mergeable && i + width < sizeU && mask[n + width] == face && maskLight[n + width] == light) {
+                    width++;
+                }
+
+                // Then grow along v while the whole row matches
+                int height = 1;
+                grow:
+                while (mergeable && j + height < sizeV) {
+                    int row = n + height * sizeU;
+                    for (int k = 0; k < width; k++) {
+                        if (mask[row + k] != face || maskLight[row + k] != light) {
+                            break grow;
+                        }
+                    }
+                    height++;
+                }
+
+                emitQuad(tesselator, direction, d, u, v, plane, i, j, width, height, light, originX, originY, originZ);
+                quads++;
+
+                // Clear what we used so it doesn't get emitted twice
+                for (int h = 0; h < height; h++) {
+                    int row = n + h * sizeU;
+                    for (int k = 0; k < width; k++) {
+                        mask[row + k] = 0;
+                    }
+                }
+
+                i += width;
+                n += width;
+            }
+        }
+        return quads;
+    }
+
+    private void emitQuad(Tesselator tesselator, QuadDirection direction, int d, int u, int v, int plane, int i, int j, int width, int height, long light, float originX, float originY, float originZ) {
+        extent[d] = 0.0f;
+        extent[u] = width * voxelSize;
+        extent[v] = height * voxelSize;
+        centre[d] = plane * voxelSize;
+        centre[u] = (i + width / 2.0f) * voxelSize;
+        centre[v] = (j + height / 2.0f) * voxelSize;
+
+        // The tesselator measures width and height along different axes depending on the face
+        float quadWidth;
+        float quadHeight;
+        float spanU;
+        float spanV;
+        switch (d) {
+            case 0 -> { // Width along z, height along y, U follows height
+                quadWidth = extent[2];
+                quadHeight = extent[1];
+                spanU = quadHeight;
+                spanV = quadWidth;
+            }
+            case 1 -> { // Width along x, height along z, U follows width
+                quadWidth = extent[0];
+                quadHeight = extent[2];
+                spanU = quadWidth;
+                spanV = quadHeight;
+            }
+            default -> { // Width along x, height along y, U follows height
+                quadWidth = extent[0];
+                quadHeight = extent[1];
+                spanU = quadHeight;
+                spanV = quadWidth;
+            }
+        }
+
+        if (!tesselator.getMode().isLit()) {
+            tesselator.addQuad(originX + centre[0], originY + centre[1], originZ + centre[2], direction, quadWidth, quadHeight, 0.0f, 0.0f, spanU, spanV);
+            return;
+        }
+
+        int[] corners = CORNER_OF_VERTEX[direction.ordinal()];
+        int light1 = cornerOf(light, corners[0]);
+        int light2 = cornerOf(light, corners[1]);
+        int light3 = cornerOf(light, corners[2]);
+        int light4 = cornerOf(light, corners[3]);
+        // Split along the darker diagonal so occlusion spreads evenly instead of along one triangle edge
+        boolean flip = (light1 & 0x3) + (light3 & 0x3) > (light2 & 0x3) + (light4 & 0x3);
+        tesselator.addQuad(originX + centre[0], originY + centre[1], originZ + centre[2], direction, quadWidth, quadHeight, 0.0f, 0.0f, spanU, spanV,
+                light1, light2, light3, light4, flip);
+    }
+
+    private static int cornerOf(long light, int corner) {
+        return (int) (light >>> (corner * LIGHT_BITS)) & ((1 << LIGHT_BITS) - 1);
+    }
+}
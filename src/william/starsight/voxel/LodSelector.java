@@ -0,0 +1,129 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3f;
+import william.starsight.util.Camera;
+
+/**
+ * Picks the level of detail to mesh a chunk at from how far it is from the camera.
+ * <p>
+ * Level 0 is full resolution, and every level after halves it, so level {@code n} meshes a {@link DownsampledGrid} with a
+ * factor of {@code 2^n}. Chunks closer than the base distance get level 0, and each level after covers twice the
+ * distance of the one before, which keeps the size of a coarse voxel on screen roughly constant.
+ * <p>
+ * When a chunk changes level, remesh the neighbours whose level differs from its new one too, so the seams between them
+ * get closed. See {@link VoxelNeighborhood#downsample(int, VoxelNeighborhood.NeighborFilter)}.
+ *
+ * @author William
+ */
+public class LodSelector {
+    /**
+     * The coarsest level by default, which is 8 times lower resolution
+     */
+    public static final int DEFAULT_MAX_LEVEL = 3;
+
+    // How far past a boundary a chunk has to move before it switches back, so it doesn't flicker while the camera hovers there
+    private static final float HYSTERESIS = 0.1f;
+
+    private final float baseDistance;
+    private final int maxLevel;
+
+    /**
+     * Constructs a selector that goes up to {@link #DEFAULT_MAX_LEVEL}
+     *
+     * @param baseDistance How far away chunks stay at full resolution
+     */
+    public LodSelector(float baseDistance) {
+        this(baseDistance, DEFAULT_MAX_LEVEL);
+    }
+
+    /**
+     * Constructs a selector
+     *
+     * @param baseDistance How far away chunks stay at full resolution
+     * @param maxLevel The coarsest level to use. Its factor must still divide the chunk size.
+     */
+    public LodSelector(float baseDistance, int maxLevel) {
+        if (baseDistance <= 0.0f || maxLevel < 0 || maxLevel > 30) {
+            throw new IllegalArgumentException("Invalid level of detail settings!");
+        }
+        this.baseDistance = baseDistance;
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Picks the level for a chunk
+     *
+     * @param camera The camera
+     * @param minX The x coordinate of the chunk's minimum corner
+     * @param minY The y coordinate of the chunk's minimum corner
+     * @param minZ The z coordinate of the chunk's minimum corner
+     * @param size The side length of the chunk
+     * @return The level, from 0 to the max level
+     */
+    public int getLevel(@NotNull Camera camera, float minX, float minY, float minZ, float size) {
+        return levelAt(distanceTo(camera.getPosition(), minX, minY, minZ, size));
+    }
+
+    /**
+     * Picks the level for a chunk that is already meshed at some level, only switching once it is clearly past the
+     * boundary
+     *
+     * @param camera The camera
+     * @param minX The x coordinate of the chunk's minimum corner
+     * @param minY The y coordinate of the chunk's minimum corner
+     * @param minZ The z coordinate of the chunk's minimum corner
+     * @param size The side length of the chunk
+     * @param currentLevel The level the chunk is at now
+     * @return The level, from 0 to the max level
+     */
+    public int getLevel(@NotNull Camera camera, float minX, float minY, float minZ, float size, int currentLevel) {
+        float distance = distanceTo(camera.getPosition(), minX, minY, minZ, size);
+        int level = levelAt(distance);
+        if (level > currentLevel && levelAt(distance * (1.0f - HYSTERESIS)) <= currentLevel) {
+            return currentLevel;
+        }
+        if (level < currentLevel && levelAt(distance * (1.0f + HYSTERESIS)) >= currentLevel) {
+            return currentLevel;
+        }
+        return level;
+    }
+
+    /**
+     * Gets how many voxels make up one side of a coarse voxel at a level
+     *
+     * @param level The level
+     * @return {@code 2^level}
+     */
+    @Contract(pure = true)
+    public static int getFactor(int level) {
+        return 1 << level;
+    }
+
+    /**
+     * @return The coarsest level this selector picks
+     */
+    @Contract(pure = true)
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    private int levelAt(float distance) {
+        int level = 0;
+        float limit = baseDistance;
+        while (distance >= limit && level < maxLevel) {
+            level++;
+            limit *= 2.0f;
+        }
+        return level;
+    }
+
+    /// Distance from a point to the nearest point of a cube, 0 if it's inside
+    private static float distanceTo(Vector3f position, float minX, float minY, float minZ, float size) {
+        float dx = Math.max(Math.max(minX - position.x, 0.0f), position.x - (minX + size));
+        float dy = Math.max(Math.max(minY - position.y, 0.0f), position.y - (minY + size));
+        float dz = Math.max(Math.max(minZ - position.z, 0.0f), position.z - (minZ + size));
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,63 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.Arrays;
+
+/**
+ * Per-material properties the mesher needs, such as whether a material hides the faces behind it.
+ * <p>
+ * Every material except {@link VoxelGrid#AIR} starts out opaque. Set things up before meshing starts; the registry is read
+ * from the meshing threads without locking.
+ *
+ * @author William
+ */
+public class MaterialRegistry {
+    private static final byte TRANSPARENT = 1;
+
+    private byte[] flags = new byte[256];
+
+    /**
+     * Sets whether a material is opaque. Faces next to an opaque material are culled. Faces next to a transparent one,
+     * such as glass or leaves, are kept unless the neighbour is the same material.
+     *
+     * @param material The material ID
+     * @param opaque Whether it is opaque
+     * @return This registry, for chaining
+     */
+    public MaterialRegistry setOpaque(int material, boolean opaque) {
+        if (material == VoxelGrid.AIR) {
+            throw new IllegalArgumentException("Air is never opaque.");
+        }
+        ensureCapacity(material);
+        if (opaque) {
+            flags[material] &= ~TRANSPARENT;
+        } else {
+            flags[material] |= TRANSPARENT;
+        }
+        return this;
+    }
+
+    /**
+     * Checks whether a material hides faces behind it
+     *
+     * @param material The material ID
+     * @return Whether it is opaque
+     */
+    @Contract(pure = true)
+    public boolean isOpaque(int material) {
+        if (material == VoxelGrid.AIR) {
+            return false;
+        }
+        return material < 0 || material >= flags.length || (flags[material] & TRANSPARENT) == 0;
+    }
+
+    private void ensureCapacity(int material) {
+        if (material < 0) {
+            throw new IllegalArgumentException("Material IDs must not be negative.");
+        }
+        if (material >= flags.length) {
+            flags = Arrays.copyOf(flags, Math.max(flags.length * 2, material + 1));
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * A cubic section of voxels that stores each voxel as a bit-packed index into a per-chunk palette of material IDs.
+ * <p>
+ * A chunk holding a single material (an all-air chunk, for example) stores no voxel data at all. As more distinct
+ * materials get placed the entries widen from 1 bit up to 32, always staying a power of two so an entry never straddles
+ * two {@code long}s. The palette only grows on {@link #set(int, int, int, int)}; call {@link #compact()} after heavy
+ * editing to drop materials that are no longer used and shrink the entries back down.
+ * <p>
+ * Voxels are indexed x fastest, then y, then z, matching {@link VoxelGrid#copyMaterials(int[])}.
+ * <p>
+ * Sky and block light are stored separately as 4 bits per voxel, and only once a chunk holds something other than full
+ * sky light and no block light.
+ *
+ * @author William
+ */
+public class PalettedChunk implements VoxelGrid {
+    /**
+     * The default side length of a chunk
+     */
+    public static final int DEFAULT_SIZE = 32;
+
+    private static final int MAX_BITS = Integer.SIZE;
+
+    private final int size;
+    private final int sizeShift;
+    private final int volume;
+
+    private int[] palette;
+    private int paletteSize;
+
+    private int bits; // 0 while the palette only has one entry
+    private int bitsShift; // log2(bits)
+    private int entriesShift; // log2(entries per long)
+    private long valueMask;
+    private long[] data;
+
+    private int nonAirCount;
+
+    // Light levels, two per byte. Each is only allocated once something other than its default is stored.
+    private byte[] skyLight; // Defaults to MAX_LIGHT
+    private byte[] blockLight; // Defaults to 0
+
+    /**
+     * Constructs an empty chunk of {@link #DEFAULT_SIZE}
+     */
+    public PalettedChunk() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructs an empty chunk
+     *
+     * @param size The side length, which must be a power of 2
+     */
+    public PalettedChunk(int size) {
+        if (size <= 0 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("Side length must be a power of 2!");
+        }
+        this.size = size;
+        this.sizeShift = Integer.numberOfTrailingZeros(size);
+        this.volume = size * size * size;
+        reset(AIR);
+    }
+
+    @Override
+    public int getSizeX() {
+        return size;
+    }
+
+    @Override
+    public int getSizeY() {
+        return size;
+    }
+
+    @Override
+    public int getSizeZ() {
+        return size;
+    }
+
+    @Override
+    public int getMaterial(int x, int y, int z) {
+        return get(x, y, z);
+    }
+
+    /**
+     * Gets the material at a position
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return The material ID
+     */
+    @Contract(pure = true)
+    public int get(int x, int y, int z) {
+        int index = index(x, y, z); // Checked even when there's no data, so a bad coordinate never goes unnoticed
+        if (bits == 0) {
+            return palette[0];
+        }
+        return palette[readEntry(index)];
+    }
+
+    /**
+     * Sets the material at a position, growing the palette if the material is new to this chunk
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @param material The material ID
+     * @return The material that was there before
+     */
+    public int set(int x, int y, int z, int material) {
+        int index = index(x, y, z);
+        int old = bits == 0 ? palette[0] : palette[readEntry(index)];
+        if (old == material) {
+            return old;
+        }
+
+        int entry = paletteIndexOf(material);
+        if (entry == -1) {
+            entry = addToPalette(material);
+        }
+        writeEntry(index, entry);
+
+        if (old == AIR) {
+            nonAirCount++;
+        } else if (material == AIR) {
+            nonAirCount--;
+        }
+        return old;
+    }
+
+    /**
+     * Sets every voxel to one material, dropping the palette and voxel data entirely
+     *
+     * @param material The material ID
+     */
+    public void fill(int material) {
+        reset(material);
+    }
+
+    /// Shared with the constructor, which mustn't call the overridable fill()
+    private void reset(int material) {
+        palette = new int[] {material};
+        paletteSize = 1;
+        data = null;
+        setBits(0);
+        nonAirCount = material == AIR ? 0 : volume;
+    }
+
+    /**
+     * Rebuilds the palette with only the materials that are still in use, narrowing the entries if possible
+     */
+    public void compact() {
+        if (bits == 0) {
+            return;
+        }
+
+        int[] counts = new int[paletteSize];
+        for (int i = 0; i < volume; i++) {
+            counts[readEntry(i)]++;
+        }
+
+        int[] remap = new int[paletteSize];
+        int used = 0;
+        for (int i = 0; i < paletteSize; i++) {
+            if (counts[i] != 0) {
+                remap[i] = used++;
+            }
+        }
+        if (used == paletteSize) {
+            return; // Nothing to drop
+        }
+
+        int[] newPalette = new int[Math.max(used, 1)];
+        for (int i = 0; i < paletteSize; i++) {
+            if (counts[i] != 0) {
+                newPalette[remap[i]] = palette[i];
+            }
+        }
+
+        if (used == 1) {
+            int material = newPalette[0];
+            reset(material);
+            return;
+        }
+
+        repack(bitsFor(used), remap);
+        palette = newPalette;
+        paletteSize = used;
+    }
+
+    @Override
+    public void copyMaterials(int @NotNull [] destination) {
+        if (bits == 0) {
+            Arrays.fill(destination, 0, volume, palette[0]);
+            return;
+        }
+
+        // Walk whole words at a time instead of recomputing the word and shift for every voxel
+        int entriesPerLong = 1 << entriesShift;
+        int n = 0;
+        for (long word : data) {
+            for (int e = 0; e < entriesPerLong && n < volume; e++) {
+                destination[n++] = palette[(int) (word & valueMask)];
+                word >>>= bits;
+            }
+        }
+    }
+
+    @Override
+    public void copyMaterials(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ, int @NotNull [] destination) {
+        checkBox(minX, minY, minZ, sizeX, sizeY, sizeZ);
+        if (bits == 0) {
+            Arrays.fill(destination, 0, sizeX * sizeY * sizeZ, palette[0]);
+            return;
+        }
+        int n = 0;
+        for (int z = minZ; z < minZ + sizeZ; z++) {
+            for (int y = minY; y < minY + sizeY; y++) {
+                int row = index(minX, y, z);
+                for (int x = 0; x < sizeX; x++) {
+                    destination[n++] = palette[readEntry(row + x)];
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits every voxel in index order without boxing anything
+     *
+     * @param visitor The visitor
+     */
+    public void forEach(@NotNull VoxelVisitor visitor) {
+        int mask = size - 1;
+        for (int i = 0; i < volume; i++) {
+            int material = bits == 0 ? palette[0] : palette[readEntry(i)];
+            visitor.visit(i & mask, (i >>> sizeShift) & mask, i >>> (sizeShift << 1), material);
+        }
+    }
+
+    /**
+     * Receives voxels from {@link #forEach(VoxelVisitor)}
+     */
+    @FunctionalInterface
+    public interface VoxelVisitor {
+        /**
+         * Visits one voxel
+         *
+         * @param x The x coordinate
+         * @param y The y coordinate
+         * @param z The z coordinate
+         * @param material The material ID
+         */
+        void visit(int x, int y, int z, int material);
+    }
+
+    @Override
+    public int getLight(int x, int y, int z) {
+        int index = index(x, y, z);
+        return (readNibble(skyLight, index, MAX_LIGHT) << 4) | readNibble(blockLight, index, 0);
+    }
+
+    @Override
+    public void copyLight(int @NotNull [] destination) {
+        if (skyLight == null && blockLight == null) {
+            Arrays.fill(destination, 0, volume, FULL_SKY_LIGHT);
+            return;
+        }
+        for (int i = 0; i < volume; i++) {
+            destination[i] = (readNibble(skyLight, i, MAX_LIGHT) << 4) | readNibble(blockLight, i, 0);
+        }
+    }
+
+    @Override
+    public void copyLight(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ, int @NotNull [] destination) {
+        checkBox(minX, minY, minZ, sizeX, sizeY, sizeZ);
+        if (skyLight == null && blockLight == null) {
+            Arrays.fill(destination, 0, sizeX * sizeY * sizeZ, FULL_SKY_LIGHT);
+            return;
+        }
+        int n = 0;
+        for (int z = minZ; z < minZ + sizeZ; z++) {
+            for (int y = minY; y < minY + sizeY; y++) {
+                int row = index(minX, y, z);
+                for (int x = 0; x < sizeX; x++) {
+                    destination[n++] = (readNibble(skyLight, row + x, MAX_LIGHT) << 4) | readNibble(blockLight, row + x, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the sky light at a position
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @param level The light level, from 0 to {@link #MAX_LIGHT}
+     */
+    public void setSkyLight(int x, int y, int z, int level) {
+        int index = index(x, y, z);
+        if (skyLight == null) {
+            if (level == MAX_LIGHT) {
+                return;
+            }
+            skyLight = new byte[(volume + 1) >>> 1];
+            Arrays.fill(skyLight, (byte) ((MAX_LIGHT << 4) | MAX_LIGHT));
+        }
+        writeNibble(skyLight, index, level);
+    }
+
+    /**
+     * Sets the block light at a position
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @param level The light level, from 0 to {@link #MAX_LIGHT}
+     */
+    public void setBlockLight(int x, int y, int z, int level) {
+        int index = index(x, y, z);
+        if (blockLight == null) {
+            if (level == 0) {
+                return;
+            }
+            blockLight = new byte[(volume + 1) >>> 1];
+        }
+        writeNibble(blockLight, index, level);
+    }
+
+    /**
+     * @return Whether every voxel in the chunk is air, in which case there is nothing to mesh
+     */
+    @Contract(pure = true)
+    public boolean isEmpty() {
+        return nonAirCount == 0;
+    }
+
+    /**
+     * @return The number of voxels that are not air
+     */
+    @Contract(pure = true)
+    public int getNonAirCount() {
+        return nonAirCount;
+    }
+
+    /**
+     * @return The number of bits each voxel currently takes up
+     */
+    @Contract(pure = true)
+    public int getBitsPerEntry() {
+        return bits;
+    }
+
+    /**
+     * @return The number of materials in the palette, including ones no longer in use until {@link #compact()} runs
+     */
+    @Contract(pure = true)
+    public int getPaletteSize() {
+        return paletteSize;
+    }
+
+    /**
+     * @return Roughly how many bytes the palette, voxel and light data take up on the heap
+     */
+    @Contract(pure = true)
+    public long getDataSizeInBytes() {
+        return (long) palette.length * Integer.BYTES + (data == null ? 0L : (long) data.length * Long.BYTES)
+                + (skyLight == null ? 0L : skyLight.length) + (blockLight == null ? 0L : blockLight.length);
+    }
+
+    private int index(int x, int y, int z) {
+        // Any coordinate outside 0 to size - 1, negatives included, has a bit set at or above sizeShift
+        if (((x | y | z) >>> sizeShift) != 0) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ", " + z + ") is outside a chunk of size " + size);
+        }
+        return x | (y << sizeShift) | (z << (sizeShift << 1));
+    }
+
+    /// The rows are read with raw indices, which would wrap into other voxels rather than throw
+    private void checkBox(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ) {
+        if (minX < 0 || minY < 0 || minZ < 0 || sizeX < 0 || sizeY < 0 || sizeZ < 0
+                || minX + sizeX > size || minY + sizeY > size || minZ + sizeZ > size) {
+            throw new IndexOutOfBoundsException("Box (" + minX + ", " + minY + ", " + minZ + ") of " + sizeX + "x" + sizeY + "x" + sizeZ
+                    + " is outside a chunk of size " + size);
+        }
+    }
+
+    private static int readNibble(byte[] nibbles, int index, int fallback) {
+        if (nibbles == null) {
+            return fallback;
+        }
+        return (nibbles[index >>> 1] >>> ((index & 1) << 2)) & 0xF;
+    }
+
+    private static void writeNibble(byte[] nibbles, int index, int level) {
+        int shift = (index & 1) << 2;
+        int i = index >>> 1;
+        nibbles[i] = (byte) ((nibbles[i] & ~(0xF << shift)) | ((level & 0xF) << shift));
+    }
+
+    private int readEntry(int index) {
+        long word = data[index >>> entriesShift];
+        int shift = (index & ((1 << entriesShift) - 1)) << bitsShift;
+        return (int) ((word >>> shift) & valueMask);
+    }
+
+    private void writeEntry(int index, int entry) {
+        int wordIndex = index >>> entriesShift;
+        int shift = (index & ((1 << entriesShift) - 1)) << bitsShift;
+        data[wordIndex] = (data[wordIndex] & ~(valueMask << shift)) | ((entry & valueMask) << shift);
+    }
+
+    private int paletteIndexOf(int material) {
+        // Palettes are tiny in practice, so a linear scan beats hashing
+        for (int i = 0; i < paletteSize; i++) {
+            if (palette[i] == material) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int addToPalette(int material) {
+        if (paletteSize == palette.length) {
+            palette = Arrays.copyOf(palette, paletteSize * 2);
+        }
+        palette[paletteSize] = material;
+        int entry = paletteSize++;
+
+        int needed = bitsFor(paletteSize);
+        if (needed > bits) {
+            repack(needed, null);
+        }
+        return entry;
+    }
+
+    /// Rewrites the voxel data at a new entry width, optionally remapping every entry on the way
+    private void repack(int newBits, int[] remap) {
+        long[] oldData = data;
+        int oldBits = bits;
+        int oldEntriesShift = entriesShift;
+        int oldBitsShift = bitsShift;
+        long oldMask = valueMask;
+
+        setBits(newBits);
+        data = new long[(volume + (1 << entriesShift) - 1) >>> entriesShift];
+
+        if (oldBits == 0) {
+            return; // Everything was entry 0, which is what a zeroed array already says
+        }
+        for (int i = 0; i < volume; i++) {
+            int shift = (i & ((1 << oldEntriesShift) - 1)) << oldBitsShift;
+            int entry = (int) ((oldData[i >>> oldEntriesShift] >>> shift) & oldMask);
+            writeEntry(i, remap == null ? entry : remap[entry]);
+        }
+    }
+
+    private void setBits(int newBits) {
+        bits = newBits;
+        if (newBits == 0) {
+            bitsShift = 0;
+            entriesShift = 0;
+            valueMask = 0L;
+            return;
+        }
+        bitsShift = Integer.numberOfTrailingZeros(newBits);
+        entriesShift = Integer.numberOfTrailingZeros(Long.SIZE / newBits);
+        valueMask = newBits == Long.SIZE ? -1L : (1L << newBits) - 1L;
+    }
+
+    /// The smallest power of 2 bit width that can address this many palette entries
+    private static int bitsFor(int paletteEntries) {
+        if (paletteEntries <= 1) {
+            return 0;
+        }
+        int needed = Integer.SIZE - Integer.numberOfLeadingZeros(paletteEntries - 1);
+        int bits = Integer.highestOneBit(needed);
+        if (bits < needed) {
+            bits <<= 1;
+        }
+        return Math.min(bits, MAX_BITS);
+    }
+}
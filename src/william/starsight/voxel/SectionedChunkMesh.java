@@ -0,0 +1,201 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import william.starsight.graphics.mesh.QuadMesh;
+import william.starsight.graphics.mesh.Tesselator;
+
+import java.util.BitSet;
+
+/**
+ * The mesh of one {@link PalettedChunk}, split into cubic sections that are remeshed independently.
+ * <p>
+ * Edits made through {@link #set(int, int, int, int)} mark only the sections they can affect as dirty, and
+ * {@link #update(GreedyMesher, Tesselator)} remeshes just those, writing into each section's existing vertex buffer
+ * instead of replacing the whole chunk's mesh. Changing one voxel therefore costs at most a few small sections.
+ * <p>
+ * An edit on the chunk's border can also change the faces of the neighbouring chunk, whose mesh has to be told with
+ * {@link #markDirty(int, int, int)} using the coordinates on its side.
+ * <p>
+ * Everything here must be called on the render thread, edits included, as the mesher reads the chunk while it runs.
+ * Edits from other threads should be posted to the {@link william.starsight.core.RenderThreadQueue}.
+ *
+ * @author William
+ */
+public class SectionedChunkMesh {
+    /**
+     * The default side length of a section
+     */
+    public static final int DEFAULT_SECTION_SIZE = 16;
+
+    private final VoxelNeighborhood neighborhood;
+    private final PalettedChunk chunk;
+    private final float originX, originY, originZ;
+
+    private final int sectionSize;
+    private final int sections; // Per axis
+    private final QuadMesh[] meshes; // Null until a section first has quads
+    private final BitSet dirty;
+
+    /**
+     * Constructs a sectioned mesh with sections of {@link #DEFAULT_SECTION_SIZE}, or the whole chunk if it is smaller
+     *
+     * @param neighborhood The chunk to mesh, which must be a {@link PalettedChunk}, and its neighbours
+     * @param originX The x coordinate of the chunk's minimum corner
+     * @param originY The y coordinate of the chunk's minimum corner
+     * @param originZ The z coordinate of the chunk's minimum corner
+     */
+    public SectionedChunkMesh(@NotNull VoxelNeighborhood neighborhood, float originX, float originY, float originZ) {
+        this(neighborhood, Math.min(DEFAULT_SECTION_SIZE, neighborhood.getCenter().getSizeX()), originX, originY, originZ);
+    }
+
+    /**
+     * Constructs a sectioned mesh
+     *
+     * @param neighborhood The chunk to mesh, which must be a {@link PalettedChunk}, and its neighbours
+     * @param sectionSize The side length of a section, which must divide the chunk's side length
+     * @param originX The x coordinate of the chunk's minimum corner
+     * @param originY The y coordinate of the chunk's minimum corner
+     * @param originZ The z coordinate of the chunk's minimum corner
+     */
+    public SectionedChunkMesh(@NotNull VoxelNeighborhood neighborhood, int sectionSize, float originX, float originY, float originZ) {
+        if (!(neighborhood.getCenter() instanceof PalettedChunk paletted)) {
+            throw new IllegalArgumentException("Sectioned meshes need a PalettedChunk at the centre!");
+        }
+        int chunkSize = paletted.getSizeX();
+        if (sectionSize <= 0 || chunkSize % sectionSize != 0) {
+            throw new IllegalArgumentException("Section size must divide the chunk size!");
+        }
+
+        this.neighborhood = neighborhood;
+        this.chunk = paletted;
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.sectionSize = sectionSize;
+        this.sections = chunkSize / sectionSize;
+        this.meshes = new QuadMesh[sections * sections * sections];
+        this.dirty = new BitSet(meshes.length);
+        dirty.set(0, meshes.length);
+    }
+
+    /**
+     * Sets a voxel and marks every section whose faces it can change as dirty
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @param material The material ID
+     * @return The material that was there before
+     */
+    public int set(int x, int y, int z, int material) {
+        int old = chunk.set(x, y, z, material);
+        if (old != material) {
+            markDirty(x, y, z);
+        }
+        return old;
+    }
+
+    /**
+     * Marks the sections that can see the voxel at a position as dirty. That is the voxel's own section, plus any
+     * section it borders, whose faces or ambient occlusion it can change.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     */
+    public void markDirty(int x, int y, int z) {
+        int maxSection = sections - 1;
+        int minSX = Math.max(0, Math.floorDiv(x - 1, sectionSize)), maxSX = Math.min(maxSection, Math.floorDiv(x + 1, sectionSize));
+        int minSY = Math.max(0, Math.floorDiv(y - 1, sectionSize)), maxSY = Math.min(maxSection, Math.floorDiv(y + 1, sectionSize));
+        int minSZ = Math.max(0, Math.floorDiv(z - 1, sectionSize)), maxSZ = Math.min(maxSection, Math.floorDiv(z + 1, sectionSize));
+
+        for (int sz = minSZ; sz <= maxSZ; sz++) {
+            for (int sy = minSY; sy <= maxSY; sy++) {
+                for (int sx = minSX; sx <= maxSX; sx++) {
+                    dirty.set(sx + sections * (sy + sections * sz));
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks every section as dirty, for example after the chunk's light or a neighbour changed wholesale
+     */
+    public void markAllDirty() {
+        dirty.set(0, meshes.length);
+    }
+
+    /**
+     * @return Whether any section is waiting to be remeshed
+     */
+    @Contract(pure = true)
+    public boolean isDirty() {
+        return !dirty.isEmpty();
+    }
+
+    /**
+     * Remeshes the dirty sections and uploads them
+     *
+     * @param mesher The mesher to use
+     * @param tesselator A tesselator with nothing pending, which stays in the same {@link Tesselator.Mode} for the life
+     *                   of this mesh
+     * @return The number of sections that were remeshed
+     */
+    public int update(@NotNull GreedyMesher mesher, @NotNull Tesselator tesselator) {
+        // Taken up front, so a section marked while this runs stays dirty for the next update
+        BitSet remeshing = (BitSet) dirty.clone();
+        dirty.clear();
+
+        int remeshed = 0;
+        for (int i = remeshing.nextSetBit(0); i >= 0; i = remeshing.nextSetBit(i + 1)) {
+            int sx = i % sections;
+            int sy = (i / sections) % sections;
+            int sz = i / (sections * sections);
+
+            int quads = mesher.mesh(neighborhood, sx * sectionSize, sy * sectionSize, sz * sectionSize,
+                    sectionSize, sectionSize, sectionSize, tesselator, originX, originY, originZ);
+
+            if (meshes[i] != null) {
+                tesselator.flushInto(meshes[i]); // Reuses the section's buffer, and empty sections just draw nothing
+            } else if (quads != 0) {
+                meshes[i] = tesselator.flushMesh();
+                meshes[i].initialize();
+            }
+            remeshed++;
+        }
+        return remeshed;
+    }
+
+    /**
+     * Draws every section that has quads. Dirty sections draw what they had before.
+     */
+    public void render() {
+        for (QuadMesh mesh : meshes) {
+            if (mesh != null) {
+                mesh.render();
+            }
+        }
+    }
+
+    /**
+     * @return The side length of a section
+     */
+    @Contract(pure = true)
+    public int getSectionSize() {
+        return sectionSize;
+    }
+
+    /**
+     * Frees every section's mesh
+     */
+    public void cleanup() {
+        for (int i = 0; i < meshes.length; i++) {
+            if (meshes[i] != null) {
+                meshes[i].cleanup();
+                meshes[i] = null;
+            }
+        }
+        markAllDirty();
+    }
+}
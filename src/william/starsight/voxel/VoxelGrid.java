@@ -0,0 +1,161 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A read-only box of voxels, each holding a material ID
+ *
+ * @author William
+ */
+public interface VoxelGrid {
+    /**
+     * The material ID of empty space. Faces are never emitted for air.
+     */
+    int AIR = 0;
+
+    /**
+     * The brightest a light level can be
+     */
+    int MAX_LIGHT = 15;
+
+    /**
+     * Full sky light and no block light, packed the way {@link #getLight(int, int, int)} returns it
+     */
+    int FULL_SKY_LIGHT = MAX_LIGHT << 4;
+
+    /**
+     * @return The number of voxels along the x axis
+     */
+    @Contract(pure = true)
+    int getSizeX();
+
+    /**
+     * @return The number of voxels along the y axis
+     */
+    @Contract(pure = true)
+    int getSizeY();
+
+    /**
+     * @return The number of voxels along the z axis
+     */
+    @Contract(pure = true)
+    int getSizeZ();
+
+    /**
+     * Gets the material of a voxel
+     *
+     * @param x The x coordinate, from 0 inclusive to {@link #getSizeX()} exclusive
+     * @param y The y coordinate, from 0 inclusive to {@link #getSizeY()} exclusive
+     * @param z The z coordinate, from 0 inclusive to {@link #getSizeZ()} exclusive
+     * @return The material ID, or {@link #AIR} if the voxel is empty
+     */
+    @Contract(pure = true)
+    int getMaterial(int x, int y, int z);
+
+    /**
+     * Copies every material into an array, x fastest, then y, then z. That is, the voxel at (x, y, z) lands at
+     * {@code x + getSizeX() * (y + getSizeY() * z)}.
+     * <p>
+     * Implementations with packed storage should override this, as unpacking in bulk is a lot cheaper than going
+     * through {@link #getMaterial(int, int, int)} once per voxel.
+     *
+     * @param destination The array to fill, at least {@code getSizeX() * getSizeY() * getSizeZ()} long
+     */
+    default void copyMaterials(int @NotNull [] destination) {
+        int sizeX = getSizeX();
+        int sizeY = getSizeY();
+        int sizeZ = getSizeZ();
+        int n = 0;
+        for (int z = 0; z < sizeZ; z++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int x = 0; x < sizeX; x++) {
+                    destination[n++] = getMaterial(x, y, z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the materials of a box inside the grid into an array, in the same order as {@link #copyMaterials(int[])} but
+     * relative to the box. That is, the voxel at (minX + x, minY + y, minZ + z) lands at {@code x + sizeX * (y + sizeY * z)}.
+     * <p>
+     * As with the whole grid, packed implementations should override this.
+     *
+     * @param minX The x coordinate of the box's minimum corner
+     * @param minY The y coordinate of the box's minimum corner
+     * @param minZ The z coordinate of the box's minimum corner
+     * @param sizeX The size of the box along x
+     * @param sizeY The size of the box along y
+     * @param sizeZ The size of the box along z
+     * @param destination The array to fill, at least {@code sizeX * sizeY * sizeZ} long
+     */
+    default void copyMaterials(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ, int @NotNull [] destination) {
+        int n = 0;
+        for (int z = minZ; z < minZ + sizeZ; z++) {
+            for (int y = minY; y < minY + sizeY; y++) {
+                for (int x = minX; x < minX + sizeX; x++) {
+                    destination[n++] = getMaterial(x, y, z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the light at a voxel, packed as {@code (sky << 4) | block} with both levels from 0 to {@link #MAX_LIGHT}.
+     * <p>
+     * Grids that don't track light are fully lit by the sky. Working out the light levels is up to whoever fills the
+     * grid; the mesher only reads them.
+     *
+     * @param x The x coordinate, from 0 inclusive to {@link #getSizeX()} exclusive
+     * @param y The y coordinate, from 0 inclusive to {@link #getSizeY()} exclusive
+     * @param z The z coordinate, from 0 inclusive to {@link #getSizeZ()} exclusive
+     * @return The packed light
+     */
+    @Contract(pure = true)
+    default int getLight(int x, int y, int z) {
+        return FULL_SKY_LIGHT;
+    }
+
+    /**
+     * Copies every packed light value into an array, in the same order as {@link #copyMaterials(int[])}
+     *
+     * @param destination The array to fill, at least {@code getSizeX() * getSizeY() * getSizeZ()} long
+     */
+    default void copyLight(int @NotNull [] destination) {
+        int sizeX = getSizeX();
+        int sizeY = getSizeY();
+        int sizeZ = getSizeZ();
+        int n = 0;
+        for (int z = 0; z < sizeZ; z++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int x = 0; x < sizeX; x++) {
+                    destination[n++] = getLight(x, y, z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the packed light of a box inside the grid into an array, in the same order as
+     * {@link #copyMaterials(int, int, int, int, int, int, int[])}
+     *
+     * @param minX The x coordinate of the box's minimum corner
+     * @param minY The y coordinate of the box's minimum corner
+     * @param minZ The z coordinate of the box's minimum corner
+     * @param sizeX The size of the box along x
+     * @param sizeY The size of the box along y
+     * @param sizeZ The size of the box along z
+     * @param destination The array to fill, at least {@code sizeX * sizeY * sizeZ} long
+     */
+    default void copyLight(int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ, int @NotNull [] destination) {
+        int n = 0;
+        for (int z = minZ; z < minZ + sizeZ; z++) {
+            for (int y = minY; y < minY + sizeY; y++) {
+                for (int x = minX; x < minX + sizeX; x++) {
+                    destination[n++] = getLight(x, y, z);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package william.starsight.voxel;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A read-only view of a grid and the 26 grids around it, so the mesher can see across chunk borders.
+ * <p>
+ * Neighbours must be the same size as the centre. A missing neighbour reads as air, which keeps faces on the border of
+ * the loaded world rather than leaving holes in it.
+ *
+ * @author William
+ */
+public class VoxelNeighborhood {
+    private final VoxelGrid[] grids = new VoxelGrid[27];
+    private final int sizeX, sizeY, sizeZ;
+
+    /**
+     * Constructs a neighbourhood with no neighbours yet
+     *
+     * @param center The grid in the middle
+     */
+    public VoxelNeighborhood(@NotNull VoxelGrid center) {
+        grids[slot(0, 0, 0)] = center;
+        sizeX = center.getSizeX();
+        sizeY = center.getSizeY();
+        sizeZ = center.getSizeZ();
+    }
+
+    /**
+     * Sets one of the neighbouring grids
+     *
+     * @param dx The offset along x, from -1 to 1
+     * @param dy The offset along y, from -1 to 1
+     * @param dz The offset along z, from -1 to 1
+     * @param neighbor The neighbour, or {@code null} if it isn't loaded
+     * @return This neighbourhood, for chaining
+     */
+    public VoxelNeighborhood setNeighbor(int dx, int dy, int dz, @Nullable VoxelGrid neighbor) {
+        if ((dx | dy | dz) == 0) {
+            throw new IllegalArgumentException("The centre is not a neighbour.");
+        }
+        if (neighbor != null && (neighbor.getSizeX() != sizeX || neighbor.getSizeY() != sizeY || neighbor.getSizeZ() != sizeZ)) {
+            throw new IllegalArgumentException("Neighbours must be the same size as the centre.");
+        }
+        grids[slot(dx, dy, dz)] = neighbor;
+        return this;
+    }
+
+    /**
+     * @return The grid in the middle
+     */
+    @Contract(pure = true)
+    public @NotNull VoxelGrid getCenter() {
+        return grids[slot(0, 0, 0)];
+    }
+
+    /**
+     * Gets one of the neighbouring grids
+     *
+     * @param dx The offset along x, from -1 to 1
+     * @param dy The offset along y, from -1 to 1
+     * @param dz The offset along z, from -1 to 1
+     * @return The neighbour, or {@code null} if it isn't loaded
+     */
+    @Contract(pure = true)
+    public @Nullable VoxelGrid getNeighbor(int dx, int dy, int dz) {
+        return grids[slot(dx, dy, dz)];
+    }
+
+    /**
+     * Builds a copy of this neighbourhood at a lower resolution for meshing a distant chunk. The centre is downsampled up
+     * front, while the neighbours are only wrapped, as the mesher just reads their borders.
+     * <p>
+     * Neighbours meshed at a different level of detail should be left out. Their surface doesn't line up with this one,
+     * so culling against them leaves cracks, whereas a missing neighbour reads as air and makes the border faces get
+     * emitted on both sides, which closes the seam.
+     *
+     * @param factor How many voxels make up one side of a coarse voxel
+     * @param include Which neighbours to keep
+     * @return The downsampled neighbourhood, or this one if {@code factor} is 1 and every neighbour is kept
+     * @see DownsampledGrid
+     */
+    public @NotNull VoxelNeighborhood downsample(int factor, @NotNull NeighborFilter include) {
+        VoxelNeighborhood result = new VoxelNeighborhood(DownsampledGrid.of(getCenter(), factor));
+        boolean dropped = false;
+        for (int dz = -1; dz <= 1; dz++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    VoxelGrid neighbor = grids[slot(dx, dy, dz)];
+                    if ((dx | dy | dz) == 0 || neighbor == null) {
+                        continue;
+                    }
+                    if (include.test(dx, dy, dz)) {
+                        result.grids[slot(dx, dy, dz)] = DownsampledGrid.view(neighbor, factor);
+                    } else {
+                        dropped = true;
+                    }
+                }
+            }
+        }
+        return factor == 1 && !dropped ? this : result;
+    }
+
+    /**
+     * Picks neighbours by their offset from the centre
+     */
+    @FunctionalInterface
+    public interface NeighborFilter {
+        /**
+         * @param dx The offset along x, from -1 to 1
+         * @param dy The offset along y, from -1 to 1
+         * @param dz The offset along z, from -1 to 1
+         * @return Whether to keep the neighbour
+         */
+        boolean test(int dx, int dy, int dz);
+    }
+
+    /**
+     * Gets a material relative to the centre grid, reaching into the neighbours when the position is outside of it
+     *
+     * @param x The x coordinate, from {@code -getSizeX()} inclusive to {@code 2 * getSizeX()} exclusive
+     * @param y The y coordinate, from {@code -getSizeY()} inclusive to {@code 2 * getSizeY()} exclusive
+     * @param z The z coordinate, from {@code -getSizeZ()} inclusive to {@code 2 * getSizeZ()} exclusive
+     * @return The material, or {@link VoxelGrid#AIR} if that neighbour is missing
+     */
+    @Contract(pure = true)
+    public int getMaterial(int x, int y, int z) {
+        int dx = Math.floorDiv(x, sizeX);
+        int dy = Math.floorDiv(y, sizeY);
+        int dz = Math.floorDiv(z, sizeZ);
+        VoxelGrid grid = grids[slot(dx, dy, dz)];
+        if (grid == null) {
+            return VoxelGrid.AIR;
+        }
+        return grid.getMaterial(x - dx * sizeX, y - dy * sizeY, z - dz * sizeZ);
+    }
+
+    /**
+     * Gets the packed light relative to the centre grid, the same way {@link #getMaterial(int, int, int)} gets materials
+     *
+     * @param x The x coordinate, from {@code -getSizeX()} inclusive to {@code 2 * getSizeX()} exclusive
+     * @param y The y coordinate, from {@code -getSizeY()} inclusive to {@code 2 * getSizeY()} exclusive
+     * @param z The z coordinate, from {@code -getSizeZ()} inclusive to {@code 2 * getSizeZ()} exclusive
+     * @return The packed light, or {@link VoxelGrid#FULL_SKY_LIGHT} if that neighbour is missing
+     */
+    @Contract(pure = true)
+    public int getLight(int x, int y, int z) {
+        int dx = Math.floorDiv(x, sizeX);
+        int dy = Math.floorDiv(y, sizeY);
+        int dz = Math.floorDiv(z, sizeZ);
+        VoxelGrid grid = grids[slot(dx, dy, dz)];
+        if (grid == null) {
+            return VoxelGrid.FULL_SKY_LIGHT;
+        }
+        return grid.getLight(x - dx * sizeX, y - dy * sizeY, z - dz * sizeZ);
+    }
+
+    private static int slot(int dx, int dy, int dz) {
+        return (dx + 1) + 3 * ((dy + 1) + 3 * (dz + 1));
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Voxel data and the meshing code that turns it into geometry for the {@link william.starsight.graphics.mesh.Tesselator}
+ *
+ * @author William
+ */
+package william.starsight.voxel;
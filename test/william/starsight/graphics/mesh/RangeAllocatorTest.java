@@ -0,0 +1,127 @@
+package william.starsight.graphics.mesh;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the free list's bookkeeping: first fit, alignment, and merging freed ranges back together
+ *
+ * @author William
+ */
+class RangeAllocatorTest {
+    @Test
+    void allocatesFirstFit() {
+        RangeAllocator allocator = new RangeAllocator(100);
+        assertEquals(0, allocator.allocate(10, 1));
+        assertEquals(10, allocator.allocate(20, 1));
+        assertEquals(30, allocator.allocate(5, 1));
+        assertEquals(65, allocator.getTotalFree());
+
+        allocator.free(0, 10);
+        assertEquals(0, allocator.allocate(8, 1)); // The first hole that fits, not the biggest
+        assertEquals(35, allocator.allocate(5, 1)); // 2 left at 8 doesn't fit
+    }
+
+    @Test
+    void returnsMinusOneWhenNothingFits() {
+        RangeAllocator allocator = new RangeAllocator(16);
+        assertEquals(0, allocator.allocate(16, 1));
+        assertEquals(-1, allocator.allocate(1, 1));
+        assertEquals(0, allocator.allocate(0, 1)); // Empty ranges always fit
+    }
+
+    @Test
+    void alignsAndKeepsThePadding() {
+        RangeAllocator allocator = new RangeAllocator(64);
+        assertEquals(0, allocator.allocate(3, 1));
+        assertEquals(8, allocator.allocate(4, 8));
+        assertEquals(61 - 4, allocator.getTotalFree()); // The padding before 8 stays free
+        assertEquals(3, allocator.allocate(5, 1)); // And can be handed out
+    }
+
+    @Test
+    void mergesWithBothNeighbours() {
+        RangeAllocator allocator = new RangeAllocator(30);
+        int a = allocator.allocate(10, 1);
+        int b = allocator.allocate(10, 1);
+        int c = allocator.allocate(10, 1);
+        allocator.free(a, 10);
+        allocator.free(c, 10);
+        assertEquals(10, allocator.getLargestFree());
+        assertTrue(allocator.getFragmentation() > 0.0f);
+
+        allocator.free(b, 10);
+        assertEquals(30, allocator.getLargestFree());
+        assertEquals(0.0f, allocator.getFragmentation());
+        assertEquals(0, allocator.allocate(30, 1));
+    }
+
+    @Test
+    void growsOntoTheEnd() {
+        RangeAllocator allocator = new RangeAllocator(10);
+        assertEquals(0, allocator.allocate(6, 1));
+        allocator.grow(20);
+        assertEquals(20, allocator.getCapacity());
+        assertEquals(14, allocator.getLargestFree()); // The old tail and the new space are one range
+        assertEquals(6, allocator.allocate(14, 1));
+    }
+
+    @Test
+    void resetFreesEverything() {
+        RangeAllocator allocator = new RangeAllocator(50);
+        allocator.allocate(10, 1);
+        allocator.allocate(10, 4);
+        allocator.reset();
+        assertEquals(50, allocator.getTotalFree());
+        assertEquals(50, allocator.getLargestFree());
+    }
+
+    @Test
+    void neverHandsOutOverlappingRanges() {
+        int capacity = 4096;
+        RangeAllocator allocator = new RangeAllocator(capacity);
+        boolean[] used = new boolean[capacity];
+        List<int[]> live = new ArrayList<>();
+        Random random = new Random(11);
+
+        for (int step = 0; step < 5_000; step++) {
+            if (!live.isEmpty() && random.nextInt(3) == 0) {
+                int[] range = live.remove(random.nextInt(live.size()));
+                for (int i = range[0]; i < range[0] + range[1]; i++) {
+                    used[i] = false;
+                }
+                allocator.free(range[0], range[1]);
+                continue;
+            }
+            int length = 1 + random.nextInt(64);
+            int alignment = 1 << random.nextInt(4);
+            int start = allocator.allocate(length, alignment);
+            if (start == -1) {
+                continue;
+            }
+            assertEquals(0, start % alignment);
+            assertTrue(start + length <= capacity);
+            for (int i = start; i < start + length; i++) {
+                assertFalse(used[i], "Handed out " + i + " twice");
+                used[i] = true;
+            }
+            live.add(new int[] {start, length});
+        }
+
+        int inUse = 0;
+        for (boolean u : used) {
+            inUse += u ? 1 : 0;
+        }
+        assertEquals(capacity - inUse, allocator.getTotalFree());
+
+        for (int[] range : live) {
+            allocator.free(range[0], range[1]);
+        }
+        assertEquals(capacity, allocator.getLargestFree()); // Everything merged back into one range
+    }
+}
@@ -0,0 +1,124 @@
+package william.starsight.graphics.scene;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the draw keys and their radix sort without needing GL: unsigned order, stability, and the order passes,
+ * shaders and depths come out in
+ *
+ * @author William
+ */
+class RenderQueueSortTest {
+    @Test
+    void sortsAsUnsigned() {
+        DrawKeySorter sorter = new DrawKeySorter(4); // Small, so adding has to grow it
+        long[] keys = new long[1_000];
+        Random random = new Random(5);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong(); // Half have the top bit set, like passes 8 and up
+            assertEquals(i, sorter.add(keys[i]));
+        }
+        sorter.sort();
+
+        long[] expected = Arrays.stream(keys).boxed().sorted(Long::compareUnsigned).mapToLong(Long::longValue).toArray();
+        long[] actual = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            actual[i] = sorter.getKey(i);
+            assertEquals(keys[sorter.getIndex(i)], actual[i]); // The index still points at the key's draw
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void keepsEqualKeysInOrder() {
+        DrawKeySorter sorter = new DrawKeySorter(16);
+        Random random = new Random(9);
+        for (int i = 0; i < 500; i++) {
+            sorter.add(random.nextInt(4) * 0x0101_0101_0101_0101L); // Lots of ties, differing in every byte
+        }
+        sorter.sort();
+        for (int i = 1; i < sorter.size(); i++) {
+            if (sorter.getKey(i) == sorter.getKey(i - 1)) {
+                assertTrue(sorter.getIndex(i) > sorter.getIndex(i - 1), "Equal keys swapped at " + i);
+            }
+        }
+    }
+
+    @Test
+    void reusesStorageAfterClear() {
+        DrawKeySorter sorter = new DrawKeySorter(8);
+        sorter.add(3);
+        sorter.add(1);
+        sorter.sort();
+        sorter.clear();
+        assertEquals(0, sorter.size());
+        sorter.sort(); // Nothing to sort is fine
+
+        assertEquals(0, sorter.add(7));
+        assertEquals(1, sorter.add(2));
+        sorter.sort();
+        assertEquals(2, sorter.getKey(0));
+        assertEquals(1, sorter.getIndex(0));
+    }
+
+    @Test
+    void lowerPassesComeFirst() {
+        long[] keys = {
+                RenderQueue.makeKey(9, false, 1, 1, 1, 1.0f),
+                RenderQueue.makeKey(2, true, 1, 1, 1, 1.0f),
+                RenderQueue.makeKey(0, false, 4095, 4095, 65535, 1000.0f),
+                RenderQueue.makeKey(15, false, 0, 0, 0, 0.0f),
+                RenderQueue.makeKey(8, true, 0, 0, 0, 0.0f),
+        };
+        assertArrayEquals(new int[] {2, 1, 4, 0, 3}, sortedIndices(keys));
+    }
+
+    @Test
+    void opaquePassesGroupByShaderThenNearFirst() {
+        long[] keys = {
+                RenderQueue.makeKey(0, false, 2, 1, 1, 5.0f),
+                RenderQueue.makeKey(0, false, 1, 1, 1, 50.0f),
+                RenderQueue.makeKey(0, false, 2, 1, 1, 1.0f),
+                RenderQueue.makeKey(0, false, 1, 1, 1, 2.0f),
+                RenderQueue.makeKey(0, false, 1, 2, 1, 0.5f),
+        };
+        // Shader 1's draws, texture 1 near to far, then texture 2, then shader 2's
+        assertArrayEquals(new int[] {3, 1, 4, 2, 0}, sortedIndices(keys));
+    }
+
+    @Test
+    void backToFrontPassesDrawFarFirst() {
+        long[] keys = {
+                RenderQueue.makeKey(1, true, 1, 0, 1, 3.0f),
+                RenderQueue.makeKey(1, true, 2, 0, 1, 300.0f),
+                RenderQueue.makeKey(1, true, 1, 0, 1, 30.0f),
+                RenderQueue.makeKey(1, true, 3, 0, 1, -4.0f), // Behind the camera counts as right on it
+        };
+        assertArrayEquals(new int[] {1, 2, 0, 3}, sortedIndices(keys));
+    }
+
+    @Test
+    void namesOnlyUseTheirOwnBits() {
+        // Names too big for their field wrap instead of spilling into the pass
+        assertEquals(0, RenderQueue.makeKey(0, false, 4096, 4096, 65536, 0.0f));
+        assertEquals(3, RenderQueue.makeKey(3, true, 4096 + 7, 0, 0, 0.0f) >>> 60);
+    }
+
+    private static int[] sortedIndices(long[] keys) {
+        DrawKeySorter sorter = new DrawKeySorter(keys.length);
+        for (long key : keys) {
+            sorter.add(key);
+        }
+        sorter.sort();
+        int[] indices = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            indices[i] = sorter.getIndex(i);
+        }
+        return indices;
+    }
+}
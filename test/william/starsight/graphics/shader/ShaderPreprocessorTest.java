@@ -0,0 +1,88 @@
+package william.starsight.graphics.shader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks includes and define injection against an in-memory set of files
+ *
+ * @author William
+ */
+class ShaderPreprocessorTest {
+    private final Map<String, String> files = new HashMap<>();
+    private final ShaderPreprocessor preprocessor = new ShaderPreprocessor(files::get);
+
+    @Test
+    void pastesIncludesInPlace() throws ShaderCompilationException {
+        files.put("/shaders/main.glsl", "#version 430\n#include \"common.glsl\"\nvoid main() {}");
+        files.put("/shaders/common.glsl", "float common;");
+        assertEquals("#version 430\nfloat common;\nvoid main() {}\n", preprocessor.processFile("/shaders/main.glsl", Map.of()));
+    }
+
+    @Test
+    void includesEachFileOnce() throws ShaderCompilationException {
+        files.put("/main.glsl", "#include \"a.glsl\"\n#include \"b.glsl\"\n#include \"a.glsl\"");
+        files.put("/a.glsl", "#include \"c.glsl\"\nfloat a;");
+        files.put("/b.glsl", "#include \"c.glsl\"\nfloat b;");
+        files.put("/c.glsl", "float c;");
+        assertEquals("float c;\nfloat a;\nfloat b;\n", preprocessor.processFile("/main.glsl", Map.of()));
+    }
+
+    @Test
+    void resolvesRelativeAndAbsolutePaths() throws ShaderCompilationException {
+        files.put("/shaders/terrain/main.glsl", "#include \"../lib/./noise.glsl\"\n#include </lib/light.glsl>");
+        files.put("/shaders/lib/noise.glsl", "#include \"/shaders/lib/noise.glsl\"\nfloat noise;"); // Itself, spelled another way
+        files.put("/lib/light.glsl", "float light;");
+        assertThrows(ShaderCompilationException.class, () -> preprocessor.processFile("/shaders/terrain/main.glsl", Map.of()));
+
+        files.put("/shaders/lib/noise.glsl", "float noise;");
+        assertEquals("float noise;\nfloat light;\n", preprocessor.processFile("/shaders/terrain/main.glsl", Map.of()));
+    }
+
+    @Test
+    void rejectsIncludeCycles() {
+        files.put("/a.glsl", "#include \"b.glsl\"");
+        files.put("/b.glsl", "#include \"c.glsl\"");
+        files.put("/c.glsl", "#include \"a.glsl\"");
+        ShaderCompilationException e = assertThrows(ShaderCompilationException.class, () -> preprocessor.processFile("/a.glsl", Map.of()));
+        assertTrue(e.getMessage().contains("cycle"), e.getMessage());
+
+        files.put("/self.glsl", "#include \"self.glsl\"");
+        assertThrows(ShaderCompilationException.class, () -> preprocessor.processFile("/self.glsl", Map.of()));
+    }
+
+    @Test
+    void rejectsMissingAndMalformedIncludes() {
+        files.put("/missing.glsl", "#include \"nowhere.glsl\"");
+        assertThrows(ShaderCompilationException.class, () -> preprocessor.processFile("/missing.glsl", Map.of()));
+        assertThrows(ShaderCompilationException.class, () -> preprocessor.processFile("/nowhere.glsl", Map.of()));
+
+        assertThrows(ShaderCompilationException.class, () -> preprocessor.process("#include nothing", null, Map.of()));
+        assertThrows(ShaderCompilationException.class, () -> preprocessor.process("#include \"\"", null, Map.of()));
+    }
+
+    @Test
+    void injectsDefinesAfterTheVersion() throws ShaderCompilationException {
+        String source = "// Needs #version 430 for SSBOs\n  #version 430 core\nvoid main() {}";
+        assertEquals("// Needs #version 430 for SSBOs\n  #version 430 core\n#define SHADOWS\n#define LIGHTS 4\nvoid main() {}\n",
+                preprocessor.process(source, null, orderedDefines()));
+    }
+
+    @Test
+    void injectsDefinesFirstWithoutAVersion() throws ShaderCompilationException {
+        assertEquals("#define SHADOWS\n#define LIGHTS 4\nvoid main() {}\n", preprocessor.process("void main() {}", null, orderedDefines()));
+        assertEquals("void main() {}\n", preprocessor.process("void main() {}", null, Map.of()));
+    }
+
+    private static Map<String, String> orderedDefines() {
+        Map<String, String> defines = new LinkedHashMap<>();
+        defines.put("SHADOWS", "");
+        defines.put("LIGHTS", "4");
+        return defines;
+    }
+}
@@ -0,0 +1,193 @@
+package william.starsight.voxel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the palette and entry width follow the chunk's contents, and that voxels survive every repack
+ *
+ * @author William
+ */
+class PalettedChunkTest {
+    private static final int SIZE = 16;
+
+    @Test
+    void startsEmptyWithNoData() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        assertTrue(chunk.isEmpty());
+        assertEquals(0, chunk.getBitsPerEntry());
+        assertEquals(1, chunk.getPaletteSize());
+        assertEquals(VoxelGrid.AIR, chunk.get(5, 6, 7));
+    }
+
+    @Test
+    void widensInPowersOfTwo() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        chunk.set(0, 0, 0, 1);
+        assertEquals(1, chunk.getBitsPerEntry());
+        chunk.set(1, 0, 0, 2);
+        assertEquals(2, chunk.getBitsPerEntry());
+        chunk.set(2, 0, 0, 3);
+        chunk.set(3, 0, 0, 4);
+        assertEquals(4, chunk.getBitsPerEntry()); // 5 entries need 3 bits, rounded up to 4
+        for (int material = 5; material < 17; material++) {
+            chunk.set(material % SIZE, 1, 0, material);
+        }
+        assertEquals(8, chunk.getBitsPerEntry());
+    }
+
+    @Test
+    void keepsEveryVoxelThroughRepacks() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        int[] expected = new int[SIZE * SIZE * SIZE];
+        Random random = new Random(42);
+
+        // Enough distinct materials to walk the width from 0 bits all the way up to 16
+        for (int i = 0; i < 20_000; i++) {
+            int x = random.nextInt(SIZE), y = random.nextInt(SIZE), z = random.nextInt(SIZE);
+            int material = random.nextInt(300);
+            int old = chunk.set(x, y, z, material);
+            int index = x + SIZE * (y + SIZE * z);
+            assertEquals(expected[index], old);
+            expected[index] = material;
+        }
+        assertEquals(16, chunk.getBitsPerEntry());
+        assertMatches(expected, chunk);
+    }
+
+    @Test
+    void compactDropsUnusedMaterialsAndNarrows() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        for (int material = 1; material <= 20; material++) {
+            chunk.set(material % SIZE, material / SIZE, 0, material);
+        }
+        assertEquals(8, chunk.getBitsPerEntry());
+
+        // Leave only materials 3 and 7 behind
+        for (int material = 1; material <= 20; material++) {
+            if (material != 3 && material != 7) {
+                chunk.set(material % SIZE, material / SIZE, 0, VoxelGrid.AIR);
+            }
+        }
+        assertEquals(21, chunk.getPaletteSize()); // Nothing is dropped until compact()
+
+        chunk.compact();
+        assertEquals(3, chunk.getPaletteSize());
+        assertEquals(2, chunk.getBitsPerEntry());
+        assertEquals(3, chunk.get(3, 0, 0));
+        assertEquals(7, chunk.get(7, 0, 0));
+        assertEquals(VoxelGrid.AIR, chunk.get(4, 0, 0));
+        assertEquals(2, chunk.getNonAirCount());
+    }
+
+    @Test
+    void compactOfOneMaterialDropsTheData() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        chunk.set(1, 2, 3, 5);
+        chunk.set(1, 2, 3, VoxelGrid.AIR);
+        chunk.compact();
+        assertEquals(0, chunk.getBitsPerEntry());
+        assertEquals(1, chunk.getPaletteSize());
+        assertTrue(chunk.isEmpty());
+        assertEquals(VoxelGrid.AIR, chunk.get(1, 2, 3));
+    }
+
+    @Test
+    void compactKeepsEveryVoxel() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        int[] expected = new int[SIZE * SIZE * SIZE];
+        Random random = new Random(7);
+        for (int i = 0; i < 5_000; i++) {
+            int x = random.nextInt(SIZE), y = random.nextInt(SIZE), z = random.nextInt(SIZE);
+            int material = random.nextInt(40);
+            chunk.set(x, y, z, material);
+            expected[x + SIZE * (y + SIZE * z)] = material;
+        }
+        // Overwrite most materials so the palette has plenty to drop
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] > 5) {
+                expected[i] = 1;
+                chunk.set(i % SIZE, (i / SIZE) % SIZE, i / (SIZE * SIZE), 1);
+            }
+        }
+        chunk.compact();
+        assertEquals(6, chunk.getPaletteSize());
+        assertEquals(4, chunk.getBitsPerEntry());
+        assertMatches(expected, chunk);
+    }
+
+    @Test
+    void fillDropsTheData() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        chunk.set(0, 0, 0, 1);
+        chunk.set(1, 0, 0, 2);
+        chunk.fill(9);
+        assertEquals(0, chunk.getBitsPerEntry());
+        assertEquals(SIZE * SIZE * SIZE, chunk.getNonAirCount());
+        assertEquals(9, chunk.get(15, 15, 15));
+    }
+
+    @Test
+    void copiesBoxes() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        Random random = new Random(3);
+        for (int i = 0; i < 2_000; i++) {
+            chunk.set(random.nextInt(SIZE), random.nextInt(SIZE), random.nextInt(SIZE), random.nextInt(5));
+        }
+        int[] box = new int[3 * 4 * 5];
+        chunk.copyMaterials(2, 3, 4, 3, 4, 5, box);
+        int n = 0;
+        for (int z = 4; z < 9; z++) {
+            for (int y = 3; y < 7; y++) {
+                for (int x = 2; x < 5; x++) {
+                    assertEquals(chunk.get(x, y, z), box[n++]);
+                }
+            }
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> chunk.copyMaterials(14, 0, 0, 3, 1, 1, box));
+    }
+
+    @Test
+    void storesLightOnlyOnceItDiffers() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        long empty = chunk.getDataSizeInBytes();
+        chunk.setSkyLight(1, 1, 1, VoxelGrid.MAX_LIGHT);
+        chunk.setBlockLight(1, 1, 1, 0);
+        assertEquals(empty, chunk.getDataSizeInBytes());
+
+        chunk.setSkyLight(1, 1, 1, 4);
+        chunk.setBlockLight(2, 1, 1, 11);
+        assertEquals((4 << 4), chunk.getLight(1, 1, 1));
+        assertEquals((VoxelGrid.MAX_LIGHT << 4) | 11, chunk.getLight(2, 1, 1));
+        assertEquals(VoxelGrid.FULL_SKY_LIGHT, chunk.getLight(3, 1, 1));
+    }
+
+    @Test
+    void rejectsCoordinatesOutsideTheChunk() {
+        PalettedChunk chunk = new PalettedChunk(SIZE);
+        assertThrows(IndexOutOfBoundsException.class, () -> chunk.get(SIZE, 0, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> chunk.get(0, -1, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> chunk.set(0, 0, SIZE, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> chunk.getLight(-1, 0, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> chunk.setSkyLight(0, SIZE, 0, VoxelGrid.MAX_LIGHT));
+        assertThrows(IndexOutOfBoundsException.class, () -> chunk.setBlockLight(0, 0, -1, 0));
+    }
+
+    @Test
+    void rejectsSizesThatArentPowersOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new PalettedChunk(24));
+        assertThrows(IllegalArgumentException.class, () -> new PalettedChunk(0));
+    }
+
+    private static void assertMatches(int[] expected, PalettedChunk chunk) {
+        int[] actual = new int[expected.length];
+        chunk.copyMaterials(actual);
+        assertArrayEquals(expected, actual);
+        for (int i = 0; i < expected.length; i += 97) {
+            assertEquals(expected[i], chunk.get(i % SIZE, (i / SIZE) % SIZE, i / (SIZE * SIZE)));
+        }
+    }
+}